@@ -0,0 +1,98 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Payloads used by the benchmarks: test fixtures and synthetic GitHub workflow_run events
+ */
+final class BenchmarkPayloads {
+
+	private BenchmarkPayloads() {
+	}
+
+	/**
+	 * Load a fixture copied from src/test/resources
+	 * @param name the file name
+	 * @return the content
+	 */
+	static String fixture(String name) {
+		try (InputStream inputStream = BenchmarkPayloads.class.getClassLoader().getResourceAsStream(name)) {
+			if (inputStream == null)
+				throw new IllegalArgumentException("Unknown fixture " + name);
+			return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Build a workflow_run event shaped like the ones sent by GitHub
+	 * @param targetSize the approximate size of the payload in bytes
+	 * @param conclusion the workflow conclusion
+	 * @return the payload
+	 */
+	static String workflowRun(int targetSize, String conclusion) {
+		StringBuilder json = new StringBuilder(targetSize + 1024);
+		json.append("{\"action\":\"completed\",\"workflow_run\":{")
+				.append("\"id\":9876543210,\"name\":\"java build\",\"node_id\":\"WFR_kwLOAbCdEf8AAAACTm9kZQ\",")
+				.append("\"head_branch\":\"master\",\"head_sha\":\"62aae5f70ceee39123ef62aae5f70ceee39123ef\",")
+				.append("\"path\":\".github/workflows/build.yml\",\"run_number\":421,\"event\":\"push\",")
+				.append("\"status\":\"completed\",\"conclusion\":\"").append(conclusion).append("\",")
+				.append("\"workflow_id\":1234567,\"check_suite_id\":23456789,")
+				.append("\"html_url\":\"https://github.com/antoine-aumjaud/api-synology-chatbot/actions/runs/9876543210\",")
+				.append("\"pull_requests\":[],\"created_at\":\"2026-10-18T10:00:00Z\",\"updated_at\":\"2026-10-18T10:05:00Z\",");
+		appendUser(json, "actor");
+		json.append(",");
+		appendUser(json, "triggering_actor");
+		json.append(",\"head_commit\":{\"id\":\"62aae5f70ceee39123ef62aae5f70ceee39123ef\",")
+				.append("\"tree_id\":\"0123456789abcdef0123456789abcdef01234567\",")
+				.append("\"message\":\"Fix signature check on empty payloads\\n\\nThe payload was read twice.\",")
+				.append("\"timestamp\":\"2026-10-18T09:59:00Z\",")
+				.append("\"author\":{\"name\":\"Antoine Aumjaud\",\"email\":\"antoine_dev@aumjaud.fr\"},")
+				.append("\"committer\":{\"name\":\"GitHub\",\"email\":\"noreply@github.com\"}},");
+		json.append("\"repository\":");
+		appendRepository(json);
+		json.append(",\"head_repository\":");
+		appendRepository(json);
+		json.append("},\"workflow\":{\"id\":1234567,\"name\":\"java build\",\"path\":\".github/workflows/build.yml\",\"state\":\"active\"},");
+		json.append("\"repository\":");
+		appendRepository(json);
+		json.append(",\"sender\":");
+		appendUser(json, null);
+		// pad with installation-like metadata up to the requested size
+		json.append(",\"deployments\":[");
+		int index = 0;
+		while (json.length() < targetSize) {
+			if (index > 0) json.append(',');
+			json.append("{\"id\":").append(index)
+					.append(",\"environment\":\"environment-").append(index)
+					.append("\",\"description\":\"Deployment ").append(index).append(" of the workflow run, with some text to skip\"")
+					.append(",\"statuses_url\":\"https://api.github.com/repos/antoine-aumjaud/api-synology-chatbot/deployments/").append(index).append("/statuses\"}");
+			index++;
+		}
+		json.append("]}");
+		return json.toString();
+	}
+
+	private static void appendUser(StringBuilder json, String field) {
+		if (field != null) json.append('"').append(field).append("\":");
+		json.append("{\"login\":\"antoine-aumjaud\",\"id\":1234567,\"node_id\":\"MDQ6VXNlcjEyMzQ1Njc=\",")
+				.append("\"avatar_url\":\"https://avatars.githubusercontent.com/u/1234567?v=4\",\"gravatar_id\":\"\",")
+				.append("\"url\":\"https://api.github.com/users/antoine-aumjaud\",\"html_url\":\"https://github.com/antoine-aumjaud\",")
+				.append("\"followers_url\":\"https://api.github.com/users/antoine-aumjaud/followers\",")
+				.append("\"repos_url\":\"https://api.github.com/users/antoine-aumjaud/repos\",\"type\":\"User\",\"site_admin\":false}");
+	}
+
+	private static void appendRepository(StringBuilder json) {
+		json.append("{\"id\":87654321,\"node_id\":\"MDEwOlJlcG9zaXRvcnk4NzY1NDMyMQ==\",\"name\":\"api-synology-chatbot\",")
+				.append("\"full_name\":\"antoine-aumjaud/api-synology-chatbot\",\"private\":false,");
+		appendUser(json, "owner");
+		json.append(",\"html_url\":\"https://github.com/antoine-aumjaud/api-synology-chatbot\",")
+				.append("\"description\":\"API - Synology chatbot: Linked to a LLM Agent\",\"fork\":false,")
+				.append("\"url\":\"https://api.github.com/repos/antoine-aumjaud/api-synology-chatbot\",")
+				.append("\"topics\":[\"synology\",\"chatbot\",\"java\"],\"default_branch\":\"master\"}");
+	}
+}
@@ -0,0 +1,67 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Chat side: payload building and dispatch of received messages (download channel excluded, it starts jobs)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BotServiceBenchmark {
+
+	private static final String MESSAGE = "Workflow <https://github.com/antoine-aumjaud/api-synology-chatbot/actions/runs/42|failure> "
+			+ "of antoine-aumjaud/api-synology-chatbot: java build (master) - Fix \"quoted\" text\nsecond line";
+
+	private BotService botService = new BotService();
+
+	@Setup
+	public void setUp() {
+		Properties properties = new Properties();
+		properties.setProperty("chat-tokens", "token1;token2;token3;token4");
+		properties.setProperty("mp3.channel-id", "19");
+		properties.setProperty("synology-chat.url", "http://synology/api?token=%s");
+		properties.setProperty("token.antoine", "usertoken123");
+		botService.setConfig(properties);
+	}
+
+	@Benchmark
+	public String buildSynologyChatPayload() {
+		return botService.buildSynologyChatPayload(MESSAGE, null);
+	}
+
+	@Benchmark
+	public String buildSynologyChatPayloadWithFile() {
+		return botService.buildSynologyChatPayload(MESSAGE, "https://nas/share/file.mp3");
+	}
+
+	@Benchmark
+	public String buildFormBody() {
+		return SynologyChatPayloadEncoder.toFormBody(MESSAGE, null);
+	}
+
+	@Benchmark
+	public String receiveEcho() {
+		return botService.receiveMessage("1", "token4", "antoine", "echo");
+	}
+
+	@Benchmark
+	public String receiveDefault() {
+		return botService.receiveMessage("1", "token4", "antoine", "what is the weather like today?");
+	}
+}
@@ -0,0 +1,74 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * GitHub webhook handling: signature check, parsing and message building
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GithubServiceBenchmark {
+
+	private static final String SECRET = "benchmark-secret";
+
+	@Param({ "fixture", "workflow_run_5k", "workflow_run_50k" })
+	public String payloadType;
+
+	private byte[] payload;
+	private String signature;
+	private GithubService githubService = new GithubService();
+
+	@Setup
+	public void setUp() {
+		String json;
+		switch (payloadType) {
+		case "workflow_run_5k":
+			json = BenchmarkPayloads.workflowRun(5 * 1024, "failure");
+			break;
+		case "workflow_run_50k":
+			json = BenchmarkPayloads.workflowRun(50 * 1024, "failure");
+			break;
+		default:
+			json = BenchmarkPayloads.fixture("github_workflow_notification.json");
+		}
+		payload = json.getBytes(StandardCharsets.UTF_8);
+
+		Properties properties = new Properties();
+		properties.setProperty("github.webhook.secret", SECRET);
+		githubService.setConfig(properties);
+		HmacSha256Verifier verifier = new HmacSha256Verifier(SECRET.getBytes(StandardCharsets.UTF_8));
+		StringBuilder hex = new StringBuilder("sha256=");
+		for (byte b : verifier.sign(payload)) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		signature = hex.toString();
+	}
+
+	@Benchmark
+	public String getMessage() {
+		return githubService.getMessage(payload, signature);
+	}
+
+	@Benchmark
+	public String extractAndBuildMessage() {
+		return githubService.buildGithubMessage(githubService.extractGithubPayload(payload));
+	}
+}
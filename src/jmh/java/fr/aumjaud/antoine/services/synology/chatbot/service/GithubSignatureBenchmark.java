@@ -0,0 +1,80 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * GitHub webhook signature check: previous implementation (new Mac per call, String.format hex)
+ * against HmacSha256Verifier. Run with the gc profiler to compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GithubSignatureBenchmark {
+
+	private static final String SECRET = "benchmark-secret";
+
+	@Param({ "1024", "51200" })
+	public int payloadSize;
+
+	private byte[] payload;
+	private String payloadString;
+	private String signature;
+	private HmacSha256Verifier verifier;
+
+	@Setup
+	public void setUp() throws Exception {
+		StringBuilder builder = new StringBuilder("{\"padding\":\"");
+		while (builder.length() < payloadSize - 2) {
+			builder.append('x');
+		}
+		payloadString = builder.append("\"}").toString();
+		payload = payloadString.getBytes(StandardCharsets.UTF_8);
+		verifier = new HmacSha256Verifier(SECRET.getBytes(StandardCharsets.UTF_8));
+		signature = "sha256=" + legacyHmacSha256Hex(payloadString, SECRET);
+	}
+
+	@Benchmark
+	public boolean legacy() throws Exception {
+		String expectedHex = legacyHmacSha256Hex(payloadString, SECRET);
+		String signedHex = signature.substring("sha256=".length());
+		return MessageDigest.isEqual(expectedHex.getBytes(StandardCharsets.UTF_8),
+				signedHex.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public boolean verifier() {
+		return verifier.verify(payload, signature, "sha256=".length());
+	}
+
+	private static String legacyHmacSha256Hex(String payload, String secret) throws Exception {
+		Mac sha256Hmac = Mac.getInstance("HmacSHA256");
+		sha256Hmac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+		byte[] digest = sha256Hmac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+		StringBuilder hex = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+}
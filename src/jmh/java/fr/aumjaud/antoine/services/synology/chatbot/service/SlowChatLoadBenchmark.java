@@ -0,0 +1,119 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors;
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors.TaskType;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.JdkOutboundHttpClient;
+
+/**
+ * Load test: a burst of chat posts sent as DELIVERY tasks to a local stub which answers
+ * after nasDelayMs (a slow NAS), with platform or virtual threads. One operation is the whole burst.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SlowChatLoadBenchmark {
+
+	private static final int BURST = 200;
+
+	@Param({ "false", "true" })
+	public boolean virtualThreads;
+
+	@Param({ "10", "200" })
+	public int maxConcurrent;
+
+	@Param({ "100" })
+	public long nasDelayMs;
+
+	private HttpServer nasStub;
+	private ExecutorService nasStubExecutor;
+	private TaskExecutors taskExecutors;
+	private BotService botService;
+
+	@Setup
+	public void setUp() throws IOException {
+		nasStubExecutor = Executors.newVirtualThreadPerTaskExecutor();
+		nasStub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		nasStub.setExecutor(nasStubExecutor);
+		nasStub.createContext("/", exchange -> {
+			try (InputStream in = exchange.getRequestBody()) {
+				in.readAllBytes();
+			}
+			try {
+				Thread.sleep(nasDelayMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			byte[] response = "{\"success\":true}".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		});
+		nasStub.start();
+
+		Properties properties = new Properties();
+		properties.setProperty("chat-tokens", "token1");
+		properties.setProperty("synology-chat.url", "http://127.0.0.1:" + nasStub.getAddress().getPort() + "/webapi/entry.cgi?token=%s");
+		properties.setProperty("token.antoine", "usertoken123");
+		properties.setProperty("http.version", "HTTP_1_1");
+		properties.setProperty("execution.virtual-threads", String.valueOf(virtualThreads));
+		properties.setProperty("execution.delivery.max-concurrent", String.valueOf(maxConcurrent));
+
+		taskExecutors = new TaskExecutors();
+		taskExecutors.setConfig(properties);
+		JdkOutboundHttpClient httpClient = new JdkOutboundHttpClient();
+		httpClient.setConfig(properties);
+		botService = new BotService(httpClient, taskExecutors);
+		botService.setConfig(properties);
+	}
+
+	@TearDown
+	public void tearDown() {
+		nasStub.stop(0);
+		nasStubExecutor.shutdownNow();
+	}
+
+	@Benchmark
+	public int sendBurst() {
+		@SuppressWarnings("unchecked")
+		CompletableFuture<Boolean>[] futures = new CompletableFuture[BURST];
+		for (int i = 0; i < BURST; i++) {
+			String message = "build " + i + " succeeded";
+			futures[i] = taskExecutors.supplyAsync(TaskType.DELIVERY, () -> botService.sendMessage("antoine", message, null));
+		}
+		int sent = 0;
+		for (CompletableFuture<Boolean> future : futures) {
+			if (future.join()) sent++;
+		}
+		return sent;
+	}
+}
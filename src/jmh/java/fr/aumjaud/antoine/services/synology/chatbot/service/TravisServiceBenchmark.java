@@ -0,0 +1,48 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.aumjaud.antoine.services.synology.chatbot.model.TravisPayload;
+
+/**
+ * Travis webhook handling: parsing and message building (signature check excluded, it needs the Travis key)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TravisServiceBenchmark {
+
+	private String payload;
+	private TravisPayload travisPayload;
+	private TravisService travisService = new TravisService();
+
+	@Setup
+	public void setUp() {
+		payload = BenchmarkPayloads.fixture("travis_webhook.json");
+		travisPayload = travisService.extractTravisPayload(payload);
+	}
+
+	@Benchmark
+	public TravisPayload extractTravisPayload() {
+		return travisService.extractTravisPayload(payload);
+	}
+
+	@Benchmark
+	public String buildTravisMessage() {
+		return travisService.buildTravisMessage(travisPayload);
+	}
+}
@@ -1,5 +1,7 @@
 package fr.aumjaud.antoine.services.synology.chatbot;
 
+import static fr.aumjaud.antoine.services.synology.chatbot.requesthandler.TimedRoute.timed;
+import static spark.Spark.get;
 import static spark.Spark.path;
 import static spark.Spark.post;
 
@@ -16,6 +18,10 @@ public class LaunchServer {
 
 			private BotResource botResource = new BotResource();
 
+			{
+				Runtime.getRuntime().addShutdownHook(new Thread(botResource::shutdown, "bot-shutdown"));
+			}
+
 			@Override
 			public String getAppConfigName() {
 				return "api-synology-chatbot.properties";
@@ -33,11 +39,17 @@ public class LaunchServer {
 
 			@Override
 			public void initSpark(String securePath) {
-				post("/send-travis/:user", botResource::sendTravisPayload); //not secure, use Travis signature 
-				post("/send-github/:user", botResource::sendGithubPayload); //not secure, use GitHub signature 
+				post("/send-travis/:user", timed("POST /send-travis/:user", botResource::sendTravisPayload)); //not secure, use Travis signature 
+				post("/send-github/:user", timed("POST /send-github/:user", botResource::sendGithubPayload)); //not secure, use GitHub signature 
+				post("/send-github", timed("POST /send-github", botResource::sendRoutedGithubPayload)); //not secure, use GitHub signature, targets from github.routes
+				post("/webhook/:provider/:user", timed("POST /webhook/:provider/:user", botResource::sendWebhookPayload)); //not secure, use the signature declared for the provider
 				path(securePath, () -> {
-					post("/receive/", "application/json", botResource::receiveMessage); //let last "/" (bug on syno chat integration)
-					post("/send-message/:user", botResource::sendMessage);
+					post("/receive/", "application/json", timed("POST /receive/", botResource::receiveMessage)); //let last "/" (bug on syno chat integration)
+					post("/send-message/:user", timed("POST /send-message/:user", botResource::sendMessage));
+					post("/broadcast", timed("POST /broadcast", botResource::broadcastMessage));
+					get("/message-status/:id", timed("GET /message-status/:id", botResource::getMessageStatus));
+					get("/skill-stats", timed("GET /skill-stats", botResource::getSkillStats));
+					get("/metrics", botResource::getMetrics); //Prometheus scrape, not measured
 				});
 			}
 		});
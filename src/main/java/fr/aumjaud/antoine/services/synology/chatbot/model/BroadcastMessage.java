@@ -0,0 +1,23 @@
+package fr.aumjaud.antoine.services.synology.chatbot.model;
+
+import java.util.List;
+
+public class BroadcastMessage {
+    private String message;
+    private String url;
+    private List<String> users;
+    private List<String> groups;
+
+    public String getMessage() {
+        return message;
+    }
+    public String getUrl() {
+        return url;
+    }
+    public List<String> getUsers() {
+        return users;
+    }
+    public List<String> getGroups() {
+        return groups;
+    }
+}
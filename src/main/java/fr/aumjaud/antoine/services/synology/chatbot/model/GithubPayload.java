@@ -0,0 +1,44 @@
+package fr.aumjaud.antoine.services.synology.chatbot.model;
+
+public class GithubPayload {
+
+	private final String repository;
+	private final String workflow;
+	private final String status;
+	private final String branch;
+	private final String url;
+	private final String commitMessage;
+
+	public GithubPayload(String repository, String workflow, String status, String branch, String url, String commitMessage) {
+		this.repository = repository;
+		this.workflow = workflow;
+		this.status = status;
+		this.branch = branch;
+		this.url = url;
+		this.commitMessage = commitMessage;
+	}
+
+	public String getRepository() {
+		return repository;
+	}
+
+	public String getWorkflow() {
+		return workflow;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public String getBranch() {
+		return branch;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public String getCommitMessage() {
+		return commitMessage;
+	}
+}
@@ -7,6 +7,7 @@ public class TravisPayload {
 	private String authorName;
 	private int status;
 	private String buildUrl;
+	private String branch;
 
 	private TravisRepository repository;
 
@@ -33,6 +34,10 @@ public class TravisPayload {
 	public String getBuildUrl() {
 		return buildUrl;
 	}
+
+	public String getBranch() {
+		return branch;
+	}
 	
 	 
 }
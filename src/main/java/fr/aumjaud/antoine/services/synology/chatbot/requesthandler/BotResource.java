@@ -1,25 +1,75 @@
 package fr.aumjaud.antoine.services.synology.chatbot.requesthandler;
 
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 
 import fr.aumjaud.antoine.services.common.security.WrongRequestException;
+import fr.aumjaud.antoine.services.synology.chatbot.model.BroadcastMessage;
 import fr.aumjaud.antoine.services.synology.chatbot.model.ChatBotMessage;
+import fr.aumjaud.antoine.services.synology.chatbot.model.GithubPayload;
+import fr.aumjaud.antoine.services.synology.chatbot.model.TravisPayload;
 import fr.aumjaud.antoine.services.synology.chatbot.service.BotService;
+import fr.aumjaud.antoine.services.synology.chatbot.service.GithubRoutes;
 import fr.aumjaud.antoine.services.synology.chatbot.service.GithubService;
+import fr.aumjaud.antoine.services.synology.chatbot.service.IdempotencyCache;
+import fr.aumjaud.antoine.services.synology.chatbot.service.SynologyChatPayloadEncoder;
 import fr.aumjaud.antoine.services.synology.chatbot.service.TravisService;
+import fr.aumjaud.antoine.services.synology.chatbot.service.delivery.DeliveryQueue;
+import fr.aumjaud.antoine.services.synology.chatbot.service.delivery.DigestAggregator;
+import fr.aumjaud.antoine.services.synology.chatbot.service.delivery.MessageCoalescer;
+import fr.aumjaud.antoine.services.synology.chatbot.service.delivery.OutboxSender;
+import fr.aumjaud.antoine.services.synology.chatbot.service.delivery.TransientSender;
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors;
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors.TaskType;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Counter;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.MetricsRegistry;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.JdkOutboundHttpClient;
+import fr.aumjaud.antoine.services.synology.chatbot.service.webhook.WebhookProvider;
+import fr.aumjaud.antoine.services.synology.chatbot.service.webhook.WebhookProviders;
 import spark.Request;
 import spark.Response;
 
 public class BotResource {
 	private static final Gson GSON = new Gson();
+	private static final Counter TRAVIS_DUPLICATES = duplicateCounter("travis");
+	private static final Counter GITHUB_DUPLICATES = duplicateCounter("github");
+	private static final Map<String, Counter> WEBHOOK_DUPLICATES = new ConcurrentHashMap<>();
 
-	private BotService botService = new BotService();
-	private TravisService travisService = new TravisService();
+	private TaskExecutors taskExecutors = new TaskExecutors();
+	private JdkOutboundHttpClient httpClient = new JdkOutboundHttpClient();
+	private BotService botService = new BotService(httpClient, taskExecutors);
+	private TravisService travisService = new TravisService(httpClient);
 	private GithubService githubService = new GithubService();
+	private GithubRoutes githubRoutes = new GithubRoutes();
+	private WebhookProviders webhookProviders = new WebhookProviders();
+	private OutboxSender outboxSender = new OutboxSender(botService.getChatSender(), taskExecutors, userName -> this.messageCoalescer.acquireToken(userName));
+	private MessageCoalescer messageCoalescer = new MessageCoalescer(outboxSender, taskExecutors);
+	private DeliveryQueue deliveryQueue = new DeliveryQueue(messageCoalescer, taskExecutors);
+	private DigestAggregator digestAggregator = new DigestAggregator(messageCoalescer);
+	private IdempotencyCache idempotencyCache = new IdempotencyCache();
+	private volatile int broadcastParallelism = 8;
+
+	public BotResource() {
+		// the messages of the bot itself are coalesced, paced and kept in the outbox like the others
+		botService.setMessageSender(messageCoalescer);
+		botService.setProgressSender(new TransientSender(botService.getChatSender(), taskExecutors, messageCoalescer::acquireToken));
+	}
 
 	/**
 	 * Set config
@@ -27,9 +77,28 @@ public class BotResource {
 	 * @return true if config set successfully
 	 */
 	public void setConfig(Properties properties) {
+		int newBroadcastParallelism = checkConfig(properties); // first: a wrong config is rejected before being partly applied
+		taskExecutors.setConfig(properties);
+		httpClient.setConfig(properties);
+		botService.setConfig(properties);
 		travisService.setConfig(properties);
 		githubService.setConfig(properties);
-		botService.setConfig(properties);
+		githubRoutes.setConfig(properties);
+		webhookProviders.setConfig(properties);
+		outboxSender.setConfig(properties); // replay undelivered messages on startup
+		messageCoalescer.setConfig(properties);
+		deliveryQueue.setConfig(properties);
+		digestAggregator.setConfig(properties);
+		idempotencyCache.setConfig(properties);
+		broadcastParallelism = newBroadcastParallelism;
+	}
+
+	/**
+	 * Stop the background work before the JVM exits
+	 */
+	public void shutdown() {
+		digestAggregator.shutdown();
+		botService.shutdown();
 	}
 
 	/**
@@ -74,27 +143,114 @@ public class BotResource {
 		if (signatureB64 == null)
 			throw new WrongRequestException("signature is null", "No signature send with payload");
 
+		// Redelivery: same payload, so same signature
+		long key = IdempotencyCache.fingerprint("travis", request.params("user"), signatureB64);
+		IdempotencyCache.Result previous = idempotencyCache.get(key);
+		if (previous != null)
+			return duplicate(response, previous, TRAVIS_DUPLICATES);
+
 		// Get controlled message
-		String message = travisService.getMessage(payload, signatureB64);
+		TravisPayload travisPayload = travisService.getPayload(payload, signatureB64);
+		String message = travisService.getMessage(travisPayload);
 
-		return sendMessage(request, response, message, null);
+		if (digestAggregator.isEnabled() && travisService.isSuccess(travisPayload))
+			return sendOnce(response, key, TRAVIS_DUPLICATES, () -> digest(request, "build", travisPayload.getRepository().getName(), travisPayload.getBranch(), message));
+		return sendOnce(response, key, TRAVIS_DUPLICATES, () -> sendMessage(request, response, message, null));
 	}
 
 	/**
 	 * Send a message from GitHub Actions
 	 */
 	public String sendGithubPayload(Request request, Response response) {
-		String payload = request.body();
-		if (payload == null || payload.length() == 0)
+		byte[] payload = request.bodyAsBytes();
+		if (payload == null || payload.length == 0)
+			throw new WrongRequestException("payload is null", "Payload to send is not present");
+
+		String signatureSha256 = request.headers("X-Hub-Signature-256");
+		if (signatureSha256 == null)
+			throw new WrongRequestException("signature is null", "No GitHub signature sent with payload");
+
+		// Redelivery: same delivery id, or same payload so same signature
+		String deliveryId = request.headers("X-GitHub-Delivery");
+		long key = IdempotencyCache.fingerprint("github", request.params("user"), deliveryId != null ? deliveryId : signatureSha256);
+		IdempotencyCache.Result previous = idempotencyCache.get(key);
+		if (previous != null)
+			return duplicate(response, previous, GITHUB_DUPLICATES);
+
+		GithubPayload githubPayload = githubService.getPayload(payload, signatureSha256);
+		String message = githubService.getMessage(githubPayload);
+
+		if (digestAggregator.isEnabled() && githubService.isSuccess(githubPayload))
+			return sendOnce(response, key, GITHUB_DUPLICATES, () -> digest(request, "workflow", githubPayload.getRepository(), githubPayload.getBranch(), message));
+		return sendOnce(response, key, GITHUB_DUPLICATES, () -> sendMessage(request, response, message, null));
+	}
+
+	/**
+	 * Send a message from GitHub Actions to the targets of the routing rules
+	 */
+	public String sendRoutedGithubPayload(Request request, Response response) {
+		byte[] payload = request.bodyAsBytes();
+		if (payload == null || payload.length == 0)
 			throw new WrongRequestException("payload is null", "Payload to send is not present");
 
 		String signatureSha256 = request.headers("X-Hub-Signature-256");
 		if (signatureSha256 == null)
 			throw new WrongRequestException("signature is null", "No GitHub signature sent with payload");
 
-		String message = githubService.getMessage(payload, signatureSha256);
+		String deliveryId = request.headers("X-GitHub-Delivery");
+		long key = IdempotencyCache.fingerprint("github", null, deliveryId != null ? deliveryId : signatureSha256);
+		IdempotencyCache.Result previous = idempotencyCache.get(key);
+		if (previous != null)
+			return duplicate(response, previous, GITHUB_DUPLICATES);
+
+		// Checked and parsed once for all the targets
+		GithubPayload githubPayload = githubService.getPayload(payload, signatureSha256);
+		Set<String> targets = githubRoutes.route(githubPayload);
+		if (targets.isEmpty())
+			return "{\"status\":\"ignored\"}";
+		String message = githubService.getMessage(githubPayload);
+		Consumer<String> digest = digestAggregator.isEnabled() && githubService.isSuccess(githubPayload)
+				? target -> digestAggregator.add(target, "workflow", githubPayload.getRepository(), githubPayload.getBranch(), message)
+				: null;
 
-		return sendMessage(request, response, message, null);
+		return sendOnce(response, key, GITHUB_DUPLICATES, () -> sendToAll(response, new ArrayList<>(targets), message, null, digest));
+	}
+
+	/**
+	 * Send a message from a webhook provider declared in config
+	 */
+	public String sendWebhookPayload(Request request, Response response) {
+		WebhookProvider provider = webhookProviders.get(request.params("provider"));
+		byte[] payload;
+		if (provider.getPayloadParam() != null) {
+			String param = request.queryParams(provider.getPayloadParam());
+			payload = param != null ? param.getBytes(StandardCharsets.UTF_8) : null;
+		} else {
+			payload = request.bodyAsBytes();
+		}
+		if (payload == null || payload.length == 0)
+			throw new WrongRequestException("payload is null", "Payload to send is not present");
+
+		String signature = provider.getSignatureHeader() != null
+				? request.headers(provider.getSignatureHeader())
+				: request.queryParams(provider.getSignatureParam());
+
+		// Redelivery: same delivery id, or same payload so same signature (if the signature depends on the payload)
+		String deliveryId = provider.getDeliveryHeader() != null ? request.headers(provider.getDeliveryHeader()) : null;
+		if (deliveryId == null && provider.isSignatureOfPayload())
+			deliveryId = signature;
+		if (deliveryId == null)
+			return sendMessage(request, response, provider.getMessage(payload, signature), null);
+
+		long key = IdempotencyCache.fingerprint(provider.getName(), request.params("user"), deliveryId);
+		Counter duplicates = WEBHOOK_DUPLICATES.computeIfAbsent(provider.getName(), BotResource::duplicateCounter);
+		IdempotencyCache.Result previous = idempotencyCache.get(key);
+		if (previous != null)
+			return duplicate(response, previous, duplicates);
+
+		String message = provider.getMessage(payload, signature);
+
+		return sendOnce(response, key, duplicates, () -> sendMessage(request, response, message, null));
 	}
 
 	/**
@@ -112,10 +268,209 @@ public class BotResource {
 		return sendMessage(request, response, message, url);
 	}
 
+	/**
+	 * Send the message in the request body to several users and groups
+	 */
+	public String broadcastMessage(Request request, Response response) {
+		BroadcastMessage broadcastMessage;
+		try {
+			broadcastMessage = GSON.fromJson(request.body(), BroadcastMessage.class);
+		} catch (JsonSyntaxException e) {
+			throw new WrongRequestException("message has not a json format", "Message to broadcast has a wrong format: " + request.body());
+		}
+		if (broadcastMessage == null)
+			throw new WrongRequestException("message has not a json format", "Message to broadcast has a wrong format");
+		String message = broadcastMessage.getMessage();
+		if (message == null || message.length() == 0)
+			throw new WrongRequestException("message is null", "Message to broadcast is not present");
+
+		// Recipients, in request order without duplicates
+		Set<String> userNames = new LinkedHashSet<>();
+		if (broadcastMessage.getUsers() != null)
+			userNames.addAll(broadcastMessage.getUsers());
+		if (broadcastMessage.getGroups() != null) {
+			for (String groupName : broadcastMessage.getGroups()) {
+				userNames.addAll(botService.getGroup(groupName));
+			}
+		}
+		if (userNames.isEmpty())
+			throw new WrongRequestException("no recipient", "Message to broadcast has no users nor groups");
+
+		return sendToAll(response, new ArrayList<>(userNames), message, broadcastMessage.getUrl(), null);
+	}
+
+	/**
+	 * Get the delivery status of a message sent in async mode
+	 */
+	public String getMessageStatus(Request request, Response response) {
+		String id = request.params("id");
+		DeliveryQueue.Status status = id != null ? deliveryQueue.getStatus(id) : null;
+		if (status == null) {
+			response.status(404);
+			return "{\"status\":\"unknown\"}";
+		}
+		return String.format("{\"status\":\"%s\",\"id\":\"%s\"}", status.name().toLowerCase(), id);
+	}
+
+	/**
+	 * Get the counters of the skills: calls, responses deferred (skill slower than its deadline), failures
+	 */
+	public String getSkillStats(Request request, Response response) {
+		Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+		botService.getSkillStats().forEach((name, skillStats) -> {
+			Map<String, Long> counters = new LinkedHashMap<>();
+			counters.put("calls", skillStats.getCalls());
+			counters.put("deferred", skillStats.getDeferred());
+			counters.put("failed", skillStats.getFailed());
+			stats.put(name, counters);
+		});
+		return GSON.toJson(stats);
+	}
+
+	/**
+	 * Get the metrics of the bot in the Prometheus text format
+	 */
+	public String getMetrics(Request request, Response response) {
+		response.type("text/plain; version=0.0.4; charset=utf-8");
+		return MetricsRegistry.DEFAULT.render();
+	}
+
 	/*
 	 * PRIVATE
 	 */
 
+	/**
+	 * Check the config of every component, none of them is changed
+	 * @return the broadcast parallelism of the config
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	private int checkConfig(Properties properties) {
+		taskExecutors.checkConfig(properties);
+		httpClient.checkConfig(properties);
+		botService.checkConfig(properties);
+		travisService.checkConfig(properties);
+		githubRoutes.checkConfig(properties);
+		webhookProviders.checkConfig(properties);
+		outboxSender.checkConfig(properties);
+		messageCoalescer.checkConfig(properties);
+		deliveryQueue.checkConfig(properties);
+		digestAggregator.checkConfig(properties);
+		idempotencyCache.checkConfig(properties);
+		return Integer.parseInt(properties.getProperty("broadcast.parallelism", "8"));
+	}
+
+	private static Counter duplicateCounter(String provider) {
+		return MetricsRegistry.DEFAULT.counter("chatbot_webhook_duplicates_total", "Webhooks already handled, answered from the idempotency cache, by provider", "provider", provider);
+	}
+
+	/**
+	 * Send the message of a checked webhook, unless the webhook is already handled.
+	 * Its response is kept only if it succeeded, so a redelivery of a failed webhook is handled again.
+	 */
+	private String sendOnce(Response response, long key, Counter duplicates, Supplier<String> send) {
+		IdempotencyCache.Result previous = idempotencyCache.claim(key);
+		if (previous != null)
+			return duplicate(response, previous, duplicates); // concurrent redelivery
+
+		boolean completed = false;
+		try {
+			String body = send.get();
+			int status = response.status();
+			if (status >= 200 && status < 300 && !body.contains("error")) {
+				idempotencyCache.complete(key, status, body);
+				completed = true;
+			}
+			return body;
+		} finally {
+			if (!completed)
+				idempotencyCache.release(key);
+		}
+	}
+
+	/**
+	 * Answer a webhook already handled with its original response
+	 */
+	private String duplicate(Response response, IdempotencyCache.Result previous, Counter duplicates) {
+		duplicates.increment();
+		response.status(previous.getStatus());
+		return previous.getBody();
+	}
+
+	/**
+	 * Count a success notification in the digest of the user of the request
+	 */
+	private String digest(Request request, String kind, String repository, String branch, String message) {
+		String userName = request.params("user");
+		if (userName == null)
+			throw new WrongRequestException("user is null", "User is not present");
+		botService.checkUser(userName);
+
+		digestAggregator.add(userName, kind, repository, branch, message);
+		return "{\"status\":\"digested\"}";
+	}
+
+	/**
+	 * Send a message to several users in parallel: at most broadcast.parallelism sends at a time,
+	 * each worker takes the next user when its send is done
+	 * @param digest the digest counting the message instead of sending it, null to send it
+	 * @return the status of each user: sent, digested, failed, queued, rejected or unknown user; the response status is 502 if no user got it
+	 */
+	private String sendToAll(Response response, List<String> userNames, String message, String url, Consumer<String> digest) {
+		String formBody = digest == null ? SynologyChatPayloadEncoder.toFormBody(message, url) : null; // once for all the targets
+		String[] statuses = new String[userNames.size()];
+		AtomicInteger next = new AtomicInteger();
+		int workers = Math.max(1, Math.min(broadcastParallelism, userNames.size()));
+		CompletableFuture<?>[] sends = new CompletableFuture<?>[workers];
+		for (int w = 0; w < workers; w++) {
+			sends[w] = taskExecutors.supplyAsync(TaskType.REQUEST, () -> {
+				for (int i = next.getAndIncrement(); i < statuses.length; i = next.getAndIncrement()) {
+					try {
+						statuses[i] = sendTo(userNames.get(i), message, url, formBody, digest);
+					} catch (RuntimeException e) {
+						statuses[i] = "failed";
+					}
+				}
+				return null;
+			});
+		}
+		try {
+			CompletableFuture.allOf(sends).join();
+		} catch (CompletionException e) {
+			// the users not handled are failed
+		}
+
+		Map<String, String> targets = new LinkedHashMap<>();
+		boolean delivered = false;
+		for (int i = 0; i < statuses.length; i++) {
+			String status = statuses[i] != null ? statuses[i] : "failed";
+			targets.put(userNames.get(i), status);
+			delivered |= status.equals("sent") || status.equals("digested") || status.startsWith("queued");
+		}
+		if (!delivered)
+			response.status(502);
+		Map<String, Object> body = new LinkedHashMap<>();
+		body.put("status", delivered ? "sent" : "failed");
+		body.put("targets", targets);
+		return GSON.toJson(body);
+	}
+
+	private String sendTo(String userName, String message, String url, String formBody, Consumer<String> digest) {
+		try {
+			botService.checkUser(userName);
+		} catch (WrongRequestException e) {
+			return "unknown user";
+		}
+		if (digest != null) {
+			digest.accept(userName);
+			return "digested";
+		}
+		if (deliveryQueue.isEnabled()) {
+			String id = deliveryQueue.submit(userName, message, url, formBody);
+			return id != null ? "queued " + id : "rejected";
+		}
+		return messageCoalescer.send(userName, message, url, formBody) ? "sent" : "failed";
+	}
+
 	/**
 	 * Send a request extracted message 
 	 */
@@ -126,11 +481,27 @@ public class BotResource {
 		if (userName == null)
 			throw new WrongRequestException("user is null", "User is not present");
 
-		// Call service
-		boolean messageSent = botService.sendMessage(userName, message, url);
+		botService.checkUser(userName);
+
+		// Async mode: queue message and reply immediately
+		if (deliveryQueue.isEnabled()) {
+			String id = deliveryQueue.submit(userName, message, url);
+			if (id == null) {
+				response.status(429);
+				return "{\"status\":\"rejected\"}";
+			}
+			response.status(202);
+			return String.format("{\"status\":\"queued\",\"id\":\"%s\"}", id);
+		}
+
+		// Call service, bound the number of request threads waiting for the NAS
+		Boolean messageSent = taskExecutors.callLimited(TaskType.REQUEST, () -> messageCoalescer.send(userName, message, url));
 
 		// Build response
-		if (messageSent) {
+		if (messageSent == null) {
+			response.status(503);
+			return "{\"status\":\"busy\"}";
+		} else if (messageSent) {
 			return "{\"status\"=\"sent\"}";
 		} else {
 			return "{\"status\"=\"error\"}";
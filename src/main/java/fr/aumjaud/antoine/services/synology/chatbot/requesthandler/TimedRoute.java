@@ -0,0 +1,54 @@
+package fr.aumjaud.antoine.services.synology.chatbot.requesthandler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Counter;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Histogram;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.MetricsRegistry;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * A route measuring its duration and counting its requests by status.
+ * A request ending with an exception is counted with the status "exception" (its status is set later by the exception handlers).
+ */
+public class TimedRoute implements Route {
+
+	private final String name;
+	private final Route route;
+	private final Histogram duration;
+	private final ConcurrentMap<String, Counter> requests = new ConcurrentHashMap<>();
+
+	private TimedRoute(String name, Route route) {
+		this.name = name;
+		this.route = route;
+		this.duration = MetricsRegistry.DEFAULT.histogram("chatbot_http_request_duration_seconds", "Duration of the HTTP requests, by route", "route", name);
+	}
+
+	/**
+	 * Measure a route
+	 * @param name the name of the route in the metrics, ie: "POST /send-message/:user"
+	 * @param route the route
+	 * @return the measured route
+	 */
+	public static Route timed(String name, Route route) {
+		return new TimedRoute(name, route);
+	}
+
+	@Override
+	public Object handle(Request request, Response response) throws Exception {
+		long start = System.nanoTime();
+		String status = "exception";
+		try {
+			Object body = route.handle(request, response);
+			status = Integer.toString(response.status());
+			return body;
+		} finally {
+			duration.recordSince(start);
+			requests.computeIfAbsent(status, key -> MetricsRegistry.DEFAULT.counter("chatbot_http_requests_total",
+					"HTTP requests, by route and status", "route", name, "status", key)).increment();
+		}
+	}
+}
@@ -2,16 +2,20 @@ package fr.aumjaud.antoine.services.synology.chatbot.service;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
 import java.net.URLEncoder;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,33 +24,198 @@ import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
 
-import fr.aumjaud.antoine.services.common.http.HttpCode;
-import fr.aumjaud.antoine.services.common.http.HttpHelper;
 import fr.aumjaud.antoine.services.common.http.HttpMessage;
 import fr.aumjaud.antoine.services.common.http.HttpMessageBuilder;
-import fr.aumjaud.antoine.services.common.http.HttpResponse;
 import fr.aumjaud.antoine.services.common.security.NoAccessException;
 import fr.aumjaud.antoine.services.common.security.WrongRequestException;
+import fr.aumjaud.antoine.services.synology.chatbot.service.agent.AgentSkill;
+import fr.aumjaud.antoine.services.synology.chatbot.service.conversation.CompactConversationStore;
+import fr.aumjaud.antoine.services.synology.chatbot.service.conversation.ConversationStore;
+import fr.aumjaud.antoine.services.synology.chatbot.service.delivery.MessageSender;
+import fr.aumjaud.antoine.services.synology.chatbot.service.download.DownloadBackend;
+import fr.aumjaud.antoine.services.synology.chatbot.service.download.DownloadCache;
+import fr.aumjaud.antoine.services.synology.chatbot.service.download.DownloadJob;
+import fr.aumjaud.antoine.services.synology.chatbot.service.download.DownloadJobManager;
+import fr.aumjaud.antoine.services.synology.chatbot.service.download.DownloadOutputParser;
+import fr.aumjaud.antoine.services.synology.chatbot.service.download.DownloadResult;
+import fr.aumjaud.antoine.services.synology.chatbot.service.download.ProcessDownloadBackend;
+import fr.aumjaud.antoine.services.synology.chatbot.service.download.VideoIds;
+import fr.aumjaud.antoine.services.synology.chatbot.service.download.WorkerPoolDownloadBackend;
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Counter;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Histogram;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.MetricsRegistry;
+import fr.aumjaud.antoine.services.synology.chatbot.service.skill.EchoSkill;
+import fr.aumjaud.antoine.services.synology.chatbot.service.skill.Skill;
+import fr.aumjaud.antoine.services.synology.chatbot.service.skill.SkillDispatcher;
+import fr.aumjaud.antoine.services.synology.chatbot.service.skill.SkillRegistry;
+import fr.aumjaud.antoine.services.synology.chatbot.service.skill.SkillRequest;
+import fr.aumjaud.antoine.services.synology.chatbot.service.skill.SkillStats;
+import fr.aumjaud.antoine.services.synology.chatbot.service.skill.SkillTrigger;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.JdkOutboundHttpClient;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.OutboundHttpClient;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.OutboundResponse;
 
 public class BotService {
 
 	private static final Logger logger = LoggerFactory.getLogger(BotService.class);
 	private static final Gson GSON = new Gson();
+	private static final Histogram SEND_DURATION = MetricsRegistry.DEFAULT.histogram("chatbot_send_duration_seconds",
+			"Duration of the calls to the chat incoming integration");
+	private static final Counter SENT = sendCounter("sent");
+	private static final Counter SEND_UNREACHABLE = sendCounter("unreachable");
+	private static final Counter SEND_HTTP_ERROR = sendCounter("http_error");
+	private static final Counter SEND_CHAT_ERROR = sendCounter("chat_error");
 
-	private HttpHelper httpHelper = new HttpHelper();
-	private ExecutorService executorService = Executors.newFixedThreadPool(5);
+	private final OutboundHttpClient httpClient;
+	private final DownloadCache downloadCache = new DownloadCache();
+	private final DownloadJobManager downloadJobManager;
+	private final ProcessDownloadBackend processBackend = new ProcessDownloadBackend();
+	private final WorkerPoolDownloadBackend workerBackend = new WorkerPoolDownloadBackend(processBackend);
+	private volatile DownloadBackend downloadBackend = processBackend;
+	private final ConversationStore conversationStore = new CompactConversationStore();
+	private final SkillRegistry skillRegistry = new SkillRegistry();
+	private final SkillDispatcher skillDispatcher;
 
-	private Properties properties;
-	private List<String> validTokens;
+	private volatile ChatConfig config;
+	private volatile MessageSender messageSender = this::sendMessage;
+	private volatile MessageSender progressSender = this::sendMessage;
+	// the messages of the bot itself (download notifications, skill replies), by the delivery path set
+	private final MessageSender outbound = new MessageSender() {
+		@Override
+		public boolean send(String userName, String message, String url) {
+			return messageSender.send(userName, message, url);
+		}
+
+		@Override
+		public CompletableFuture<Boolean> sendAsync(String userName, String message, String url) {
+			return messageSender.sendAsync(userName, message, url);
+		}
+	};
+	// the posts to the chat, the end of the delivery path
+	private final MessageSender chat = new MessageSender() {
+		@Override
+		public boolean send(String userName, String message, String url) {
+			return sendMessage(userName, message, url);
+		}
+
+		@Override
+		public boolean send(String userName, String message, String url, String formBody) {
+			return sendMessage(userName, message, url, formBody);
+		}
+	};
+
+	public BotService() {
+		this(new JdkOutboundHttpClient());
+	}
+
+	public BotService(OutboundHttpClient httpClient) {
+		this(httpClient, new TaskExecutors());
+	}
+
+	public BotService(OutboundHttpClient httpClient, TaskExecutors taskExecutors) {
+		this.httpClient = httpClient;
+		this.downloadJobManager = new DownloadJobManager(this::downloadYoutubeVideo, outbound, taskExecutors, downloadCache);
+		this.skillDispatcher = new SkillDispatcher(taskExecutors, outbound);
+		skillRegistry.register(Skill.of("download", request -> downloadCommand(request.getMessage(), request.getUserName()),
+				SkillTrigger.channel("mp3.channel-id")));
+		skillRegistry.register(new AgentSkill(httpClient, outbound, conversationStore)); // fallback, if agent.url is configured
+		skillRegistry.loadServices(BotService.class.getClassLoader());
+		MetricsRegistry.DEFAULT.gauge("chatbot_download_queued_jobs", "Downloads waiting for a free slot", downloadJobManager::getQueuedCount);
+		MetricsRegistry.DEFAULT.gauge("chatbot_download_running_jobs", "Downloads running", downloadJobManager::getRunningCount);
+	}
+
+	/**
+	 * Check a config of the bot and its components, before it is applied to the services shared with the bot
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		new ChatConfig(properties);
+		conversationStore.checkConfig(properties);
+		if ("worker".equals(properties.getProperty("download.backend", "process")))
+			workerBackend.checkConfig(properties);
+		else
+			processBackend.checkConfig(properties);
+		downloadJobManager.checkConfig(properties);
+		skillRegistry.checkConfig(properties);
+		skillDispatcher.checkConfig(properties);
+	}
 
 	/**
-	 * Set config
+	 * Set config, its snapshot is built and checked before replacing the current one
 	 * @param properties the config to set
-	 * @return true if config set successfully
+	 * @throws IllegalArgumentException if the config is not valid
 	 */
 	public void setConfig(Properties properties) {
-		this.properties = properties;
-		validTokens = Arrays.asList(properties.getProperty("chat-tokens").split(";"));
+		config = new ChatConfig(properties);
+		downloadCache.setConfig(properties);
+		conversationStore.setConfig(properties);
+		if ("worker".equals(properties.getProperty("download.backend", "process"))) {
+			workerBackend.setConfig(properties);
+			downloadBackend = workerBackend;
+		} else {
+			processBackend.setConfig(properties);
+			downloadBackend = processBackend;
+			workerBackend.stopWorkers(); // the downloads still running on a worker end before it stops
+		}
+		downloadJobManager.setConfig(properties);
+		skillRegistry.setConfig(properties);
+		skillDispatcher.setConfig(properties);
+	}
+
+	/**
+	 * Set the delivery path of the messages sent by the bot itself (download notifications and progress, skill replies)
+	 * @param messageSender the sender, ie: coalescing, rate limit and outbox before sendMessage
+	 */
+	public void setMessageSender(MessageSender messageSender) {
+		this.messageSender = messageSender;
+	}
+
+	/**
+	 * Set the delivery path of the download progress, outdated by the next progress
+	 * @param progressSender the sender, ie: rate limited but neither kept in the outbox nor retried
+	 */
+	public void setProgressSender(MessageSender progressSender) {
+		this.progressSender = progressSender;
+	}
+
+	/**
+	 * @return the sender posting to the chat, with the messages already encoded if any
+	 */
+	public MessageSender getChatSender() {
+		return chat;
+	}
+
+	/**
+	 * @return the skills of the bot, to register more skills
+	 */
+	public SkillRegistry getSkillRegistry() {
+		return skillRegistry;
+	}
+
+	/**
+	 * @return the history of the conversations by channel, for the skills answering in several messages
+	 */
+	public ConversationStore getConversationStore() {
+		return conversationStore;
+	}
+
+	/**
+	 * @return the counters of the skills called (calls, deferred responses, failures), by skill name
+	 */
+	public Map<String, SkillStats> getSkillStats() {
+		return skillDispatcher.getStats();
+	}
+
+	/**
+	 * Stop the background work: running downloads are awaited, queued ones saved, download workers stopped,
+	 * conversations saved
+	 */
+	public void shutdown() {
+		downloadJobManager.shutdown();
+		workerBackend.shutdown();
+		conversationStore.shutdown();
 	}
 	
 	/**
@@ -59,23 +228,21 @@ public class BotService {
 	 */
 	public String receiveMessage(String channelId, String userToken, String userName, String message) {
 		// Check secure token
-		if (!validTokens.contains(userToken)) {
+		if (!config.isValidToken(userToken)) {
 			throw new NoAccessException("unknown token", "Unknown Tocken: " + userToken);
 		}
 
 		logger.debug("Message received on channelId {} form {}: {}", channelId, userName, message);
 
-		// Parse message and build reponse
+		// Route message to its skill and build reponse
 		String response;
-		if (message.startsWith("echo")) {
-			response = echoService();
+		SkillRegistry.Route route = skillRegistry.route(channelId, message);
+		if (route != null) {
+			// Slow skills are acknowledged, their response is sent later
+			response = skillDispatcher.dispatch(route.getSkill(), new SkillRequest(channelId, userName, message, route.getArguments()));
 		}
-		else if (channelId.equals(properties.getProperty("mp3.channel-id"))) {
-			response = downloadService(message, userName);
-		} 
 		else {
-			response = "no more supported message for now, stay tuned for more features!"; 
-			// TODO call AI with skills
+			response = "no more supported message for now, stay tuned for more features!"; // no agent configured
 		}
 		logger.info("Response to Chat: {}", response);
 		String payload = buildSynologyChatPayload(response, null);
@@ -90,54 +257,119 @@ public class BotService {
 	 * @return true if message sent
 	 */
 	public boolean sendMessage(String userName, String message, String url) {
+		return sendMessage(userName, message, url, null);
+	}
+
+	/**
+	 * Send a message already encoded to a user
+	 * @param userName the name of the user
+	 * @param message the message to send
+	 * @param formBody the body of the post of the message and url, encoded once for several users (null = encoded here)
+	 * @return true if message sent
+	 */
+	public boolean sendMessage(String userName, String message, String url, String formBody) {
+		// Build target URL
+		URI targetUrl = getTargetUrl(userName);
+
+		// Build payload (https://www.synology.com/en-us/knowledgebase/DSM/help/Chat/chat_integration)
+		String payload = formBody != null ? formBody : SynologyChatPayloadEncoder.toFormBody(message, url); //not a json message
+		long start = System.nanoTime();
+		OutboundResponse httpResponse = httpClient.postForm(targetUrl, payload);
+		SEND_DURATION.recordSince(start);
+		return isSent(userName, message, httpResponse);
+	}
+
+	/**
+	 * Send a message to a user without blocking the caller
+	 * @param userName the name of the user
+	 * @param message the message to send
+	 * @return the future result, true if message sent
+	 */
+	public CompletableFuture<Boolean> sendMessageAsync(String userName, String message, String url) {
+		URI targetUrl = getTargetUrl(userName);
+		String payload = SynologyChatPayloadEncoder.toFormBody(message, url);
+		long start = System.nanoTime();
+		return httpClient.postFormAsync(targetUrl, payload)
+				.thenApply(httpResponse -> {
+					SEND_DURATION.recordSince(start);
+					return isSent(userName, message, httpResponse);
+				});
+	}
+
+	/**
+	 * Check a message can be sent to a user
+	 * @param userName the name of the user
+	 * @throws WrongRequestException if the user or the chat URL is not configured
+	 */
+	public void checkUser(String userName) {
+		getTargetUrl(userName);
+	}
+
+	/**
+	 * Get the users of a group
+	 * @param groupName the name of the group
+	 * @return the users of the group
+	 * @throws WrongRequestException if the group is not configured
+	 */
+	public List<String> getGroup(String groupName) {
+		List<String> users = config.getGroup(groupName);
+		if (users == null)
+			throw new WrongRequestException("unknown group", "group is not defined: " + groupName);
+		return users;
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	/**
+	 * Build the incoming integration URL of a user
+	 * @param userName the name of the user
+	 * @return the URL
+	 */
+	private URI getTargetUrl(String userName) {
 		// Check configuration
-		String token = properties.getProperty("token." + userName);
-		if (token == null)
+		ChatConfig currentConfig = config;
+		if (!currentConfig.isKnownUser(userName))
 			throw new WrongRequestException("unknown user", "user doesn't have a token set: " + userName);
-		String targetUrl = properties.getProperty("synology-chat.url");
+		URI targetUrl = currentConfig.getTargetUrl(userName);
 		if (targetUrl == null)
 			throw new WrongRequestException("missing configuration", "synology-chat.url not defined in configuration");
 
-		// Build target URL
-		targetUrl = String.format(targetUrl, token);
+		return targetUrl;
+	}
 
-		// Escape message
-		if (message.contains("\")")) {
-			message = message.replace("\"", "\\\"");
-		}
+	private static Counter sendCounter(String result) {
+		return MetricsRegistry.DEFAULT.counter("chatbot_send_total", "Messages sent to the chat, by result", "result", result);
+	}
 
-		// Build payload (https://www.synology.com/en-us/knowledgebase/DSM/help/Chat/chat_integration)
-		String payload = "payload=" + buildSynologyChatPayload(message, url); //not a json message
-		HttpResponse httpResponse = httpHelper.postData(targetUrl, payload);
+	/**
+	 * Check the response of the incoming integration
+	 * @return true if the message has been accepted
+	 */
+	private boolean isSent(String userName, String message, OutboundResponse httpResponse) {
 		if (httpResponse != null) {
 			// logger.debug("Message '{}' sent to user '{}', response: {}", message, userName, httpResponse);
 			String content = httpResponse.getContent();
-			boolean res = httpResponse.getHttpCode() == HttpCode.OK && !content.contains("error");
-			if(!res) logger.error("Payload '{}' NOT sent to user {}, response: {}", payload, userName, content);
+			boolean res = httpResponse.isOk() && !content.contains("error");
+			(res ? SENT : httpResponse.isOk() ? SEND_CHAT_ERROR : SEND_HTTP_ERROR).increment();
+			if(!res) logger.error("Message '{}' NOT sent to user {}, response: {}", message, userName, content);
 			return res;
 		} else {
+			SEND_UNREACHABLE.increment();
 			logger.error("Message '{}' NOT sent to user {}", message, userName);
 			return false;
 		}
 	}
 
-	/*
-	 * PRIVATE
-	 */
-
 	/**
 	 * Build payload in Synology Chat format
 	 * @param message the message to send
 	 * @param url the url to a file added with the message
 	 * @return the payload
 	 */
-	private String buildSynologyChatPayload(String message, String url) {
-		if (message != null) message = message.replace("\n", "\\n").replace("\"", "\\\"");
-
-		List<String> payload = new ArrayList<>(); 
-		if(message != null) payload.add(String.format("\"text\": \"%s\"", message));
-		if(url != null)     payload.add(String.format("\"file_url\": \"%s\"", url));
-		return String.format("{%s}", String.join(", ", payload));
+	String buildSynologyChatPayload(String message, String url) {
+		return SynologyChatPayloadEncoder.toJson(message, url);
 	}
 
 
@@ -146,10 +378,27 @@ public class BotService {
 	 * @return the string to send to the chat
 	 */
 	protected String echoService() {
-		return "echo from bot service";
+		return EchoSkill.ECHO;
 	}
 
 
+	/**
+	 * Commands of the download channel: status, cancel <job id>, or an URL to download
+	 * @param message the message sent
+	 * @param userName the user which sent the message
+	 * @return the string to send to the chat
+	 */
+	protected String downloadCommand(String message, String userName) {
+		String command = message.trim();
+		if (command.equalsIgnoreCase("status")) {
+			return downloadJobManager.status(userName);
+		}
+		if (command.toLowerCase().startsWith("cancel")) {
+			return downloadJobManager.cancel(userName, command.substring("cancel".length()));
+		}
+		return downloadService(message, userName);
+	}
+
 	/**
 	 * Service which download a file and send its to a share drive, then send the url to the chat
 	 * @param url the URL to download
@@ -164,12 +413,12 @@ public class BotService {
 
 		try {
 			// Check if it's a YouTube URL
-			var isYoutubeUrl = url.matches("(?:https?://)?(?:www\\.)?(?:youtube\\.com|youtu\\.be).*");
-			if (isYoutubeUrl) {
-				logger.debug("YouTube URL detected: {}", url);
-				// Launch download asynchronously and return immediately
-				executorService.submit(() -> downloadYoutubeVideoAsync(url, userName));
-				return "✅ Music download started. You'll be notified when it's ready.";
+			String trimmedUrl = url.trim();
+			if (VideoIds.isYoutubeUrl(trimmedUrl)) {
+				logger.debug("YouTube URL detected: {}", trimmedUrl);
+				String videoId = VideoIds.canonicalId(trimmedUrl);
+				// Queue download and return immediately, duplicates are downloaded once
+				return downloadJobManager.submit(userName, trimmedUrl, videoId);
 			} else {
 				return "❌ Only YouTube URLs are currently supported yet";
 			}
@@ -180,70 +429,83 @@ public class BotService {
 	}
 
 	/**
-	 * Asynchronously download a YouTube video and notify the user when complete
-	 * @param url the YouTube URL
-	 * @param userName the user requesting the download
-	 */
-	private void downloadYoutubeVideoAsync(String url, String userName) {
-		try {
-			String result = downloadYoutubeVideo(url, userName);
-			if (result != null && !result.startsWith("ERROR")) {
-				sendMessage(userName, "✅ " + result, null);
-			} else {
-				sendMessage(userName, "❌ " + (result != null ? result : "Failed to download YouTube video"), null);
-			}
-		} catch (Exception e) {
-			logger.error("Error during async YouTube download for user {}: {}", userName, e.getMessage(), e);
-			sendMessage(userName, "❌ Error: " + e.getMessage(), null);
-		}
-	}
-
-	/**
-	 * Download a YouTube video using youtube-dl in a Docker container
-	 * @param url the YouTube URL
-	 * @param userName the user requesting the download
-	 * @return the URL to the downloaded file, or null if download failed
+	 * Download a YouTube video using youtube-dl, in a Docker container or a download worker
+	 * @param job the download job (URL and user requesting the download)
+	 * @return the message to send to the requesters, and the downloaded file (if found in the share of the user)
 	 */
-	private String downloadYoutubeVideo(String url, String userName) {
+	private DownloadResult downloadYoutubeVideo(DownloadJob job) {
+		String url = job.getUrl();
+		String userName = job.getOwner();
+		ChatConfig currentConfig = config;
 		try {
 			logger.info("Starting YouTube download for URL: {}", url);
-			String gid = properties.getProperty("user." + userName + ".group");
-			String uid = properties.getProperty("user." + userName + ".user");
-			String cmd = properties.getProperty("youtube.mp3.download.command")
-				.replace("$user", userName)
-				.replace("$url", url)
-				.replace("$gid", gid)
-				.replace("$uid", uid);
-			logger.info("Executing command: {}", cmd);
-
-			// Execute the docker command
-			ProcessBuilder pb = new ProcessBuilder("sh", "-c", cmd);
-			pb.redirectErrorStream(true);
-			Process process = pb.start();
-
-			// Read command output
-			StringBuilder output = new StringBuilder();
-			try (java.io.BufferedReader reader = new java.io.BufferedReader(new java.io.InputStreamReader(process.getInputStream()))) {
-				String line;
-				while ((line = reader.readLine()) != null) {
-					output.append(line).append("\n");
-					logger.debug("youtube download output: {}", line);
-				}
-			}
+			Map<String, String> variables = new LinkedHashMap<>();
+			variables.put("url", url);
+			variables.put("user", userName);
+			variables.put("uid", currentConfig.getUid(userName));
+			variables.put("gid", currentConfig.getGid(userName));
+			Set<Path> previousOutputs = downloadCache.listOutputs(userName);
 
-			// Wait for process completion
-			int exitCode = process.waitFor();
+			// Run the downloader and parse its output while it runs: progress sent to the requesters, last lines kept for errors
+			DownloadOutputParser output = new DownloadOutputParser(
+					currentConfig.getDownloadTailLines(),
+					currentConfig.getProgressIntervalMillis(),
+					(percent, totalSize) -> sendProgress(job, percent, totalSize));
+			int exitCode = downloadBackend.download(job, variables, output);
 			if (exitCode != 0) {
-				throw new RuntimeException(String.format("YouTube download failed with exit code %d. Output: %s", exitCode, output));
+				throw new RuntimeException(String.format("YouTube download failed with exit code %d. Output: %s", exitCode, output.getTail()));
 			}
+			logger.debug("YouTube download output: {}", output.getTail());
 
-			// Extract filename from output to build the complete URL
-			logger.info("YouTube downloaded successfully. Output: {}", output);
-			return "YouTube downloaded successfully. Check the downloaded file in your drive.";
+			// Find the file written, from the output or as the new file in the share of the user
+			Path file = downloadCache.resolveOutput(userName, output.getDestination());
+			if (file == null) {
+				Set<Path> outputs = downloadCache.listOutputs(userName);
+				outputs.removeAll(previousOutputs);
+				file = outputs.size() == 1 ? outputs.iterator().next() : null;
+			}
+			logger.info("YouTube downloaded successfully: {}", file != null ? file : output.getDestination());
+			return new DownloadResult(buildDownloadMessage(output, file), file);
 		} 
 		catch (Exception e) {
 			throw new RuntimeException(String.format("Error during YouTube download: %s", e.getMessage()), e);
 		}
 	}
 
+	/**
+	 * Send the progress of a download to its requesters
+	 */
+	private void sendProgress(DownloadJob job, double percent, String totalSize) {
+		String message = String.format("⏳ Download #%d: %.0f%% of %s", job.getId(), percent, totalSize);
+		for (String requester : job.getRequesters()) {
+			try {
+				progressSender.sendAsync(requester, message, null).whenComplete((sent, e) -> {
+					if (e != null)
+						logger.warn("Can't send progress of download #{} to {}: {}", job.getId(), requester, e.getMessage());
+				});
+			} catch (RuntimeException e) {
+				logger.warn("Can't send progress of download #{} to {}: {}", job.getId(), requester, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Build the message of a successful download, with the name and size of the file
+	 */
+	private static String buildDownloadMessage(DownloadOutputParser output, Path file) {
+		String fileName = file != null ? file.getFileName().toString()
+				: output.getDestination() != null ? Paths.get(output.getDestination()).getFileName().toString() : null;
+		if (fileName == null)
+			return "YouTube downloaded successfully. Check the downloaded file in your drive.";
+		String size = null;
+		try {
+			if (file != null) size = String.format("%.1f MB", Files.size(file) / (1024.0 * 1024.0));
+		} catch (IOException e) {
+			// size from the output
+		}
+		if (size == null) size = output.getTotalSize();
+		return size != null
+				? String.format("YouTube downloaded successfully: %s (%s) is in your drive.", fileName, size)
+				: String.format("YouTube downloaded successfully: %s is in your drive.", fileName);
+	}
 }
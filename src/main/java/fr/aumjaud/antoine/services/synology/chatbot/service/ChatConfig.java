@@ -0,0 +1,144 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Config of the bot service, read and checked once when set: the requests use this immutable snapshot,
+ * replaced as a whole on reload, so a request never sees half of a config.
+ */
+final class ChatConfig {
+
+	private final Set<String> chatTokens;
+	private final Set<String> users;
+	private final Map<String, URI> targetUrls;
+	private final Map<String, String> uids;
+	private final Map<String, String> gids;
+	private final Map<String, List<String>> groups;
+	private final int downloadTailLines;
+	private final long progressIntervalMillis;
+
+	/**
+	 * Build the snapshot of a config
+	 * @param properties the config
+	 * @throws IllegalArgumentException if the config is not valid (the previous snapshot is kept)
+	 */
+	ChatConfig(Properties properties) {
+		String tokens = properties.getProperty("chat-tokens");
+		if (tokens == null)
+			throw new IllegalArgumentException("chat-tokens not defined in configuration");
+		Set<String> tokenSet = new HashSet<>();
+		for (String token : tokens.split(";")) {
+			if (!token.isEmpty())
+				tokenSet.add(token);
+		}
+		chatTokens = Collections.unmodifiableSet(tokenSet);
+
+		// Preformat the incoming integration URL of each user
+		String targetUrlTemplate = properties.getProperty("synology-chat.url");
+		Set<String> userSet = new HashSet<>();
+		Map<String, URI> urls = new HashMap<>();
+		Map<String, String> uidMap = new HashMap<>();
+		Map<String, String> gidMap = new HashMap<>();
+		Map<String, List<String>> groupMap = new HashMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			String value = properties.getProperty(key);
+			if (key.startsWith("token.")) {
+				String userName = key.substring("token.".length());
+				userSet.add(userName);
+				if (targetUrlTemplate != null) {
+					urls.put(userName, URI.create(String.format(targetUrlTemplate, value))); // fail on reload, not on send
+				}
+			} else if (key.startsWith("user.") && key.endsWith(".user")) {
+				uidMap.put(key.substring("user.".length(), key.length() - ".user".length()), value);
+			} else if (key.startsWith("user.") && key.endsWith(".group")) {
+				gidMap.put(key.substring("user.".length(), key.length() - ".group".length()), value);
+			} else if (key.startsWith("group.")) {
+				Set<String> members = new LinkedHashSet<>();
+				for (String member : value.split(",")) {
+					if (!member.trim().isEmpty())
+						members.add(member.trim());
+				}
+				groupMap.put(key.substring("group.".length()), Collections.unmodifiableList(new ArrayList<>(members)));
+			}
+		}
+		for (Map.Entry<String, List<String>> group : groupMap.entrySet()) {
+			for (String member : group.getValue()) {
+				if (!userSet.contains(member))
+					throw new IllegalArgumentException("group " + group.getKey() + " has a user without token: " + member);
+			}
+		}
+		users = Collections.unmodifiableSet(userSet);
+		targetUrls = Collections.unmodifiableMap(urls);
+		uids = Collections.unmodifiableMap(uidMap);
+		gids = Collections.unmodifiableMap(gidMap);
+		groups = Collections.unmodifiableMap(groupMap);
+
+		downloadTailLines = Integer.parseInt(properties.getProperty("download.output.tail-lines", "20"));
+		progressIntervalMillis = Long.parseLong(properties.getProperty("download.progress.interval-ms", "30000"));
+	}
+
+	/**
+	 * @param token the token sent by chat integration
+	 * @return true if the token is one of the chat-tokens
+	 */
+	boolean isValidToken(String token) {
+		return chatTokens.contains(token);
+	}
+
+	/**
+	 * @param userName the name of the user
+	 * @return true if the user has a token
+	 */
+	boolean isKnownUser(String userName) {
+		return users.contains(userName);
+	}
+
+	/**
+	 * @param userName the name of the user
+	 * @return the incoming integration URL of the user, null if synology-chat.url is not defined
+	 */
+	URI getTargetUrl(String userName) {
+		return targetUrls.get(userName);
+	}
+
+	/**
+	 * @param userName the name of the user
+	 * @return the user id on the NAS (user.[name].user), null if not defined
+	 */
+	String getUid(String userName) {
+		return uids.get(userName);
+	}
+
+	/**
+	 * @param userName the name of the user
+	 * @return the group id on the NAS (user.[name].group), null if not defined
+	 */
+	String getGid(String userName) {
+		return gids.get(userName);
+	}
+
+	/**
+	 * @param groupName the name of the group
+	 * @return the users of the group (group.[name]), null if not defined
+	 */
+	List<String> getGroup(String groupName) {
+		return groups.get(groupName);
+	}
+
+	int getDownloadTailLines() {
+		return downloadTailLines;
+	}
+
+	long getProgressIntervalMillis() {
+		return progressIntervalMillis;
+	}
+}
@@ -0,0 +1,182 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import fr.aumjaud.antoine.services.synology.chatbot.model.GithubPayload;
+
+/**
+ * Routing of the GitHub notifications to chat targets, declared in config:
+ * <pre>
+ * github.routes=failures,delivery
+ * github.route.failures.conclusion=failure,cancelled,timed_out
+ * github.route.failures.targets=continuous-integration
+ * github.route.delivery.repository=antoine-aumjaud/*
+ * github.route.delivery.branch=main
+ * github.route.delivery.targets=continuous-delivery
+ * </pre>
+ * A rule matches when each of its conditions (repository, branch, workflow, conclusion) has one of its values,
+ * a value ending with "*" matches by prefix, a condition not set matches everything.
+ * Rules are indexed by condition and value: a notification is matched with one lookup per condition
+ * (and a check of the prefix values) and an intersection of bit sets, not by testing each rule.
+ */
+public class GithubRoutes {
+
+	private static final String[] CONDITIONS = { "repository", "branch", "workflow", "conclusion" };
+
+	private volatile Index index = new Index(new ArrayList<>(), new Properties());
+
+	/**
+	 * Set config, the rules are indexed before replacing the current ones
+	 * @param properties the config to set
+	 * @throws IllegalArgumentException if a rule has no target
+	 */
+	public void setConfig(Properties properties) {
+		index = index(properties);
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		index(properties);
+	}
+
+	/**
+	 * @return true if rules are declared
+	 */
+	public boolean isEnabled() {
+		return index.targets.length > 0;
+	}
+
+	/**
+	 * Find the targets of a notification
+	 * @param payload the notification
+	 * @return the targets of all the rules matching, in rule order without duplicates
+	 */
+	public Set<String> route(GithubPayload payload) {
+		return index.route(new String[] { payload.getRepository(), payload.getBranch(), payload.getWorkflow(), payload.getStatus() });
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private static Index index(Properties properties) {
+		List<String> names = new ArrayList<>();
+		for (String name : properties.getProperty("github.routes", "").split(",")) {
+			if (!name.trim().isEmpty())
+				names.add(name.trim());
+		}
+		return new Index(names, properties);
+	}
+
+	/**
+	 * Immutable index of the rules, replaced on each change
+	 */
+	private static class Index {
+		private final String[][] targets; // by rule
+		private final Condition[] conditions = new Condition[CONDITIONS.length];
+
+		Index(List<String> names, Properties properties) {
+			targets = new String[names.size()][];
+			for (int c = 0; c < CONDITIONS.length; c++) {
+				conditions[c] = new Condition();
+			}
+			for (int rule = 0; rule < names.size(); rule++) {
+				String prefix = "github.route." + names.get(rule) + ".";
+				targets[rule] = split(properties.getProperty(prefix + "targets", ""));
+				if (targets[rule].length == 0)
+					throw new IllegalArgumentException("GitHub route " + names.get(rule) + " has no targets");
+				for (int c = 0; c < CONDITIONS.length; c++) {
+					conditions[c].add(rule, split(properties.getProperty(prefix + CONDITIONS[c], "")), CONDITIONS[c].equals("conclusion"));
+				}
+			}
+		}
+
+		Set<String> route(String[] values) {
+			Set<String> routed = new LinkedHashSet<>();
+			if (targets.length == 0)
+				return routed;
+			BitSet matching = null;
+			for (int c = 0; c < CONDITIONS.length && (matching == null || !matching.isEmpty()); c++) {
+				BitSet rules = conditions[c].match(values[c]);
+				if (matching == null)
+					matching = rules;
+				else
+					matching.and(rules);
+			}
+			for (int rule = matching.nextSetBit(0); rule >= 0; rule = matching.nextSetBit(rule + 1)) {
+				for (String target : targets[rule]) {
+					routed.add(target);
+				}
+			}
+			return routed;
+		}
+
+		private static String[] split(String values) {
+			List<String> split = new ArrayList<>();
+			for (String value : values.split(",")) {
+				if (!value.trim().isEmpty())
+					split.add(value.trim());
+			}
+			return split.toArray(new String[0]);
+		}
+	}
+
+	/**
+	 * Index of the rules by value of a condition
+	 */
+	private static class Condition {
+		private final BitSet any = new BitSet();
+		private final Map<String, BitSet> exact = new HashMap<>();
+		private final Map<String, BitSet> prefixes = new HashMap<>();
+		private boolean ignoreCase;
+
+		void add(int rule, String[] values, boolean ignoreCase) {
+			this.ignoreCase = ignoreCase;
+			if (values.length == 0) {
+				any.set(rule);
+				return;
+			}
+			for (String value : values) {
+				if (ignoreCase)
+					value = value.toLowerCase(Locale.ROOT);
+				if (value.equals("*"))
+					any.set(rule);
+				else if (value.endsWith("*"))
+					prefixes.computeIfAbsent(value.substring(0, value.length() - 1), key -> new BitSet()).set(rule);
+				else
+					exact.computeIfAbsent(value, key -> new BitSet()).set(rule);
+			}
+		}
+
+		/**
+		 * @return the rules matching a value (a new bit set)
+		 */
+		BitSet match(String value) {
+			BitSet rules = (BitSet) any.clone();
+			if (value == null)
+				return rules;
+			if (ignoreCase)
+				value = value.toLowerCase(Locale.ROOT);
+			BitSet exactRules = exact.get(value);
+			if (exactRules != null)
+				rules.or(exactRules);
+			for (Map.Entry<String, BitSet> prefix : prefixes.entrySet()) {
+				if (value.startsWith(prefix.getKey()))
+					rules.or(prefix.getValue());
+			}
+			return rules;
+		}
+	}
+}
@@ -1,35 +1,43 @@
 package fr.aumjaud.antoine.services.synology.chatbot.service;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
 import java.util.Locale;
 import java.util.Properties;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import fr.aumjaud.antoine.services.common.security.NoAccessException;
 import fr.aumjaud.antoine.services.common.security.WrongRequestException;
+import fr.aumjaud.antoine.services.synology.chatbot.model.GithubPayload;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Counter;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Histogram;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.MetricsRegistry;
 
 public class GithubService {
 
 	//private static final Logger logger = LoggerFactory.getLogger(GithubService.class);
 
-	private static final Gson GSON = new Gson();
+	private static final String SIGNATURE_PREFIX = "sha256=";
+	private static final Histogram VERIFICATION = MetricsRegistry.DEFAULT.histogram("chatbot_signature_verification_seconds",
+			"Duration of the webhook signature checks, by provider", "provider", "github");
+	private static final Counter INVALID = MetricsRegistry.DEFAULT.counter("chatbot_signature_invalid_total",
+			"Webhook payloads rejected on their signature, by provider", "provider", "github");
 
-	private Properties properties;
+	private volatile HmacSha256Verifier verifier;
 
 	/**
 	 * Set config
 	 * @param properties the config to set
 	 */
 	public void setConfig(Properties properties) {
-		this.properties = properties;
+		String secret = properties.getProperty("github.webhook.secret");
+		verifier = (secret == null || secret.length() == 0)
+				? null
+				: new HmacSha256Verifier(secret.getBytes(StandardCharsets.UTF_8));
 	}
 
 	/**
@@ -39,123 +47,231 @@ public class GithubService {
 	 * @return the controlled message
 	 */
 	public String getMessage(String payload, String signatureSha256) {
-		String secret = properties.getProperty("github.webhook.secret");
-		if (secret == null || secret.length() == 0)
-			throw new WrongRequestException("missing configuration", "github.webhook.secret not defined in configuration");
+		return getMessage(payload.getBytes(StandardCharsets.UTF_8), signatureSha256);
+	}
 
-		if (!isValidSignature(payload, signatureSha256, secret))
+	/**
+	 * Get message from GitHub payload and check its signature.
+	 * @param payload the GitHub payload, as received
+	 * @param signatureSha256 the payload signature (header X-Hub-Signature-256)
+	 * @return the controlled message
+	 */
+	public String getMessage(byte[] payload, String signatureSha256) {
+		return getMessage(getPayload(payload, signatureSha256));
+	}
+
+	/**
+	 * Check the signature of a GitHub payload and extract its fields
+	 * @param payload the GitHub payload, as received
+	 * @param signatureSha256 the payload signature (header X-Hub-Signature-256)
+	 * @return the controlled fields
+	 */
+	public GithubPayload getPayload(byte[] payload, String signatureSha256) {
+		if (!isValidSignature(payload, signatureSha256)) {
+			INVALID.increment();
 			throw new NoAccessException("wrong signature", "GitHub payload signature is invalid");
+		}
 
-		JsonObject githubPayload = extractGithubPayload(payload);
+		return extractGithubPayload(payload);
+	}
+
+	/**
+	 * Build the message of a controlled GitHub payload
+	 * @param githubPayload the fields of the payload
+	 * @return the message
+	 */
+	public String getMessage(GithubPayload githubPayload) {
 		return buildGithubMessage(githubPayload);
 	}
 
+	/**
+	 * @param githubPayload the fields of the payload
+	 * @return true if the workflow succeeded
+	 */
+	public boolean isSuccess(GithubPayload githubPayload) {
+		String status = githubPayload.getStatus();
+		return "success".equals(status) || "passed".equals(status);
+	}
+
     /*
      * PRIVATE
      */
-	JsonObject extractGithubPayload(String payload) {
-		JsonElement parsed = new JsonParser().parse(payload);
-		if (parsed == null || !parsed.isJsonObject())
-			throw new WrongRequestException("payload is not well formed", "GitHub payload is not a JSON object");
-
-		return parsed.getAsJsonObject();
+	GithubPayload extractGithubPayload(String payload) {
+		return extractGithubPayload(payload.getBytes(StandardCharsets.UTF_8));
 	}
 
-	String buildGithubMessage(JsonObject githubPayload) {
-		String repository = valueOrDefault(getFromPath(githubPayload, "repository", "full_name"),
-				getFromPath(githubPayload, "repository", "name"),
-				getString(githubPayload, "repository"),
-				"unknown-repository");
-
-		String workflow = valueOrDefault(getFromPath(githubPayload, "workflow_run", "name"),
-				getString(githubPayload, "workflow"),
-				"workflow");
-
-		String status = valueOrDefault(getFromPath(githubPayload, "workflow_run", "conclusion"),
-				getFromPath(githubPayload, "workflow_run", "status"),
-				getString(githubPayload, "status"),
-				"unknown").toLowerCase(Locale.ROOT);
-
-		String branch = valueOrDefault(getFromPath(githubPayload, "workflow_run", "head_branch"),
-				getString(githubPayload, "branch"),
-				"unknown-branch");
+	/**
+	 * Extract the fields used in the message in one pass, without building the JSON tree
+	 * (workflow_run events are big, only a few fields are read)
+	 * @param payload the GitHub payload
+	 * @return the extracted fields
+	 */
+	GithubPayload extractGithubPayload(byte[] payload) {
+		ExtractedFields fields = new ExtractedFields();
+		try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8))) {
+			reader.setLenient(true);
+			if (reader.peek() != JsonToken.BEGIN_OBJECT)
+				throw new WrongRequestException("payload is not well formed", "GitHub payload is not a JSON object");
 
-		String url = valueOrDefault(getFromPath(githubPayload, "workflow_run", "html_url"),
-				getString(githubPayload, "url"),
-				null);
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+				case "repository":
+					if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+						readRepository(reader, fields);
+					} else {
+						fields.repository = readPrimitive(reader);
+					}
+					break;
+				case "workflow_run":
+					if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+						readWorkflowRun(reader, fields);
+					} else {
+						reader.skipValue();
+					}
+					break;
+				case "workflow":
+					fields.workflow = readPrimitive(reader);
+					break;
+				case "status":
+					fields.status = readPrimitive(reader);
+					break;
+				case "branch":
+					fields.branch = readPrimitive(reader);
+					break;
+				case "url":
+					fields.url = readPrimitive(reader);
+					break;
+				case "message":
+					fields.message = readPrimitive(reader);
+					break;
+				default:
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		} catch (IOException | IllegalStateException e) {
+			throw new WrongRequestException("payload is not well formed", "GitHub payload is not valid JSON: " + e.getMessage());
+		}
+		return fields.toGithubPayload();
+	}
 
-		String commitMessage = valueOrDefault(getFromPath(githubPayload, "workflow_run", "head_commit", "message"),
-				getString(githubPayload, "message"),
-				null);
+	String buildGithubMessage(GithubPayload githubPayload) {
+		String status = githubPayload.getStatus();
+		String url = githubPayload.getUrl();
+		String commitMessage = githubPayload.getCommitMessage();
 
-		String workflowSummary = String.format("%s (%s)", workflow, branch);
-		if ("success".equals(status) || "passed".equals(status)) {
-			return String.format("Workflow success of %s: %s", repository, workflowSummary);
+		String workflowSummary = String.format("%s (%s)", githubPayload.getWorkflow(), githubPayload.getBranch());
+		if (isSuccess(githubPayload)) {
+			return String.format("Workflow success of %s: %s", githubPayload.getRepository(), workflowSummary);
 		}
 
 		String workflowStatus = (url == null || url.length() == 0)
 				? status
 				: String.format("<%s|%s>", url, status);
-		String textMessage = String.format("Workflow %s of %s: %s", workflowStatus, repository, workflowSummary);
+		String textMessage = String.format("Workflow %s of %s: %s", workflowStatus, githubPayload.getRepository(), workflowSummary);
 		if (commitMessage != null && commitMessage.length() > 0) {
 			textMessage = textMessage + " - " + commitMessage;
 		}
 		return textMessage;
 	}
 
-	boolean isValidSignature(String payload, String signatureSha256, String secret) {
+	boolean isValidSignature(byte[] payload, String signatureSha256) {
+		HmacSha256Verifier currentVerifier = verifier;
+		if (currentVerifier == null)
+			throw new WrongRequestException("missing configuration", "github.webhook.secret not defined in configuration");
 		if (signatureSha256 == null || signatureSha256.length() == 0)
 			throw new WrongRequestException("signature is null", "No GitHub signature sent with payload");
-		if (!signatureSha256.startsWith("sha256="))
+		if (!signatureSha256.startsWith(SIGNATURE_PREFIX))
 			throw new WrongRequestException("wrong signature format", "X-Hub-Signature-256 must start with sha256=");
 
-		String expectedHex = computeHmacSha256Hex(payload, secret);
-		String signedHex = signatureSha256.substring("sha256=".length());
-		byte[] expectedBytes = expectedHex.getBytes(StandardCharsets.UTF_8);
-		byte[] signedBytes = signedHex.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
-		return MessageDigest.isEqual(expectedBytes, signedBytes);
+		long start = System.nanoTime();
+		try {
+			return currentVerifier.verify(payload, signatureSha256, SIGNATURE_PREFIX.length());
+		} finally {
+			VERIFICATION.recordSince(start);
+		}
 	}
 
-	private String computeHmacSha256Hex(String payload, String secret) {
-		try {
-			Mac sha256Hmac = Mac.getInstance("HmacSHA256");
-			sha256Hmac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
-			byte[] digest = sha256Hmac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
-			StringBuilder hex = new StringBuilder(digest.length * 2);
-			for (byte b : digest) {
-				hex.append(String.format("%02x", b));
+	private void readRepository(JsonReader reader, ExtractedFields fields) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "full_name":
+				fields.repositoryFullName = readPrimitive(reader);
+				break;
+			case "name":
+				fields.repositoryName = readPrimitive(reader);
+				break;
+			default:
+				reader.skipValue();
 			}
-			return hex.toString();
-		} catch (Exception e) {
-			throw new WrongRequestException("signature error", "Cannot compute GitHub payload signature: " + e.getMessage());
 		}
+		reader.endObject();
 	}
 
-	private String getFromPath(JsonObject payload, String... fields) {
-		JsonElement current = payload;
-		for (String field : fields) {
-			if (current == null || !current.isJsonObject())
-				return null;
-			JsonObject obj = current.getAsJsonObject();
-			current = obj.get(field);
+	private void readWorkflowRun(JsonReader reader, ExtractedFields fields) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "name":
+				fields.runName = readPrimitive(reader);
+				break;
+			case "conclusion":
+				fields.runConclusion = readPrimitive(reader);
+				break;
+			case "status":
+				fields.runStatus = readPrimitive(reader);
+				break;
+			case "head_branch":
+				fields.runHeadBranch = readPrimitive(reader);
+				break;
+			case "html_url":
+				fields.runHtmlUrl = readPrimitive(reader);
+				break;
+			case "head_commit":
+				if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+					reader.beginObject();
+					while (reader.hasNext()) {
+						if ("message".equals(reader.nextName())) {
+							fields.runCommitMessage = readPrimitive(reader);
+						} else {
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+				} else {
+					reader.skipValue();
+				}
+				break;
+			default:
+				reader.skipValue();
+			}
 		}
-		if (current == null || current.isJsonNull())
-			return null;
-		if (current.isJsonPrimitive())
-			return current.getAsString();
-		return GSON.toJson(current);
+		reader.endObject();
 	}
 
-	private String getString(JsonObject payload, String field) {
-		JsonElement value = payload.get(field);
-		if (value == null || value.isJsonNull())
+	/**
+	 * Read a string, number or boolean value, skip other values
+	 * @return the value as string, null if not a primitive
+	 */
+	private static String readPrimitive(JsonReader reader) throws IOException {
+		switch (reader.peek()) {
+		case STRING:
+		case NUMBER:
+			return reader.nextString();
+		case BOOLEAN:
+			return String.valueOf(reader.nextBoolean());
+		case NULL:
+			reader.nextNull();
 			return null;
-		if (!value.isJsonPrimitive())
+		default:
+			reader.skipValue();
 			return null;
-		return value.getAsString();
+		}
 	}
 
-	private String valueOrDefault(String... values) {
+	private static String valueOrDefault(String... values) {
 		for (String value : values) {
 			if (value != null && value.length() > 0) {
 				return value;
@@ -163,4 +279,34 @@ public class GithubService {
 		}
 		return null;
 	}
+
+	/**
+	 * Fields read in the payload, workflow_run values take precedence over the simple notification ones
+	 */
+	private static class ExtractedFields {
+		private String repository;
+		private String repositoryFullName;
+		private String repositoryName;
+		private String workflow;
+		private String status;
+		private String branch;
+		private String url;
+		private String message;
+		private String runName;
+		private String runConclusion;
+		private String runStatus;
+		private String runHeadBranch;
+		private String runHtmlUrl;
+		private String runCommitMessage;
+
+		private GithubPayload toGithubPayload() {
+			return new GithubPayload(
+					valueOrDefault(repositoryFullName, repositoryName, repository, "unknown-repository"),
+					valueOrDefault(runName, workflow, "workflow"),
+					valueOrDefault(runConclusion, runStatus, status, "unknown").toLowerCase(Locale.ROOT),
+					valueOrDefault(runHeadBranch, branch, "unknown-branch"),
+					valueOrDefault(runHtmlUrl, url, null),
+					valueOrDefault(runCommitMessage, message, null));
+		}
+	}
 }
@@ -0,0 +1,116 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import fr.aumjaud.antoine.services.common.security.WrongRequestException;
+
+/**
+ * Check HMAC SHA256 signatures sent in hexadecimal.
+ * The Mac is initialized once per thread for the secret, and the expected and received
+ * digests are compared as raw bytes, without allocating per call.
+ */
+public class HmacSha256Verifier {
+
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final int DIGEST_LENGTH = 32;
+
+	private final SecretKeySpec secretKey;
+	private final ThreadLocal<Engine> engines;
+
+	/**
+	 * @param secret the shared secret
+	 */
+	public HmacSha256Verifier(byte[] secret) {
+		secretKey = new SecretKeySpec(secret, ALGORITHM);
+		engines = ThreadLocal.withInitial(() -> new Engine(secretKey));
+	}
+
+	/**
+	 * Check a signature
+	 * @param payload the signed payload
+	 * @param signature the signature
+	 * @param hexOffset the index of the hexadecimal digest in the signature (after its prefix)
+	 * @return true if the signature is the one of the payload
+	 */
+	public boolean verify(byte[] payload, String signature, int hexOffset) {
+		Engine engine = engines.get();
+		if (!decodeHex(signature, hexOffset, engine.received))
+			return false;
+		engine.digest(payload);
+		return isEqual(engine.expected, engine.received);
+	}
+
+	/**
+	 * Compute the signature of a payload
+	 * @param payload the payload
+	 * @return the digest (a new array)
+	 */
+	public byte[] sign(byte[] payload) {
+		Engine engine = engines.get();
+		engine.digest(payload);
+		return engine.expected.clone();
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	/**
+	 * Decode an hexadecimal string in an existing array
+	 * @return false if the string is not a valid hexadecimal digest
+	 */
+	static boolean decodeHex(String hex, int offset, byte[] target) {
+		if (hex.length() - offset != target.length * 2)
+			return false;
+		for (int i = 0; i < target.length; i++) {
+			int high = Character.digit(hex.charAt(offset + 2 * i), 16);
+			int low = Character.digit(hex.charAt(offset + 2 * i + 1), 16);
+			if (high < 0 || low < 0)
+				return false;
+			target[i] = (byte) ((high << 4) | low);
+		}
+		return true;
+	}
+
+	/**
+	 * Constant time comparison
+	 */
+	private static boolean isEqual(byte[] a, byte[] b) {
+		int diff = a.length ^ b.length;
+		for (int i = 0; i < a.length && i < b.length; i++) {
+			diff |= a[i] ^ b[i];
+		}
+		return diff == 0;
+	}
+
+	/**
+	 * Mac and digest buffers of one thread
+	 */
+	private static class Engine {
+		private final Mac mac;
+		private final byte[] expected = new byte[DIGEST_LENGTH];
+		private final byte[] received = new byte[DIGEST_LENGTH];
+
+		private Engine(SecretKeySpec secretKey) {
+			try {
+				mac = Mac.getInstance(ALGORITHM);
+				mac.init(secretKey);
+			} catch (GeneralSecurityException e) {
+				throw new WrongRequestException("signature error", "Cannot initialize HMAC SHA256: " + e.getMessage());
+			}
+		}
+
+		private void digest(byte[] payload) {
+			try {
+				mac.update(payload);
+				mac.doFinal(expected, 0); // also resets the mac
+			} catch (ShortBufferException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
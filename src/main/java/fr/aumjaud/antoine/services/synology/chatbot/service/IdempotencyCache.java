@@ -0,0 +1,229 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import java.util.Properties;
+import java.util.function.LongSupplier;
+
+/**
+ * Results of the webhooks already handled, by 64-bit fingerprint, to answer a redelivery without sending its message again.
+ * The fingerprints are kept in a ring (the oldest is overwritten when it is full) indexed by an open-addressing table
+ * of ring positions, so a lookup is a few array reads and allocates nothing. A result is valid during a time window.
+ * A webhook being handled is marked pending, its result is recorded if it succeeded, otherwise it is released to be retried.
+ */
+public class IdempotencyCache {
+
+	/**
+	 * The result of a webhook still being handled
+	 */
+	public static final Result PENDING = new Result(202, "{\"status\":\"pending\"}");
+
+	private final LongSupplier clock;
+
+	private long windowMillis = 3600000;
+	private int[] slots = new int[0]; // ring position + 1, 0 if empty
+	private long[] keys = new long[0];
+	private long[] times = new long[0];
+	private Result[] results = new Result[0]; // null if the ring position is free
+	private int next;
+
+	public IdempotencyCache() {
+		this(System::currentTimeMillis);
+	}
+
+	IdempotencyCache(LongSupplier clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Set config, the results are forgotten if the capacity changes
+	 * @param properties the config to set
+	 */
+	public synchronized void setConfig(Properties properties) {
+		windowMillis = windowMillis(properties);
+		int capacity = capacity(properties);
+		if (capacity != keys.length) {
+			int tableSize = capacity > 0 ? Integer.highestOneBit(capacity * 2 - 1) << 1 : 0; // load factor <= 0.5
+			slots = new int[tableSize];
+			keys = new long[capacity];
+			times = new long[capacity];
+			results = new Result[capacity];
+			next = 0;
+		}
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		windowMillis(properties);
+		capacity(properties);
+	}
+
+	/**
+	 * Compute the fingerprint of a webhook
+	 * @param provider the webhook provider
+	 * @param userName the user notified
+	 * @param id the id of the delivery, or the signature of the payload
+	 * @return the fingerprint
+	 */
+	public static long fingerprint(String provider, String userName, String id) {
+		long hash = 0xcbf29ce484222325L; // FNV-1a
+		hash = hash(hash, provider);
+		hash = hash(hash, userName);
+		hash = hash(hash, id);
+		return mix(hash);
+	}
+
+	/**
+	 * Get the result of a webhook already handled
+	 * @param key the fingerprint of the webhook
+	 * @return the result (PENDING while handled), null if not handled in the time window
+	 */
+	public synchronized Result get(long key) {
+		int position = find(key);
+		if (position < 0 || clock.getAsLong() - times[position] >= windowMillis)
+			return null;
+		return results[position];
+	}
+
+	/**
+	 * Mark a webhook as being handled, unless it is already
+	 * @param key the fingerprint of the webhook
+	 * @return null if the caller handles the webhook, the result of the webhook otherwise (PENDING while handled)
+	 */
+	public synchronized Result claim(long key) {
+		if (keys.length == 0)
+			return null;
+		long now = clock.getAsLong();
+		int position = find(key);
+		if (position >= 0) {
+			if (now - times[position] < windowMillis)
+				return results[position];
+			remove(position); // expired
+		}
+		if (results[next] != null)
+			remove(next); // ring full, the oldest is overwritten
+		keys[next] = key;
+		times[next] = now;
+		results[next] = PENDING;
+		int slot = (int) key & (slots.length - 1);
+		while (slots[slot] != 0) {
+			slot = (slot + 1) & (slots.length - 1);
+		}
+		slots[slot] = next + 1;
+		next = (next + 1) % keys.length;
+		return null;
+	}
+
+	/**
+	 * Record the result of a webhook handled successfully
+	 * @param key the fingerprint of the webhook
+	 * @param status the HTTP status of the response
+	 * @param body the body of the response
+	 */
+	public synchronized void complete(long key, int status, String body) {
+		int position = find(key);
+		if (position >= 0 && results[position] == PENDING)
+			results[position] = new Result(status, body);
+	}
+
+	/**
+	 * Forget a webhook not handled, to let its redelivery be handled
+	 * @param key the fingerprint of the webhook
+	 */
+	public synchronized void release(long key) {
+		int position = find(key);
+		if (position >= 0 && results[position] == PENDING)
+			remove(position);
+	}
+
+	/**
+	 * The response sent for a webhook
+	 */
+	public static class Result {
+		private final int status;
+		private final String body;
+
+		Result(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public String getBody() {
+			return body;
+		}
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private static long hash(long hash, String value) {
+		if (value != null) {
+			for (int i = 0; i < value.length(); i++) {
+				hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+			}
+		}
+		return (hash ^ 0xff) * 0x100000001b3L; // separator, "a"+"bc" differs from "ab"+"c"
+	}
+
+	/**
+	 * Spread the bits of a hash (MurmurHash3 finalizer), the low bits select the slot
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		return hash ^ (hash >>> 33);
+	}
+
+	/**
+	 * @return the ring position of a fingerprint, -1 if absent
+	 */
+	private int find(long key) {
+		if (slots.length == 0)
+			return -1;
+		int mask = slots.length - 1;
+		for (int slot = (int) key & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+			int position = slots[slot] - 1;
+			if (keys[position] == key)
+				return position;
+		}
+		return -1;
+	}
+
+	/**
+	 * Remove a ring position from the table, shifting back the next entries of its probe sequence
+	 */
+	private void remove(int position) {
+		int mask = slots.length - 1;
+		int hole = (int) keys[position] & mask;
+		while (slots[hole] != position + 1) {
+			hole = (hole + 1) & mask;
+		}
+		for (int slot = (hole + 1) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+			int home = (int) keys[slots[slot] - 1] & mask;
+			boolean stays = hole <= slot ? hole < home && home <= slot : hole < home || home <= slot;
+			if (!stays) {
+				slots[hole] = slots[slot];
+				hole = slot;
+			}
+		}
+		slots[hole] = 0;
+		results[position] = null;
+	}
+
+	private static long windowMillis(Properties properties) {
+		return Long.parseLong(properties.getProperty("webhook.idempotency.window-ms", "3600000"));
+	}
+
+	private static int capacity(Properties properties) {
+		return Integer.parseInt(properties.getProperty("webhook.idempotency.capacity", "4096"));
+	}
+}
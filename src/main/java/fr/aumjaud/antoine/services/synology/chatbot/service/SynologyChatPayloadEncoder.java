@@ -0,0 +1,163 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+/**
+ * Encode Synology Chat payloads (https://www.synology.com/en-us/knowledgebase/DSM/help/Chat/chat_integration).
+ * The JSON is escaped, and for the incoming integration form-urlencoded, in a single pass
+ * in a buffer reused by each thread.
+ */
+public final class SynologyChatPayloadEncoder {
+
+	private static final int MAX_KEPT_CAPACITY = 64 * 1024;
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private static final ThreadLocal<StringBuilder> BUFFERS = ThreadLocal.withInitial(() -> new StringBuilder(512));
+
+	private SynologyChatPayloadEncoder() {
+	}
+
+	/**
+	 * Build the JSON payload
+	 * @param text the message (can be null)
+	 * @param fileUrl the url to a file added with the message (can be null)
+	 * @return the payload, ie: {"text":"...","file_url":"..."}
+	 */
+	public static String toJson(String text, String fileUrl) {
+		return encode(text, fileUrl, false);
+	}
+
+	/**
+	 * Build the body of a POST to the incoming integration
+	 * @param text the message (can be null)
+	 * @param fileUrl the url to a file added with the message (can be null)
+	 * @return the form body, ie: payload=%7B%22text%22...
+	 */
+	public static String toFormBody(String text, String fileUrl) {
+		return encode(text, fileUrl, true);
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private static String encode(String text, String fileUrl, boolean form) {
+		StringBuilder out = BUFFERS.get();
+		out.setLength(0);
+		if (form) out.append("payload=");
+
+		put(out, '{', form);
+		if (text != null) {
+			putField(out, "text", text, form);
+		}
+		if (fileUrl != null) {
+			if (text != null) put(out, ',', form);
+			putField(out, "file_url", fileUrl, form);
+		}
+		put(out, '}', form);
+
+		String result = out.toString();
+		if (out.capacity() > MAX_KEPT_CAPACITY) {
+			// don't keep a huge buffer per thread after a big message
+			BUFFERS.remove();
+		}
+		return result;
+	}
+
+	private static void putField(StringBuilder out, String name, String value, boolean form) {
+		putString(out, name, form);
+		put(out, ':', form);
+		putString(out, value, form);
+	}
+
+	/**
+	 * Write a JSON string, escaped
+	 */
+	private static void putString(StringBuilder out, String value, boolean form) {
+		put(out, '"', form);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+			case '\\':
+				put(out, '\\', form);
+				put(out, c, form);
+				break;
+			case '\n':
+				put(out, '\\', form);
+				put(out, 'n', form);
+				break;
+			case '\r':
+				put(out, '\\', form);
+				put(out, 'r', form);
+				break;
+			case '\t':
+				put(out, '\\', form);
+				put(out, 't', form);
+				break;
+			case '\b':
+				put(out, '\\', form);
+				put(out, 'b', form);
+				break;
+			case '\f':
+				put(out, '\\', form);
+				put(out, 'f', form);
+				break;
+			default:
+				if (c < 0x20 || c == 0x2028 || c == 0x2029) { // control chars and JS line separators
+					put(out, '\\', form);
+					put(out, 'u', form);
+					put(out, HEX[(c >> 12) & 0xF], form);
+					put(out, HEX[(c >> 8) & 0xF], form);
+					put(out, HEX[(c >> 4) & 0xF], form);
+					put(out, HEX[c & 0xF], form);
+				} else if (c < 0x80 || !form) {
+					put(out, c, form);
+				} else {
+					int codePoint = c;
+					if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+						codePoint = Character.toCodePoint(c, value.charAt(++i));
+					} else if (Character.isSurrogate(c)) {
+						codePoint = 0xFFFD; // unpaired surrogate
+					}
+					putUtf8(out, codePoint);
+				}
+			}
+		}
+		put(out, '"', form);
+	}
+
+	/**
+	 * Write an ASCII char, form-urlencoded if needed
+	 */
+	private static void put(StringBuilder out, char c, boolean form) {
+		if (!form || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| c == '.' || c == '-' || c == '*' || c == '_') {
+			out.append(c);
+		} else if (c == ' ') {
+			out.append('+');
+		} else {
+			putPercent(out, c);
+		}
+	}
+
+	/**
+	 * Write a non ASCII code point, percent-encoded in UTF-8
+	 */
+	private static void putUtf8(StringBuilder out, int codePoint) {
+		if (codePoint < 0x800) {
+			putPercent(out, 0xC0 | (codePoint >> 6));
+			putPercent(out, 0x80 | (codePoint & 0x3F));
+		} else if (codePoint < 0x10000) {
+			putPercent(out, 0xE0 | (codePoint >> 12));
+			putPercent(out, 0x80 | ((codePoint >> 6) & 0x3F));
+			putPercent(out, 0x80 | (codePoint & 0x3F));
+		} else {
+			putPercent(out, 0xF0 | (codePoint >> 18));
+			putPercent(out, 0x80 | ((codePoint >> 12) & 0x3F));
+			putPercent(out, 0x80 | ((codePoint >> 6) & 0x3F));
+			putPercent(out, 0x80 | (codePoint & 0x3F));
+		}
+	}
+
+	private static void putPercent(StringBuilder out, int b) {
+		out.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+	}
+}
@@ -0,0 +1,242 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.aumjaud.antoine.services.common.security.NoAccessException;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Counter;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Histogram;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.MetricsRegistry;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.OutboundHttpClient;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.OutboundResponse;
+
+/**
+ * Cache of the Travis public key.
+ * The key is kept during a TTL and reloaded in background a bit before it expires.
+ * If a reload fails, the previous key is still used (stale-while-error) and the key is not loaded again
+ * before a retry delay, so an unreachable key URL is not called by each webhook.
+ * Concurrent loads share a single HTTP call.
+ */
+public class TravisPublicKeyCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(TravisPublicKeyCache.class);
+
+	private static final Histogram FETCH = MetricsRegistry.DEFAULT.histogram("chatbot_travis_key_fetch_seconds",
+			"Duration of the loads of the Travis public key");
+	private static final Counter FETCH_FAILURES = MetricsRegistry.DEFAULT.counter("chatbot_travis_key_fetch_failures_total",
+			"Loads of the Travis public key which failed");
+
+	private static final long DEFAULT_TTL_SECONDS = 3600;
+	private static final long DEFAULT_REFRESH_AHEAD_SECONDS = 300;
+	private static final long DEFAULT_RETRY_DELAY_SECONDS = 30;
+
+	private final OutboundHttpClient httpClient;
+	private final LongSupplier clock;
+	private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "travis-public-key-refresh");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final AtomicReference<CompletableFuture<CachedKey>> inFlight = new AtomicReference<>();
+
+	private volatile KeySource keySource;
+	private volatile CachedKey cachedKey;
+	private volatile long retryAt; // no load before, after a failure
+
+	public TravisPublicKeyCache(OutboundHttpClient httpClient) {
+		this(httpClient, System::currentTimeMillis);
+	}
+
+	TravisPublicKeyCache(OutboundHttpClient httpClient, LongSupplier clock) {
+		this.httpClient = httpClient;
+		this.clock = clock;
+	}
+
+	/**
+	 * Set config
+	 * @param properties the config to set
+	 */
+	public void setConfig(Properties properties) {
+		KeySource newKeySource = new KeySource(properties);
+		KeySource oldKeySource = keySource;
+		keySource = newKeySource;
+		if (oldKeySource != null && !oldKeySource.sameLocation(newKeySource)) {
+			// key comes from somewhere else, don't reuse it
+			cachedKey = null;
+			retryAt = 0;
+		}
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		new KeySource(properties);
+	}
+
+	/**
+	 * Get the Travis public key, load it if needed
+	 * @return the public key
+	 */
+	public PublicKey getPublicKey() {
+		CachedKey key = cachedKey;
+		long now = clock.getAsLong();
+		if (key != null && now < key.expireAt) {
+			if (now >= key.refreshAt && now >= retryAt) {
+				load(true);
+			}
+			return key.publicKey;
+		}
+		if (now < retryAt) {
+			if (key != null)
+				return key.publicKey;
+			throw new NoAccessException("can't get public key", "Travis Public key is not accessible, retried later");
+		}
+
+		try {
+			return load(false).join().publicKey;
+		} catch (CompletionException e) {
+			if (key != null) {
+				logger.warn("Can't reload Travis public key, use the expired one: {}", e.getCause().getMessage());
+				return key.publicKey;
+			}
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new NoAccessException("can't get public key", "Travis Public key is not accessible: " + e.getCause().getMessage());
+		}
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	/**
+	 * Load the key, or join the load already in progress
+	 * @param async true to load it in background
+	 * @return the future of the loaded key
+	 */
+	private CompletableFuture<CachedKey> load(boolean async) {
+		while (true) {
+			CompletableFuture<CachedKey> current = inFlight.get();
+			if (current != null)
+				return current;
+
+			CompletableFuture<CachedKey> future = new CompletableFuture<>();
+			if (inFlight.compareAndSet(null, future)) {
+				if (async) {
+					future.whenComplete((key, e) -> {
+						if (e != null) logger.warn("Background reload of Travis public key failed: {}", e.getMessage());
+					});
+					refreshExecutor.execute(() -> fetch(future));
+				} else {
+					fetch(future);
+				}
+				return future;
+			}
+		}
+	}
+
+	private void fetch(CompletableFuture<CachedKey> future) {
+		long start = System.nanoTime();
+		try {
+			PublicKey publicKey = parsePublicKey(loadPublicKeyPem());
+			KeySource source = keySource;
+			long now = clock.getAsLong();
+			CachedKey key = new CachedKey(publicKey, now + source.ttlMillis - source.refreshAheadMillis, now + source.ttlMillis);
+			cachedKey = key;
+			future.complete(key);
+		} catch (RuntimeException e) {
+			FETCH_FAILURES.increment();
+			retryAt = clock.getAsLong() + keySource.retryDelayMillis;
+			future.completeExceptionally(e);
+		} finally {
+			FETCH.recordSince(start);
+			inFlight.compareAndSet(future, null);
+		}
+	}
+
+	/**
+	 * Load public key from Travis website
+	 * @return the public key in PEM format
+	 */
+	String loadPublicKeyPem() {
+		KeySource source = keySource;
+		OutboundResponse responsePublicKey = httpClient.get(source.url);
+		if (responsePublicKey == null || !responsePublicKey.isOk())
+			throw new NoAccessException("can't get public key", "Travis Public key is not accessible");
+
+		//Extract public key value
+		Matcher matcher = source.pattern.matcher(responsePublicKey.getContent());
+		if (!matcher.find())
+			throw new NoAccessException("can't find public key", "Can't find Travis public key");
+
+		return matcher.group(1).replaceAll("\\\\n", "\n");
+	}
+
+	/**
+	 * Parse a PEM public key
+	 * @param publicKeyPem the key in PEM format
+	 * @return the public key
+	 */
+	static PublicKey parsePublicKey(String publicKeyPem) {
+		try {
+			String base64Key = publicKeyPem.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+			X509EncodedKeySpec keySpec = new X509EncodedKeySpec(Base64.getDecoder().decode(base64Key));
+			return KeyFactory.getInstance("RSA").generatePublic(keySpec);
+		} catch (Exception e) {
+			throw new NoAccessException("wrong public key", "Travis public key can't be read: " + e.getMessage());
+		}
+	}
+
+	private static class KeySource {
+		private final String url;
+		private final Pattern pattern;
+		private final long ttlMillis;
+		private final long refreshAheadMillis;
+		private final long retryDelayMillis;
+
+		private KeySource(Properties properties) {
+			url = properties.getProperty("travis.public-key.url");
+			String regexp = properties.getProperty("travis.public-key.regexp");
+			pattern = regexp != null ? Pattern.compile(regexp) : null;
+			ttlMillis = Long.parseLong(properties.getProperty("travis.public-key.ttl-seconds", String.valueOf(DEFAULT_TTL_SECONDS))) * 1000;
+			long refreshAhead = Long.parseLong(properties.getProperty("travis.public-key.refresh-ahead-seconds", String.valueOf(DEFAULT_REFRESH_AHEAD_SECONDS))) * 1000;
+			refreshAheadMillis = Math.min(refreshAhead, ttlMillis);
+			retryDelayMillis = Long.parseLong(properties.getProperty("travis.public-key.retry-delay-seconds", String.valueOf(DEFAULT_RETRY_DELAY_SECONDS))) * 1000;
+		}
+
+		private boolean sameLocation(KeySource other) {
+			return Objects.equals(url, other.url)
+					&& Objects.equals(pattern == null ? null : pattern.pattern(), other.pattern == null ? null : other.pattern.pattern());
+		}
+	}
+
+	private static class CachedKey {
+		private final PublicKey publicKey;
+		private final long refreshAt;
+		private final long expireAt;
+
+		private CachedKey(PublicKey publicKey, long refreshAt, long expireAt) {
+			this.publicKey = publicKey;
+			this.refreshAt = refreshAt;
+			this.expireAt = expireAt;
+		}
+	}
+}
@@ -1,32 +1,48 @@
 package fr.aumjaud.antoine.services.synology.chatbot.service;
 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Base64;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
-import fr.aumjaud.antoine.services.common.http.HttpCode;
-import fr.aumjaud.antoine.services.common.http.HttpHelper;
-import fr.aumjaud.antoine.services.common.http.HttpResponse;
 import fr.aumjaud.antoine.services.common.security.NoAccessException;
-import fr.aumjaud.antoine.services.common.security.SecurityHelper;
 import fr.aumjaud.antoine.services.common.security.WrongRequestException;
 import fr.aumjaud.antoine.services.synology.chatbot.model.TravisPayload;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Counter;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Histogram;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.MetricsRegistry;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.JdkOutboundHttpClient;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.OutboundHttpClient;
 
 public class TravisService {
 
 	//private static final Logger logger = LoggerFactory.getLogger(TravisService.class);
 
-	private SecurityHelper securityHelper = new SecurityHelper();
-	private HttpHelper httpHelper = new HttpHelper();
+	private static final Histogram VERIFICATION = MetricsRegistry.DEFAULT.histogram("chatbot_signature_verification_seconds",
+			"Duration of the webhook signature checks, by provider", "provider", "travis");
+	private static final Counter INVALID = MetricsRegistry.DEFAULT.counter("chatbot_signature_invalid_total",
+			"Webhook payloads rejected on their signature, by provider", "provider", "travis");
+
+	private TravisPublicKeyCache publicKeyCache;
 
-	private Properties properties;
 	private Gson gson;
 
 	public TravisService() {
+		this(new JdkOutboundHttpClient());
+	}
+
+	public TravisService(OutboundHttpClient httpClient) {
+		this(new TravisPublicKeyCache(httpClient));
+	}
+
+	TravisService(TravisPublicKeyCache publicKeyCache) {
+		this.publicKeyCache = publicKeyCache;
 		GsonBuilder builder = new GsonBuilder();
 		builder.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES);
 		gson = builder.create();
@@ -37,7 +53,16 @@ public class TravisService {
 	 * @param properties the config to set
 	 */
 	public void setConfig(Properties properties) {
-		this.properties = properties;
+		publicKeyCache.setConfig(properties);
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		publicKeyCache.checkConfig(properties);
 	}
 
 	/**
@@ -47,19 +72,42 @@ public class TravisService {
 	 * @return the message controlled
 	 */
 	public String getMessage(String payload, String signatureB64) {
-		// Get Travis public key
-		String publicKeyStr = getTravisPublicKey();
+		// Transform to message
+		return getMessage(getPayload(payload, signatureB64));
+	}
+
+	/**
+	 * Check the signature of a Travis payload and parse it
+	 * @param payload the Travis paylaod
+	 * @param signatureB64 the payload signature
+	 * @return the payload controlled
+	 */
+	public TravisPayload getPayload(String payload, String signatureB64) {
+		// Get Travis public key (cached)
+		PublicKey publicKey = publicKeyCache.getPublicKey();
 
 		// Check signature
-		securityHelper.checkSignature(publicKeyStr, payload, signatureB64);
+		checkSignature(publicKey, payload, signatureB64);
 
 		// Parse payload
-		TravisPayload travisPayload = extractTravisPayload(payload);
+		return extractTravisPayload(payload);
+	}
 
-		// Transform to message
-		String message = buildTravisMessage(travisPayload);
+	/**
+	 * Build the message of a controlled Travis payload
+	 * @param travisPayload the payload
+	 * @return the message
+	 */
+	public String getMessage(TravisPayload travisPayload) {
+		return buildTravisMessage(travisPayload);
+	}
 
-		return message;
+	/**
+	 * @param travisPayload the payload
+	 * @return true if the build succeeded
+	 */
+	public boolean isSuccess(TravisPayload travisPayload) {
+		return travisPayload.getStatus() == 0;
 	}
 
 	/*
@@ -67,22 +115,35 @@ public class TravisService {
 	 */
 	
 	/**
-	 * Load public key from Travis website
-	 * @return the public key
+	 * Check payload signature (SHA1 with RSA) with an already parsed public key
+	 * @param publicKey the Travis public key
+	 * @param payload the signed payload
+	 * @param signatureB64 the signature in base64
 	 */
-	private String getTravisPublicKey() {
-		//Load public key form Travis URL
-		HttpResponse responsePublicKey = httpHelper.getData(properties.getProperty("travis.public-key.url"));
-		if (responsePublicKey.getHttpCode() != HttpCode.OK)
-			throw new NoAccessException("can't get public key", "Travis Public key is not accessible");
-
-		//Extract public key value
-		Pattern pattern = Pattern.compile(properties.getProperty("travis.public-key.regexp"));
-		Matcher matcher = pattern.matcher(responsePublicKey.getContent());
-		if (!matcher.find())
-			throw new NoAccessException("can't find public key", "Can't find Travis public key");
-
-		return matcher.group(1).replaceAll("\\\\n", "\n");
+	void checkSignature(PublicKey publicKey, String payload, String signatureB64) {
+		byte[] signatureBytes;
+		try {
+			signatureBytes = Base64.getDecoder().decode(signatureB64);
+		} catch (IllegalArgumentException e) {
+			throw new WrongRequestException("wrong signature format", "Travis signature is not in base64");
+		}
+
+		boolean valid;
+		long start = System.nanoTime();
+		try {
+			Signature signature = Signature.getInstance("SHA1withRSA");
+			signature.initVerify(publicKey);
+			signature.update(payload.getBytes(StandardCharsets.UTF_8));
+			valid = signature.verify(signatureBytes);
+		} catch (GeneralSecurityException e) {
+			throw new NoAccessException("signature error", "Cannot check Travis payload signature: " + e.getMessage());
+		} finally {
+			VERIFICATION.recordSince(start);
+		}
+		if (!valid) {
+			INVALID.increment();
+			throw new NoAccessException("wrong signature", "Travis payload signature is invalid");
+		}
 	}
 
 	/**
@@ -103,7 +164,7 @@ public class TravisService {
 		if (travisPayload.getRepository() == null)
 			throw new WrongRequestException("payload is not well formed", "Payload has null value");
 
-		String textMessage = travisPayload.getStatus() == 0 //
+		String textMessage = isSuccess(travisPayload) //
 				? "Build success of %1$s" //
 				: "Build <%5$s|%3$s> of %1$s: [%2$s] %4$s";
 		return String.format(textMessage, travisPayload.getRepository().getName(), travisPayload.getAuthorName(), travisPayload.getStatusMessage(),
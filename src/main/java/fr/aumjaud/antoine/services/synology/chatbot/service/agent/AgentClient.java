@@ -0,0 +1,146 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.agent;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.conversation.ConversationMessage;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.OutboundHttpClient;
+
+/**
+ * Client of an OpenAI-compatible chat completion endpoint (ie: a local model), the answer is streamed
+ */
+public class AgentClient {
+
+	private static final Gson GSON = new Gson();
+	private static final int MAX_ERROR_LENGTH = 1000;
+
+	private final OutboundHttpClient httpClient;
+
+	private volatile String url;
+	private volatile String apiKey;
+	private volatile String model;
+	private volatile String systemPrompt;
+	private volatile long timeoutMillis;
+
+	public AgentClient(OutboundHttpClient httpClient) {
+		this.httpClient = httpClient;
+	}
+
+	/**
+	 * Set config
+	 * @param properties the config to set
+	 */
+	public void setConfig(Properties properties) {
+		url = properties.getProperty("agent.url", "");
+		apiKey = properties.getProperty("agent.api-key", "");
+		model = properties.getProperty("agent.model", "");
+		systemPrompt = properties.getProperty("agent.system-prompt", "");
+		timeoutMillis = timeoutMillis(properties);
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		timeoutMillis(properties);
+	}
+
+	/**
+	 * @return true if an endpoint is configured
+	 */
+	public boolean isEnabled() {
+		return url != null && !url.isEmpty();
+	}
+
+	/**
+	 * Ask the model
+	 * @param context the previous messages of the conversation
+	 * @param prompt the message of the user
+	 * @param tokens the consumer of the parts of the answer, while it is received
+	 * @return the whole answer
+	 * @throws IllegalStateException if the endpoint can't be reached or answers an error
+	 */
+	public String complete(List<ConversationMessage> context, String prompt, Consumer<String> tokens) {
+		StringBuilder answer = new StringBuilder();
+		StringBuilder error = new StringBuilder();
+		int status = httpClient.postJsonLines(url, apiKey.isEmpty() ? null : "Bearer " + apiKey,
+				buildRequest(context, prompt), timeoutMillis, line -> {
+					String token = parseLine(line);
+					if (token != null) {
+						answer.append(token);
+						tokens.accept(token);
+					} else if (!line.startsWith("data:") && error.length() < MAX_ERROR_LENGTH) {
+						error.append(line);
+					}
+				});
+		if (status == -1)
+			throw new IllegalStateException("Model endpoint can't be reached");
+		if (status != 200)
+			throw new IllegalStateException("Model endpoint answered " + status + ": " + error);
+		return answer.toString();
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private static long timeoutMillis(Properties properties) {
+		return Long.parseLong(properties.getProperty("agent.timeout-ms", "120000"));
+	}
+
+	private String buildRequest(List<ConversationMessage> context, String prompt) {
+		JsonArray messages = new JsonArray();
+		if (!systemPrompt.isEmpty())
+			messages.add(message("system", systemPrompt));
+		for (ConversationMessage message : context) {
+			messages.add(message(message.getRole(), message.getContent()));
+		}
+		messages.add(message("user", prompt));
+
+		JsonObject request = new JsonObject();
+		if (!model.isEmpty())
+			request.addProperty("model", model);
+		request.add("messages", messages);
+		request.addProperty("stream", true);
+		return GSON.toJson(request);
+	}
+
+	private static JsonObject message(String role, String content) {
+		JsonObject message = new JsonObject();
+		message.addProperty("role", role);
+		message.addProperty("content", content);
+		return message;
+	}
+
+	/**
+	 * Extract the content of a server-sent event: data: {"choices":[{"delta":{"content":"..."}}]}
+	 * @return the content, null if the line has no content
+	 */
+	static String parseLine(String line) {
+		if (!line.startsWith("data:"))
+			return null;
+		String data = line.substring("data:".length()).trim();
+		if (data.isEmpty() || data.equals("[DONE]"))
+			return null;
+		try {
+			JsonObject event = GSON.fromJson(data, JsonObject.class);
+			JsonArray choices = event.getAsJsonArray("choices");
+			if (choices == null || choices.size() == 0)
+				return null;
+			JsonObject delta = choices.get(0).getAsJsonObject().getAsJsonObject("delta");
+			JsonElement content = delta != null ? delta.get("content") : null;
+			return content != null && !content.isJsonNull() ? content.getAsString() : null;
+		} catch (JsonSyntaxException | IllegalStateException | ClassCastException e) {
+			return null;
+		}
+	}
+}
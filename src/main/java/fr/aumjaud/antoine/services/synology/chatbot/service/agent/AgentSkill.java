@@ -0,0 +1,265 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.agent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.conversation.ConversationMessage;
+import fr.aumjaud.antoine.services.synology.chatbot.service.conversation.ConversationStore;
+import fr.aumjaud.antoine.services.synology.chatbot.service.delivery.MessageSender;
+import fr.aumjaud.antoine.services.synology.chatbot.service.skill.Skill;
+import fr.aumjaud.antoine.services.synology.chatbot.service.skill.SkillRequest;
+import fr.aumjaud.antoine.services.synology.chatbot.service.skill.SkillTrigger;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.OutboundHttpClient;
+
+/**
+ * Answer the messages not handled by another skill with a language model.
+ * The answer is streamed and sent to the chat by parts, the questions asked again are answered from a cache,
+ * the model is called by a limited number of questions at a time, and each user has one question asked at a time
+ * (the next ones wait in a bounded queue, for a limited time), so one user can't keep the model busy.
+ */
+public class AgentSkill implements Skill {
+
+	private static final Logger logger = LoggerFactory.getLogger(AgentSkill.class);
+	private static final String BUSY = "⏳ The agent is busy, ask again later.";
+
+	private final AgentClient client;
+	private final MessageSender sender;
+	private final ConversationStore conversations;
+	private final Map<String, UserQueue> userQueues = new ConcurrentHashMap<>();
+
+	private volatile Semaphore modelLimit = new Semaphore(2, true);
+	private volatile int userQueueCapacity = 3;
+	private volatile long queueWaitMillis = 60000;
+	private volatile long batchMillis = 2000;
+	private volatile int contextMessages = 10;
+	private volatile long contextIdleMillis = 1800000;
+	private volatile AnswerCache answerCache = new AnswerCache(0, 0);
+	private int limitSettings;
+	private List<Object> cacheSettings;
+
+	/**
+	 * @param httpClient the client of the model endpoint
+	 * @param sender the sender of the parts of the answers
+	 * @param conversations the history of the channels, sent as context
+	 */
+	public AgentSkill(OutboundHttpClient httpClient, MessageSender sender, ConversationStore conversations) {
+		this.client = new AgentClient(httpClient);
+		this.sender = sender;
+		this.conversations = conversations;
+	}
+
+	@Override
+	public String getName() {
+		return "agent";
+	}
+
+	@Override
+	public List<SkillTrigger> getTriggers() {
+		return client.isEnabled() ? Collections.singletonList(SkillTrigger.fallback()) : Collections.emptyList();
+	}
+
+	/**
+	 * Set config, the limit and the cache are rebuilt only if their settings changed
+	 * (the cache also if the model or its prompt changed, its answers being no longer valid)
+	 * @param properties the config to set
+	 */
+	@Override
+	public synchronized void setConfig(Properties properties) {
+		client.setConfig(properties);
+		Settings settings = new Settings(properties);
+		userQueueCapacity = settings.userQueueCapacity;
+		queueWaitMillis = settings.queueWaitMillis;
+		batchMillis = settings.batchMillis;
+		int maxConcurrent = settings.maxConcurrent;
+		int cacheEntries = settings.cacheEntries;
+		long cacheTtlMillis = settings.cacheTtlMillis;
+		contextMessages = settings.contextMessages;
+		contextIdleMillis = settings.contextIdleMillis;
+
+		if (maxConcurrent != limitSettings) {
+			limitSettings = maxConcurrent;
+			modelLimit = new Semaphore(maxConcurrent, true);
+		}
+		List<Object> newCacheSettings = Arrays.asList(cacheEntries, cacheTtlMillis,
+				properties.getProperty("agent.url", ""), properties.getProperty("agent.model", ""), properties.getProperty("agent.system-prompt", ""));
+		if (!newCacheSettings.equals(cacheSettings)) {
+			cacheSettings = newCacheSettings;
+			answerCache = new AnswerCache(cacheEntries, cacheTtlMillis);
+		}
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	@Override
+	public void checkConfig(Properties properties) {
+		client.checkConfig(properties);
+		new Settings(properties);
+	}
+
+	@Override
+	public String handle(SkillRequest request) {
+		String userName = request.getUserName();
+		String prompt = request.getMessage().trim();
+		UserQueue userQueue = userQueues.computeIfAbsent(userName, key -> new UserQueue());
+		if (userQueue.pending.incrementAndGet() > userQueueCapacity + 1) {
+			userQueue.pending.decrementAndGet();
+			return "❌ Too many questions pending, wait for the answers.";
+		}
+		Semaphore limit = modelLimit;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueWaitMillis);
+		try {
+			// Wait for a bounded time, the skill thread is not held by a busy model
+			if (!userQueue.turn.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+				return BUSY;
+			try {
+				if (!limit.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+					return BUSY;
+				try {
+					return ask(request.getChannelId(), userName, prompt);
+				} finally {
+					limit.release();
+				}
+			} finally {
+				userQueue.turn.release();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return "❌ Question cancelled.";
+		} finally {
+			userQueue.pending.decrementAndGet();
+		}
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private String ask(String channelId, String userName, String prompt) {
+		AnswerCache currentCache = answerCache;
+		List<ConversationMessage> context = context(channelId);
+
+		// Without context, the answer only depends on the prompt
+		if (context.isEmpty()) {
+			String cached = currentCache.get(prompt);
+			if (cached != null) {
+				logger.debug("Answer of '{}' found in cache", prompt);
+				remember(channelId, prompt, cached);
+				return cached;
+			}
+		}
+
+		Batcher batcher = new Batcher(batchMillis, part -> sendPart(userName, part));
+		String answer = client.complete(context, prompt, batcher);
+		if (context.isEmpty())
+			currentCache.put(prompt, answer);
+		remember(channelId, prompt, answer);
+		String rest = batcher.rest();
+		return rest.isEmpty() ? "✅" : rest;
+	}
+
+	/**
+	 * Send a part of the answer, the coalescer posts it by a DELIVERY task (the model stream is not held)
+	 * in the order of the parts of the user
+	 */
+	private void sendPart(String userName, String part) {
+		sender.sendAsync(userName, part, null).whenComplete((sent, e) -> {
+			if (e != null || !Boolean.TRUE.equals(sent))
+				logger.error("Part of the answer NOT sent to {}", userName);
+		});
+	}
+
+	/**
+	 * The last messages of the channel, none if the conversation is idle for too long
+	 */
+	private List<ConversationMessage> context(String channelId) {
+		List<ConversationMessage> history = conversations.history(channelId);
+		if (history.isEmpty() || System.currentTimeMillis() - history.get(history.size() - 1).getTimestamp() > contextIdleMillis)
+			return new ArrayList<>();
+		return new ArrayList<>(history.subList(Math.max(0, history.size() - contextMessages), history.size()));
+	}
+
+	private void remember(String channelId, String question, String answer) {
+		conversations.append(channelId, new ConversationMessage("user", question, System.currentTimeMillis()));
+		conversations.append(channelId, new ConversationMessage("assistant", answer, System.currentTimeMillis()));
+	}
+
+	/**
+	 * The questions of a user: one asked at a time, the others waiting
+	 */
+	private static class Settings {
+		private final int userQueueCapacity;
+		private final long queueWaitMillis;
+		private final long batchMillis;
+		private final int maxConcurrent;
+		private final int cacheEntries;
+		private final long cacheTtlMillis;
+		private final int contextMessages;
+		private final long contextIdleMillis;
+
+		private Settings(Properties properties) {
+			userQueueCapacity = Integer.parseInt(properties.getProperty("agent.queue.per-user-capacity", "3"));
+			queueWaitMillis = Long.parseLong(properties.getProperty("agent.queue.wait-ms", "60000"));
+			batchMillis = Long.parseLong(properties.getProperty("agent.stream.batch-ms", "2000"));
+			maxConcurrent = Integer.parseInt(properties.getProperty("agent.max-concurrent", "2"));
+			cacheEntries = Integer.parseInt(properties.getProperty("agent.cache.max-entries", "256"));
+			cacheTtlMillis = Long.parseLong(properties.getProperty("agent.cache.ttl-ms", "3600000"));
+			contextMessages = Integer.parseInt(properties.getProperty("agent.context.max-messages", "10"));
+			contextIdleMillis = Long.parseLong(properties.getProperty("agent.context.idle-ms", "1800000"));
+		}
+	}
+
+	private static class UserQueue {
+		private final Semaphore turn = new Semaphore(1, true);
+		private final AtomicInteger pending = new AtomicInteger();
+	}
+
+	/**
+	 * Group the streamed tokens in chat messages: the text received is sent at most once per interval,
+	 * cut after its last space so words are not split, the rest is returned at the end
+	 */
+	static class Batcher implements Consumer<String> {
+		private final long intervalMillis;
+		private final Consumer<String> send;
+		private final StringBuilder pending = new StringBuilder();
+		private long lastSentAt = System.currentTimeMillis();
+
+		Batcher(long intervalMillis, Consumer<String> send) {
+			this.intervalMillis = intervalMillis;
+			this.send = send;
+		}
+
+		@Override
+		public void accept(String token) {
+			pending.append(token);
+			long now = System.currentTimeMillis();
+			if (intervalMillis <= 0 || now - lastSentAt < intervalMillis)
+				return;
+			int cut = Math.max(pending.lastIndexOf(" "), pending.lastIndexOf("\n"));
+			String part = cut > 0 ? pending.substring(0, cut).trim() : "";
+			if (!part.isEmpty()) {
+				send.accept(part);
+				pending.delete(0, cut + 1);
+				lastSentAt = now;
+			}
+		}
+
+		String rest() {
+			return pending.toString().trim();
+		}
+	}
+}
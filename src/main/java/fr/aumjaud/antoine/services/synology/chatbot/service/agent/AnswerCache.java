@@ -0,0 +1,88 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.agent;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Answers of the model by normalized prompt, the least recently used are evicted, and answers expire after a time
+ */
+public class AnswerCache {
+
+	private final int maxEntries;
+	private final long ttlMillis;
+	private final LongSupplier clock;
+	private final LinkedHashMap<String, Entry> entries;
+
+	/**
+	 * @param maxEntries the maximum number of answers kept (0 = disabled)
+	 * @param ttlMillis the time an answer is kept
+	 */
+	public AnswerCache(int maxEntries, long ttlMillis) {
+		this(maxEntries, ttlMillis, System::currentTimeMillis);
+	}
+
+	AnswerCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.clock = clock;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > AnswerCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @param prompt the prompt
+	 * @return the answer, null if not cached or expired
+	 */
+	public synchronized String get(String prompt) {
+		String key = normalize(prompt);
+		Entry entry = entries.get(key);
+		if (entry == null)
+			return null;
+		if (clock.getAsLong() - entry.createdAt > ttlMillis) {
+			entries.remove(key);
+			return null;
+		}
+		return entry.answer;
+	}
+
+	/**
+	 * @param prompt the prompt
+	 * @param answer the answer of the model
+	 */
+	public synchronized void put(String prompt, String answer) {
+		if (maxEntries > 0)
+			entries.put(normalize(prompt), new Entry(answer, clock.getAsLong()));
+	}
+
+	/**
+	 * @return the number of answers kept (expired included)
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Normalize a prompt: lower case, spaces collapsed, final punctuation removed
+	 */
+	static String normalize(String prompt) {
+		return prompt.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ").replaceAll("[\\s?!.]+$", "");
+	}
+
+	private static class Entry {
+		private final String answer;
+		private final long createdAt;
+
+		Entry(String answer, long createdAt) {
+			this.answer = answer;
+			this.createdAt = createdAt;
+		}
+	}
+}
@@ -0,0 +1,356 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.conversation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Conversations kept in memory within a budget: each message is one byte array (UTF-8, deflated when long),
+ * the least recently used channels are evicted when the budget is exceeded, and the store is saved
+ * periodically (and at shutdown) in a snapshot file, loaded again at startup.
+ * Entry format: [byte flags][byte role length][role][long timestamp][content, UTF-8 or deflated UTF-8]
+ * Snapshot format: [int magic][byte version][int channels] then per channel [utf id][int entries] then per entry [int length][entry]
+ */
+public class CompactConversationStore implements ConversationStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(CompactConversationStore.class);
+
+	private static final int MAGIC = 0x434F4E56; // CONV
+	private static final byte VERSION = 1;
+	private static final byte DEFLATED = 1;
+	private static final int DEFLATE_THRESHOLD = 256;
+	private static final int ENTRY_OVERHEAD = 24; // array header and reference
+	private static final int CHANNEL_OVERHEAD = 96; // map entry, deque and id
+
+	private final LinkedHashMap<String, Channel> channels = new LinkedHashMap<>(16, 0.75f, true);
+	private final Object snapshotLock = new Object();
+	private long usedBytes;
+	private boolean dirty;
+
+	private volatile long budgetBytes = 1024 * 1024;
+	private volatile int maxMessages = 50;
+	private Path snapshotFile;
+	private ScheduledExecutorService snapshots;
+
+	/**
+	 * Set config, the snapshot is loaded on first call
+	 * @param properties the config to set
+	 */
+	@Override
+	public synchronized void setConfig(Properties properties) {
+		Settings settings = new Settings(properties);
+		budgetBytes = settings.budgetBytes;
+		maxMessages = settings.maxMessages;
+		String file = properties.getProperty("conversation.snapshot-file", "");
+		if (snapshotFile == null && !file.isEmpty()) {
+			snapshotFile = Paths.get(file);
+			load();
+			long intervalMillis = settings.snapshotIntervalMillis;
+			snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "conversation-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+			snapshots.scheduleWithFixedDelay(this::snapshot, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+		evict();
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	@Override
+	public void checkConfig(Properties properties) {
+		new Settings(properties);
+	}
+
+	@Override
+	public synchronized List<ConversationMessage> history(String channelId) {
+		Channel channel = channels.get(channelId);
+		List<ConversationMessage> messages = new ArrayList<>();
+		if (channel != null) {
+			for (byte[] entry : channel.entries) {
+				messages.add(decode(entry));
+			}
+		}
+		return messages;
+	}
+
+	@Override
+	public synchronized void append(String channelId, ConversationMessage message) {
+		Channel channel = channels.get(channelId);
+		if (channel == null) {
+			channel = new Channel();
+			channels.put(channelId, channel);
+			usedBytes += CHANNEL_OVERHEAD + 2L * channelId.length();
+		}
+		byte[] entry = encode(message);
+		channel.entries.addLast(entry);
+		usedBytes += size(entry);
+		while (channel.entries.size() > maxMessages) {
+			usedBytes -= size(channel.entries.removeFirst());
+		}
+		dirty = true;
+		evict();
+	}
+
+	@Override
+	public synchronized void clear(String channelId) {
+		Channel channel = channels.remove(channelId);
+		if (channel != null) {
+			usedBytes -= size(channelId, channel);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Stop the periodic snapshots and save the store a last time
+	 */
+	@Override
+	public void shutdown() {
+		ScheduledExecutorService current;
+		synchronized (this) {
+			current = snapshots;
+		}
+		if (current != null) {
+			current.shutdownNow();
+			snapshot();
+		}
+	}
+
+	/**
+	 * @return the estimated memory used by the messages, in bytes
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * @return the number of channels kept
+	 */
+	public synchronized int getChannelCount() {
+		return channels.size();
+	}
+
+	/**
+	 * Save the store in the snapshot file, if changed since the last snapshot
+	 */
+	public void snapshot() {
+		synchronized (snapshotLock) {
+			writeSnapshot();
+		}
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private void writeSnapshot() {
+		Map<String, List<byte[]>> copy = new LinkedHashMap<>();
+		Path file;
+		synchronized (this) {
+			if (!dirty || snapshotFile == null)
+				return;
+			for (Map.Entry<String, Channel> channel : channels.entrySet()) {
+				copy.put(channel.getKey(), new ArrayList<>(channel.getValue().entries)); // entries are never modified
+			}
+			file = snapshotFile;
+			dirty = false;
+		}
+		try {
+			Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 64 * 1024))) {
+				out.writeInt(MAGIC);
+				out.writeByte(VERSION);
+				out.writeInt(copy.size());
+				for (Map.Entry<String, List<byte[]>> channel : copy.entrySet()) {
+					out.writeUTF(channel.getKey());
+					out.writeInt(channel.getValue().size());
+					for (byte[] entry : channel.getValue()) {
+						out.writeInt(entry.length);
+						out.write(entry);
+					}
+				}
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			logger.debug("Conversations saved in {} ({} channels)", file, copy.size());
+		} catch (IOException e) {
+			synchronized (this) {
+				dirty = true;
+			}
+			logger.error("Can't save conversations in {}: {}", file, e.getMessage());
+		}
+	}
+
+	private void load() {
+		if (!Files.exists(snapshotFile))
+			return;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile), 64 * 1024))) {
+			if (in.readInt() != MAGIC || in.readByte() != VERSION)
+				throw new IOException("not a conversation snapshot (or unknown version)");
+			int channelCount = in.readInt();
+			for (int i = 0; i < channelCount; i++) {
+				String channelId = in.readUTF();
+				Channel channel = new Channel();
+				int entryCount = in.readInt();
+				for (int j = 0; j < entryCount; j++) {
+					byte[] entry = new byte[in.readInt()];
+					in.readFully(entry);
+					channel.entries.addLast(entry);
+				}
+				channels.put(channelId, channel);
+				usedBytes += size(channelId, channel);
+			}
+			logger.info("{} conversations loaded from {}", channels.size(), snapshotFile);
+		} catch (IOException e) {
+			channels.clear();
+			usedBytes = 0;
+			logger.error("Conversation snapshot {} can't be read, starting empty: {}", snapshotFile, e.getMessage());
+		}
+	}
+
+	/**
+	 * Remove the least recently used channels until the budget is respected,
+	 * the oldest messages of the last channel if it is alone over the budget
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Channel>> eldest = channels.entrySet().iterator();
+		while (usedBytes > budgetBytes && channels.size() > 1) {
+			Map.Entry<String, Channel> channel = eldest.next();
+			usedBytes -= size(channel.getKey(), channel.getValue());
+			eldest.remove();
+			dirty = true;
+		}
+		if (usedBytes > budgetBytes && eldest.hasNext()) {
+			Deque<byte[]> entries = eldest.next().getValue().entries;
+			while (usedBytes > budgetBytes && entries.size() > 1) {
+				usedBytes -= size(entries.removeFirst());
+			}
+		}
+	}
+
+	private static long size(byte[] entry) {
+		return ENTRY_OVERHEAD + entry.length;
+	}
+
+	private static long size(String channelId, Channel channel) {
+		long size = CHANNEL_OVERHEAD + 2L * channelId.length();
+		for (byte[] entry : channel.entries) {
+			size += size(entry);
+		}
+		return size;
+	}
+
+	static byte[] encode(ConversationMessage message) {
+		byte[] role = message.getRole().getBytes(StandardCharsets.UTF_8);
+		byte[] content = message.getContent().getBytes(StandardCharsets.UTF_8);
+		byte flags = 0;
+		if (content.length > DEFLATE_THRESHOLD) {
+			byte[] deflated = deflate(content);
+			if (deflated.length < content.length) {
+				content = deflated;
+				flags = DEFLATED;
+			}
+		}
+		ByteBuffer entry = ByteBuffer.allocate(2 + role.length + 8 + content.length);
+		entry.put(flags).put((byte) role.length).put(role).putLong(message.getTimestamp()).put(content);
+		return entry.array();
+	}
+
+	static ConversationMessage decode(byte[] entry) {
+		ByteBuffer buffer = ByteBuffer.wrap(entry);
+		byte flags = buffer.get();
+		byte[] role = new byte[buffer.get()];
+		buffer.get(role);
+		long timestamp = buffer.getLong();
+		byte[] content = new byte[buffer.remaining()];
+		buffer.get(content);
+		if (flags == DEFLATED)
+			content = inflate(content);
+		return new ConversationMessage(new String(role, StandardCharsets.UTF_8), new String(content, StandardCharsets.UTF_8), timestamp);
+	}
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+			byte[] buffer = new byte[1024];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] data) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+			byte[] buffer = new byte[1024];
+			while (!inflater.finished()) {
+				int read = inflater.inflate(buffer);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Corrupted conversation message", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * The messages of a channel, oldest first
+	 */
+	private static class Channel {
+		private final Deque<byte[]> entries = new ArrayDeque<>();
+	}
+
+
+	private static class Settings {
+		private final long budgetBytes;
+		private final int maxMessages;
+		private final long snapshotIntervalMillis;
+
+		private Settings(Properties properties) {
+			budgetBytes = Long.parseLong(properties.getProperty("conversation.memory-budget-bytes", "1048576"));
+			maxMessages = Integer.parseInt(properties.getProperty("conversation.max-messages-per-channel", "50"));
+			snapshotIntervalMillis = Long.parseLong(properties.getProperty("conversation.snapshot-interval-ms", "60000"));
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.conversation;
+
+/**
+ * A message of a conversation
+ */
+public class ConversationMessage {
+
+	private final String role;
+	private final String content;
+	private final long timestamp;
+
+	/**
+	 * @param role user or assistant
+	 * @param content the text of the message
+	 * @param timestamp the time of the message, in milliseconds
+	 */
+	public ConversationMessage(String role, String content, long timestamp) {
+		this.role = role;
+		this.content = content;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return user or assistant
+	 */
+	public String getRole() {
+		return role;
+	}
+
+	public String getContent() {
+		return content;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+}
@@ -0,0 +1,48 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.conversation;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * History of the conversations, by channel, for the skills answering in several messages
+ */
+public interface ConversationStore {
+
+	/**
+	 * Set config
+	 * @param properties the config to set
+	 */
+	void setConfig(Properties properties);
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	default void checkConfig(Properties properties) {
+	}
+
+	/**
+	 * @param channelId the channel
+	 * @return the messages of the channel, oldest first (empty if none)
+	 */
+	List<ConversationMessage> history(String channelId);
+
+	/**
+	 * Add a message to the history of a channel
+	 * @param channelId the channel
+	 * @param message the message
+	 */
+	void append(String channelId, ConversationMessage message);
+
+	/**
+	 * Forget the history of a channel
+	 * @param channelId the channel
+	 */
+	void clear(String channelId);
+
+	/**
+	 * Save the histories (if persistent) before the JVM exits
+	 */
+	void shutdown();
+}
@@ -0,0 +1,208 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors;
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors.TaskType;
+
+/**
+ * Bounded in-memory queue of messages to send to the chat, drained by delivery workers.
+ * Used when the async delivery mode is enabled: the caller gets an id immediately
+ * and can look up the delivery status later. Workers only dispatch the messages, they are sent
+ * by DELIVERY tasks.
+ */
+public class DeliveryQueue {
+
+	private static final Logger logger = LoggerFactory.getLogger(DeliveryQueue.class);
+
+	public enum Status { QUEUED, SENT, ERROR }
+
+	private final MessageSender messageSender;
+	private final TaskExecutors taskExecutors;
+
+	private final Map<String, Status> statuses = new ConcurrentHashMap<>();
+	private final Queue<String> statusIds = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger statusCount = new AtomicInteger();
+
+	private volatile Settings settings = new Settings(new Properties());
+	private BlockingQueue<Delivery> queue;
+	private Semaphore inFlight;
+
+	public DeliveryQueue(MessageSender messageSender) {
+		this(messageSender, new TaskExecutors());
+	}
+
+	public DeliveryQueue(MessageSender messageSender, TaskExecutors taskExecutors) {
+		this.messageSender = messageSender;
+		this.taskExecutors = taskExecutors;
+	}
+
+	/**
+	 * Set config, workers are started on first call
+	 * @param properties the config to set
+	 */
+	public synchronized void setConfig(Properties properties) {
+		Settings newSettings = new Settings(properties);
+		settings = newSettings;
+		if (queue == null) {
+			queue = new ArrayBlockingQueue<>(newSettings.capacity);
+			inFlight = new Semaphore(Math.max(newSettings.workers, newSettings.maxInFlight));
+			ThreadFactory threadFactory = taskExecutors.threadFactory("delivery-worker");
+			for (int i = 0; i < newSettings.workers; i++) {
+				threadFactory.newThread(this::deliver).start();
+			}
+			logger.info("Delivery queue started with capacity {} and {} workers", newSettings.capacity, newSettings.workers);
+		}
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		new Settings(properties);
+	}
+
+	/**
+	 * @return true if messages have to be sent asynchronously
+	 */
+	public boolean isEnabled() {
+		return settings.enabled;
+	}
+
+	/**
+	 * Queue a message
+	 * @param userName the name of the user
+	 * @param message the message to send
+	 * @param url the url to a file added with the message
+	 * @return the id of the queued message, null if the queue is full
+	 */
+	public String submit(String userName, String message, String url) {
+		return submit(userName, message, url, null);
+	}
+
+	/**
+	 * Queue a message already encoded for the chat
+	 * @param userName the name of the user
+	 * @param message the message to send
+	 * @param url the url to a file added with the message
+	 * @param formBody the body of the chat post of the message and url (null = encoded on send)
+	 * @return the id of the queued message, null if the queue is full
+	 */
+	public String submit(String userName, String message, String url, String formBody) {
+		String id = UUID.randomUUID().toString();
+		statuses.put(id, Status.QUEUED); // before the offer, a worker can deliver it at once
+		if (!queue.offer(new Delivery(id, userName, message, url, formBody))) {
+			statuses.remove(id);
+			logger.warn("Delivery queue is full, message to user {} rejected", userName);
+			return null;
+		}
+		keepStatus(id);
+		return id;
+	}
+
+	/**
+	 * Get the status of a queued message
+	 * @param id the id returned when the message was queued
+	 * @return the status, null if unknown (or too old)
+	 */
+	public Status getStatus(String id) {
+		return statuses.get(id);
+	}
+
+	/**
+	 * @return the number of messages waiting for a worker
+	 */
+	public int size() {
+		return queue == null ? 0 : queue.size();
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private void deliver() {
+		while (!Thread.currentThread().isInterrupted()) {
+			Delivery delivery;
+			try {
+				// the sender can complete later (coalescing), bound the messages it holds
+				// and keep the others in the queue
+				inFlight.acquire();
+				delivery = queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			taskExecutors.supplyAsync(TaskType.DELIVERY, () -> messageSender.sendAsync(delivery.userName, delivery.message, delivery.url, delivery.formBody))
+					.thenCompose(future -> future)
+					.whenComplete((sent, e) -> {
+						if (e != null) {
+							logger.error("Error while delivering message {} to user {}: {}", delivery.id, delivery.userName, e.getMessage());
+						}
+						statuses.replace(delivery.id, e == null && sent ? Status.SENT : Status.ERROR);
+						inFlight.release();
+					});
+		}
+	}
+
+	/**
+	 * Keep the status of an accepted message, forget the oldest ones
+	 */
+	private void keepStatus(String id) {
+		statusIds.add(id);
+		// forget the oldest statuses
+		if (statusCount.incrementAndGet() > settings.maxStatuses) {
+			String oldest = statusIds.poll();
+			if (oldest != null) {
+				statuses.remove(oldest);
+				statusCount.decrementAndGet();
+			}
+		}
+	}
+
+	private static class Delivery {
+		private final String id;
+		private final String userName;
+		private final String message;
+		private final String url;
+		private final String formBody;
+
+		private Delivery(String id, String userName, String message, String url, String formBody) {
+			this.id = id;
+			this.userName = userName;
+			this.message = message;
+			this.url = url;
+			this.formBody = formBody;
+		}
+	}
+
+	private static class Settings {
+		private final boolean enabled;
+		private final int maxStatuses;
+		private final int capacity; // the queue is built once
+		private final int workers;
+		private final int maxInFlight;
+
+		private Settings(Properties properties) {
+			enabled = Boolean.parseBoolean(properties.getProperty("delivery.async.enabled", "false"));
+			maxStatuses = Integer.parseInt(properties.getProperty("delivery.status.max-entries", "10000"));
+			capacity = Integer.parseInt(properties.getProperty("delivery.queue.capacity", "1000"));
+			workers = Integer.parseInt(properties.getProperty("delivery.workers", "2"));
+			maxInFlight = Integer.parseInt(properties.getProperty("delivery.max-in-flight", "100"));
+		}
+	}
+}
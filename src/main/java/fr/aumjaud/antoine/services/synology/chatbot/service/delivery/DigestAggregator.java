@@ -0,0 +1,214 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Counter;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.MetricsRegistry;
+
+/**
+ * Summary of the success notifications (CI builds, workflows): the successes sent to a target during a window
+ * are counted by kind and by repository and branch, then posted in one message
+ * ("✅ 12 workflows succeeded on 4 repos: ..."). Only counters are kept, not the notifications,
+ * and the number of repository/branch counters of a target is bounded (the others are counted together).
+ * A success alone in its window is posted as is.
+ */
+public class DigestAggregator {
+
+	private static final Logger logger = LoggerFactory.getLogger(DigestAggregator.class);
+	private static final Counter DIGESTED = MetricsRegistry.DEFAULT.counter("chatbot_digested_notifications_total",
+			"Success notifications held for a digest instead of being posted");
+
+	private final MessageSender messageSender;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "digest");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Map<String, Digest> digests = new LinkedHashMap<>();
+	private boolean closed; // guarded by digests
+
+	private volatile Settings settings = new Settings(new Properties());
+
+	/**
+	 * @param messageSender the sender of the digests
+	 */
+	public DigestAggregator(MessageSender messageSender) {
+		this.messageSender = messageSender;
+	}
+
+	/**
+	 * Set config
+	 * @param properties the config to set
+	 */
+	public void setConfig(Properties properties) {
+		settings = new Settings(properties);
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		new Settings(properties);
+	}
+
+	/**
+	 * @return true if successes are summarized
+	 */
+	public boolean isEnabled() {
+		return settings.windowMillis > 0;
+	}
+
+	/**
+	 * Count a success notification in the digest of its target, the digest is posted at the end of the window
+	 * (after shutdown, the notification is posted as is)
+	 * @param target the user notified
+	 * @param kind the kind of success, ie: "workflow" (plural with a final "s")
+	 * @param repository the repository
+	 * @param branch the branch, can be null
+	 * @param message the notification, posted as is if it is alone in its window
+	 */
+	public void add(String target, String kind, String repository, String branch, String message) {
+		synchronized (digests) {
+			if (!closed) {
+				Settings current = settings;
+				Digest digest = digests.get(target);
+				if (digest == null) {
+					digest = new Digest(message);
+					digests.put(target, digest);
+					scheduler.schedule(() -> flush(target, false), current.windowMillis, TimeUnit.MILLISECONDS);
+				}
+				digest.add(kind, branch != null ? repository + " (" + branch + ")" : repository, repository, current.maxEntries);
+				DIGESTED.increment();
+				return;
+			}
+		}
+		send(target, message, false); // no more window after shutdown
+	}
+
+	/**
+	 * Post the digests not posted yet, and wait for them
+	 */
+	public void shutdown() {
+		List<String> targets;
+		synchronized (digests) {
+			closed = true;
+			targets = new ArrayList<>(digests.keySet());
+		}
+		scheduler.shutdownNow();
+		for (String target : targets) {
+			flush(target, true);
+		}
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private void flush(String target, boolean wait) {
+		Digest digest;
+		synchronized (digests) {
+			digest = digests.remove(target);
+		}
+		if (digest == null)
+			return;
+		send(target, digest.summary(), wait);
+	}
+
+	private void send(String target, String message, boolean wait) {
+		try {
+			CompletableFuture<Boolean> sending = messageSender.sendAsync(target, message, null).whenComplete((sent, e) -> {
+				if (e != null || !Boolean.TRUE.equals(sent))
+					logger.error("Digest of {} not sent: {}", target, message);
+			});
+			if (wait)
+				sending.join();
+		} catch (RuntimeException e) {
+			logger.error("Can't send digest of {}: {}", target, e.getMessage());
+		}
+	}
+
+	private static class Settings {
+		private final long windowMillis;
+		private final int maxEntries;
+
+		private Settings(Properties properties) {
+			windowMillis = Long.parseLong(properties.getProperty("digest.window-ms", "0"));
+			maxEntries = Integer.parseInt(properties.getProperty("digest.max-entries-per-target", "50"));
+		}
+	}
+
+	/**
+	 * Counters of the successes of a target during a window
+	 */
+	private static class Digest {
+		private final String firstMessage;
+		private final Map<String, int[]> byKind = new TreeMap<>();
+		private final Map<String, int[]> byEntry = new LinkedHashMap<>(); // "repository (branch)"
+		private final Set<String> repositories = new HashSet<>();
+		private int others;
+		private int total;
+
+		Digest(String firstMessage) {
+			this.firstMessage = firstMessage;
+		}
+
+		void add(String kind, String entry, String repository, int maxEntries) {
+			total++;
+			byKind.computeIfAbsent(kind, key -> new int[1])[0]++;
+			int[] count = byEntry.get(entry);
+			if (count == null && byEntry.size() >= maxEntries) {
+				others++;
+				return;
+			}
+			if (count == null) {
+				count = new int[1];
+				byEntry.put(entry, count);
+				repositories.add(repository);
+			}
+			count[0]++;
+		}
+
+		String summary() {
+			if (total == 1)
+				return firstMessage;
+			List<String> kinds = new ArrayList<>();
+			for (Map.Entry<String, int[]> kind : byKind.entrySet()) {
+				int count = kind.getValue()[0];
+				kinds.add(count + " " + kind.getKey() + (count > 1 ? "s" : ""));
+			}
+			StringBuilder summary = new StringBuilder("✅ ");
+			summary.append(String.join(", ", kinds.subList(0, kinds.size() - 1)));
+			if (kinds.size() > 1)
+				summary.append(" and ");
+			summary.append(kinds.get(kinds.size() - 1));
+			summary.append(" succeeded on ").append(repositories.size()).append(repositories.size() > 1 ? " repos" : " repo");
+			if (others > 0)
+				summary.append(" and more");
+			summary.append(':');
+			for (Map.Entry<String, int[]> entry : byEntry.entrySet()) {
+				summary.append("\n- ").append(entry.getKey());
+				if (entry.getValue()[0] > 1)
+					summary.append(" x").append(entry.getValue()[0]);
+			}
+			if (others > 0)
+				summary.append("\n- ").append(others).append(" more");
+			return summary.toString();
+		}
+	}
+}
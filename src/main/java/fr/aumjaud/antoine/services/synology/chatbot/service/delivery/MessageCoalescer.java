@@ -0,0 +1,264 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors;
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors.TaskType;
+
+/**
+ * Merge the messages sent to the same user during a time window in a single chat post,
+ * and pace the posts of each user with a token bucket (Synology Chat throttles bursts).
+ * Messages with a file URL are never merged. The asynchronous sends always go through the lane of their user,
+ * so they are posted by DELIVERY tasks, in order, even when merging and pacing are disabled.
+ */
+public class MessageCoalescer implements MessageSender {
+
+	private static final Logger logger = LoggerFactory.getLogger(MessageCoalescer.class);
+
+	private final MessageSender messageSender;
+	private final TaskExecutors taskExecutors;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(daemon("message-coalescer"));
+	private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+	private volatile Settings settings = new Settings(new Properties());
+
+	public MessageCoalescer(MessageSender messageSender) {
+		this(messageSender, new TaskExecutors());
+	}
+
+	public MessageCoalescer(MessageSender messageSender, TaskExecutors taskExecutors) {
+		this.messageSender = messageSender;
+		this.taskExecutors = taskExecutors;
+	}
+
+	/**
+	 * Set config
+	 * @param properties the config to set
+	 */
+	public void setConfig(Properties properties) {
+		settings = new Settings(properties);
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		new Settings(properties);
+	}
+
+	@Override
+	public boolean send(String userName, String message, String url) {
+		return send(userName, message, url, null);
+	}
+
+	@Override
+	public boolean send(String userName, String message, String url, String formBody) {
+		if (!settings.isEnabled()) {
+			return messageSender.send(userName, message, url, formBody);
+		}
+		try {
+			return sendAsync(userName, message, url, formBody).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+
+	@Override
+	public CompletableFuture<Boolean> sendAsync(String userName, String message, String url) {
+		return sendAsync(userName, message, url, null);
+	}
+
+	@Override
+	public CompletableFuture<Boolean> sendAsync(String userName, String message, String url, String formBody) {
+		CompletableFuture<Boolean> future = new CompletableFuture<>();
+		lanes.computeIfAbsent(userName, Lane::new).add(message, url, formBody, future);
+		return future;
+	}
+
+	/**
+	 * Take a token of the rate limit of a user, for the posts not sent by this coalescer (outbox retries)
+	 * @param userName the name of the user
+	 * @return 0 if a token has been taken, else the time to wait (in ms) before a token is available
+	 */
+	public long acquireToken(String userName) {
+		if (settings.ratePerMinute <= 0)
+			return 0;
+		return lanes.computeIfAbsent(userName, Lane::new).acquireToken();
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private static ThreadFactory daemon(String name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Posts waiting to be sent to one user
+	 */
+	private class Lane {
+		private final String userName;
+		private final Deque<Post> ready = new ArrayDeque<>();
+		private Post openBatch;
+		private boolean busy; // a post is being sent, or a wait for a token is scheduled
+		private Settings bucketSettings;
+		private TokenBucket bucket;
+
+		private Lane(String userName) {
+			this.userName = userName;
+		}
+
+		private synchronized void add(String message, String url, String formBody, CompletableFuture<Boolean> future) {
+			Settings current = settings;
+			if (url == null && current.windowMillis > 0) {
+				if (openBatch == null) {
+					Post batch = new Post(null);
+					openBatch = batch;
+					scheduler.schedule(() -> closeBatch(batch), current.windowMillis, TimeUnit.MILLISECONDS);
+				}
+				openBatch.add(message, formBody, future);
+				if (openBatch.size() >= current.maxMessages) {
+					closeBatch(openBatch);
+				}
+			} else {
+				closeBatch(openBatch); // keep message order
+				Post post = new Post(url);
+				post.add(message, formBody, future);
+				ready.add(post);
+				drain();
+			}
+		}
+
+		private synchronized void closeBatch(Post batch) {
+			if (batch == null || batch != openBatch)
+				return;
+			openBatch = null;
+			ready.add(batch);
+			drain();
+		}
+
+		private synchronized void drain() {
+			if (busy || ready.isEmpty())
+				return;
+
+			long waitMillis = acquireToken();
+			busy = true;
+			if (waitMillis > 0) {
+				scheduler.schedule(this::release, waitMillis, TimeUnit.MILLISECONDS);
+				return;
+			}
+			Post post = ready.poll();
+			taskExecutors.supplyAsync(TaskType.DELIVERY, () -> {
+				post.send(userName);
+				return null;
+			}).whenComplete((ignored, e) -> {
+				if (e != null) {
+					post.fail(e); // not sent (rejected or failed)
+				}
+				release();
+			});
+		}
+
+		private synchronized void release() {
+			busy = false;
+			drain();
+		}
+
+		private synchronized long acquireToken() {
+			Settings current = settings;
+			if (current.ratePerMinute <= 0)
+				return 0;
+			if (bucketSettings != current) {
+				bucket = new TokenBucket(current.ratePerMinute, current.burst);
+				bucketSettings = current;
+			}
+			return bucket.tryAcquire();
+		}
+	}
+
+	/**
+	 * One chat post, made of one or several messages
+	 */
+	private class Post {
+		private final String url;
+		private final List<String> messages = new ArrayList<>();
+		private final List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+		private String formBody; // of the first message, valid if it is alone
+
+		private Post(String url) {
+			this.url = url;
+		}
+
+		private void add(String message, String messageFormBody, CompletableFuture<Boolean> future) {
+			if (messages.isEmpty())
+				formBody = messageFormBody;
+			messages.add(message);
+			futures.add(future);
+		}
+
+		private int size() {
+			return messages.size();
+		}
+
+		private void fail(Throwable e) {
+			futures.forEach(future -> future.completeExceptionally(e));
+		}
+
+		private void send(String userName) {
+			if (messages.size() > 1) {
+				logger.debug("{} messages merged in one post for user {}", messages.size(), userName);
+			}
+			try {
+				boolean sent = messages.size() == 1
+						? messageSender.send(userName, messages.get(0), url, formBody)
+						: messageSender.send(userName, String.join("\n", messages), url);
+				futures.forEach(future -> future.complete(sent));
+			} catch (RuntimeException e) {
+				logger.error("Error while sending messages to user {}: {}", userName, e.getMessage());
+				futures.forEach(future -> future.completeExceptionally(e));
+			}
+		}
+	}
+
+	private static class Settings {
+		private final long windowMillis;
+		private final int maxMessages;
+		private final double ratePerMinute;
+		private final int burst;
+
+		private Settings(Properties properties) {
+			windowMillis = Long.parseLong(properties.getProperty("delivery.coalesce.window-ms", "0"));
+			maxMessages = Integer.parseInt(properties.getProperty("delivery.coalesce.max-messages", "20"));
+			ratePerMinute = Double.parseDouble(properties.getProperty("delivery.rate.per-minute", "0"));
+			burst = Integer.parseInt(properties.getProperty("delivery.rate.burst", "5"));
+		}
+
+		private boolean isEnabled() {
+			return windowMillis > 0 || ratePerMinute > 0;
+		}
+	}
+}
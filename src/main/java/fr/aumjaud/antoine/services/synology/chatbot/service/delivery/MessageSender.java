@@ -0,0 +1,55 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Delivery of a message to a chat user
+ */
+@FunctionalInterface
+public interface MessageSender {
+
+	/**
+	 * Send a message to a user
+	 * @param userName the name of the user
+	 * @param message the message to send
+	 * @param url the url to a file added with the message (can be null)
+	 * @return true if message sent
+	 */
+	boolean send(String userName, String message, String url);
+
+	/**
+	 * Send a message to a user without waiting for the delivery (the default implementation sends on the caller thread)
+	 * @param userName the name of the user
+	 * @param message the message to send
+	 * @param url the url to a file added with the message (can be null)
+	 * @return the future delivery result, true if message sent
+	 */
+	default CompletableFuture<Boolean> sendAsync(String userName, String message, String url) {
+		return CompletableFuture.completedFuture(send(userName, message, url));
+	}
+
+	/**
+	 * Send a message already encoded for the chat, ie: the same message sent to several users
+	 * @param userName the name of the user
+	 * @param message the message to send
+	 * @param url the url to a file added with the message (can be null)
+	 * @param formBody the body of the chat post of the message and url (null = encoded on send)
+	 * @return true if message sent
+	 */
+	default boolean send(String userName, String message, String url, String formBody) {
+		return send(userName, message, url);
+	}
+
+	/**
+	 * Send a message already encoded for the chat without waiting for the delivery (the default implementation
+	 * sends on the caller thread)
+	 * @param userName the name of the user
+	 * @param message the message to send
+	 * @param url the url to a file added with the message (can be null)
+	 * @param formBody the body of the chat post of the message and url (null = encoded on send)
+	 * @return the future delivery result, true if message sent
+	 */
+	default CompletableFuture<Boolean> sendAsync(String userName, String message, String url, String formBody) {
+		return CompletableFuture.completedFuture(send(userName, message, url, formBody));
+	}
+}
@@ -0,0 +1,254 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable outbox of the messages not yet delivered to the chat.
+ * Entries are appended to a memory-mapped segment file, an acknowledge record is appended
+ * once delivered. When the segment is full (or has no more pending entry), the pending
+ * entries are rewritten in a new segment and the old one is deleted.
+ * Record format: [int length][byte type][long id][payload], a length of 0 ends the segment.
+ */
+public class Outbox {
+
+	private static final Logger logger = LoggerFactory.getLogger(Outbox.class);
+
+	private static final byte TYPE_ADD = 1;
+	private static final byte TYPE_ACK = 2;
+	private static final int HEADER_SIZE = Integer.BYTES + Byte.BYTES + Long.BYTES;
+	private static final String SEGMENT_PREFIX = "outbox-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private final Path directory;
+	private final int segmentSize;
+	private final Map<Long, OutboxEntry> pending = new LinkedHashMap<>();
+
+	private long nextId = 1;
+	private long segmentSequence;
+	private MappedByteBuffer segment;
+	private boolean dirty;
+
+	/**
+	 * Open the outbox and load the entries not yet delivered
+	 * @param directory the directory of the segment files
+	 * @param segmentSize the size of a segment file
+	 */
+	public Outbox(Path directory, int segmentSize) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		try {
+			Files.createDirectories(directory);
+			List<Path> segments = listSegments();
+			for (Path path : segments) {
+				load(path);
+				segmentSequence = Math.max(segmentSequence, sequenceOf(path));
+			}
+			compact(Math.max(segmentSize, 2 * liveSize() + Integer.BYTES)); // the segment can have grown over segmentSize
+			logger.info("Outbox opened in {} with {} pending messages", directory, pending.size());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can't open outbox in " + directory, e);
+		}
+	}
+
+	/**
+	 * Add a message to the outbox
+	 * @param userName the name of the user
+	 * @param message the message to send
+	 * @param url the url to a file added with the message (can be null)
+	 * @return the entry added
+	 */
+	public synchronized OutboxEntry append(String userName, String message, String url) {
+		OutboxEntry entry = new OutboxEntry(nextId++, userName, message, url);
+		byte[] payload = encode(entry);
+		ensureCapacity(HEADER_SIZE + payload.length);
+		writeRecord(TYPE_ADD, entry.getId(), payload);
+		pending.put(entry.getId(), entry);
+		return entry;
+	}
+
+	/**
+	 * Acknowledge a delivered (or dropped) message
+	 * @param id the id of the entry
+	 */
+	public synchronized void ack(long id) {
+		if (pending.remove(id) == null)
+			return;
+		if (pending.isEmpty() && segment.position() > segmentSize / 2) {
+			// nothing to keep, start a fresh segment
+			compact(segmentSize);
+			return;
+		}
+		ensureCapacity(HEADER_SIZE);
+		writeRecord(TYPE_ACK, id, new byte[0]);
+	}
+
+	/**
+	 * @return the entries not yet acknowledged, in append order
+	 */
+	public synchronized List<OutboxEntry> getPending() {
+		return new ArrayList<>(pending.values());
+	}
+
+	/**
+	 * Flush appended records to disk, called periodically to batch the fsync.
+	 * The fsync runs outside of the lock, appends are not blocked by it.
+	 */
+	public void flush() {
+		MappedByteBuffer toForce;
+		synchronized (this) {
+			if (!dirty)
+				return;
+			toForce = segment;
+			dirty = false;
+		}
+		try {
+			toForce.force();
+		} catch (UncheckedIOException e) {
+			synchronized (this) {
+				dirty = true;
+			}
+			throw e;
+		}
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private void ensureCapacity(int recordSize) {
+		// keep room for the end marker
+		if (segment.remaining() < recordSize + Integer.BYTES) {
+			compact(Math.max(segmentSize, 2 * (liveSize() + recordSize) + Integer.BYTES));
+		}
+	}
+
+	/**
+	 * @return the size of the records of the pending entries
+	 */
+	private int liveSize() {
+		int liveSize = 0;
+		for (OutboxEntry entry : pending.values()) {
+			liveSize += HEADER_SIZE + encode(entry).length;
+		}
+		return liveSize;
+	}
+
+	/**
+	 * Rewrite pending entries in a new segment and delete the previous ones
+	 * @param size the size of the new segment
+	 */
+	private void compact(int size) {
+		try {
+			List<Path> previousSegments = listSegments();
+			Path segmentPath = directory.resolve(SEGMENT_PREFIX + (++segmentSequence) + SEGMENT_SUFFIX);
+			try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			}
+			for (OutboxEntry entry : pending.values()) {
+				writeRecord(TYPE_ADD, entry.getId(), encode(entry));
+			}
+			segment.force();
+			dirty = false;
+			for (Path previous : previousSegments) {
+				Files.deleteIfExists(previous);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can't create outbox segment in " + directory, e);
+		}
+	}
+
+	private void writeRecord(byte type, long id, byte[] payload) {
+		segment.putInt(HEADER_SIZE + payload.length);
+		segment.put(type);
+		segment.putLong(id);
+		segment.put(payload);
+		dirty = true;
+	}
+
+	private void load(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			while (buffer.remaining() >= HEADER_SIZE) {
+				int length = buffer.getInt();
+				if (length < HEADER_SIZE || length - Integer.BYTES > buffer.remaining())
+					break; // end of segment (or record partially written)
+				byte type = buffer.get();
+				long id = buffer.getLong();
+				byte[] payload = new byte[length - HEADER_SIZE];
+				buffer.get(payload);
+				if (type == TYPE_ADD) {
+					pending.put(id, decode(id, payload));
+				} else if (type == TYPE_ACK) {
+					pending.remove(id);
+				}
+				nextId = Math.max(nextId, id + 1);
+			}
+		} catch (BufferUnderflowException e) {
+			logger.warn("Outbox segment {} ends with a truncated record", path);
+		}
+	}
+
+	private List<Path> listSegments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			List<Path> segments = new ArrayList<>();
+			files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX) && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+					.sorted((a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)))
+					.forEach(segments::add);
+			return segments;
+		}
+	}
+
+	private static long sequenceOf(Path path) {
+		String name = path.getFileName().toString();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private static byte[] encode(OutboxEntry entry) {
+		byte[] userName = entry.getUserName().getBytes(StandardCharsets.UTF_8);
+		byte[] message = entry.getMessage().getBytes(StandardCharsets.UTF_8);
+		byte[] url = entry.getUrl() != null ? entry.getUrl().getBytes(StandardCharsets.UTF_8) : null;
+		ByteBuffer buffer = ByteBuffer.allocate(3 * Integer.BYTES + userName.length + message.length + (url != null ? url.length : 0));
+		buffer.putInt(userName.length).put(userName);
+		buffer.putInt(message.length).put(message);
+		if (url != null) {
+			buffer.putInt(url.length).put(url);
+		} else {
+			buffer.putInt(-1);
+		}
+		return buffer.array();
+	}
+
+	private static OutboxEntry decode(long id, byte[] payload) {
+		ByteBuffer buffer = ByteBuffer.wrap(payload);
+		String userName = readString(buffer);
+		String message = readString(buffer);
+		String url = readString(buffer);
+		return new OutboxEntry(id, userName, message, url);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,35 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+/**
+ * A message kept in the outbox until delivered
+ */
+public class OutboxEntry {
+
+	private final long id;
+	private final String userName;
+	private final String message;
+	private final String url;
+
+	public OutboxEntry(long id, String userName, String message, String url) {
+		this.id = id;
+		this.userName = userName;
+		this.message = message;
+		this.url = url;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+}
@@ -0,0 +1,210 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.aumjaud.antoine.services.common.security.WrongRequestException;
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors;
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors.TaskType;
+
+/**
+ * Keep messages in the outbox until they are delivered, and retry the failed ones
+ * with an exponential backoff and jitter. Pending messages are replayed when the outbox is opened.
+ * The scheduler only times the retries (and the periodic fsync): the retries are sent by DELIVERY tasks,
+ * once the rate limit of their user gives a token. The asynchronous sends are DELIVERY tasks too.
+ */
+public class OutboxSender implements MessageSender {
+
+	private static final Logger logger = LoggerFactory.getLogger(OutboxSender.class);
+
+	private final MessageSender messageSender;
+	private final TaskExecutors taskExecutors;
+	private final ToLongFunction<String> rateLimiter;
+	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+		Thread thread = new Thread(runnable, "outbox-retry");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private volatile Outbox outbox;
+	private volatile Settings settings = new Settings(new Properties());
+
+	public OutboxSender(MessageSender messageSender) {
+		this(messageSender, new TaskExecutors(), userName -> 0);
+	}
+
+	/**
+	 * @param messageSender the sender of the messages
+	 * @param taskExecutors the executors of the asynchronous sends and of the retries
+	 * @param rateLimiter take a token of a user: 0 if taken, else the time to wait in ms
+	 */
+	public OutboxSender(MessageSender messageSender, TaskExecutors taskExecutors, ToLongFunction<String> rateLimiter) {
+		this.messageSender = messageSender;
+		this.taskExecutors = taskExecutors;
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Set config, the outbox is opened (and replayed) on first call
+	 * @param properties the config to set
+	 */
+	public synchronized void setConfig(Properties properties) {
+		Settings newSettings = new Settings(properties);
+		settings = newSettings;
+
+		if (outbox == null && newSettings.directory != null && !newSettings.directory.isEmpty()) {
+			Outbox openedOutbox = new Outbox(Paths.get(newSettings.directory), newSettings.segmentSize);
+			scheduler.scheduleWithFixedDelay(openedOutbox::flush, newSettings.fsyncIntervalMillis, newSettings.fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+			outbox = openedOutbox;
+
+			// replay messages not delivered before last stop
+			for (OutboxEntry entry : openedOutbox.getPending()) {
+				dispatch(entry, 0);
+			}
+		}
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		new Settings(properties);
+	}
+
+	@Override
+	public boolean send(String userName, String message, String url) {
+		return send(userName, message, url, null);
+	}
+
+	@Override
+	public boolean send(String userName, String message, String url, String formBody) {
+		Outbox currentOutbox = outbox;
+		if (currentOutbox == null)
+			return messageSender.send(userName, message, url, formBody);
+
+		OutboxEntry entry = currentOutbox.append(userName, message, url);
+		boolean sent;
+		try {
+			sent = messageSender.send(userName, message, url, formBody);
+		} catch (WrongRequestException e) {
+			// configuration error, retrying won't help
+			currentOutbox.ack(entry.getId());
+			throw e;
+		} catch (RuntimeException e) {
+			logger.error("Error while sending message to user {}: {}", userName, e.getMessage());
+			sent = false;
+		}
+
+		if (sent) {
+			currentOutbox.ack(entry.getId());
+		} else {
+			scheduleRetry(entry, 1);
+		}
+		return sent;
+	}
+
+	@Override
+	public CompletableFuture<Boolean> sendAsync(String userName, String message, String url) {
+		return sendAsync(userName, message, url, null);
+	}
+
+	@Override
+	public CompletableFuture<Boolean> sendAsync(String userName, String message, String url, String formBody) {
+		return taskExecutors.supplyAsync(TaskType.DELIVERY, () -> send(userName, message, url, formBody));
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private void retry(OutboxEntry entry, int attempt) {
+		boolean sent;
+		try {
+			sent = messageSender.send(entry.getUserName(), entry.getMessage(), entry.getUrl());
+		} catch (WrongRequestException e) {
+			logger.error("Message {} to user {} dropped: {}", entry.getId(), entry.getUserName(), e.getMessage());
+			outbox.ack(entry.getId());
+			return;
+		} catch (RuntimeException e) {
+			logger.error("Error while sending message {} to user {}: {}", entry.getId(), entry.getUserName(), e.getMessage());
+			sent = false;
+		}
+
+		if (sent) {
+			logger.info("Message {} delivered to user {} after {} retries", entry.getId(), entry.getUserName(), attempt);
+			outbox.ack(entry.getId());
+		} else {
+			scheduleRetry(entry, attempt + 1);
+		}
+	}
+
+	private void scheduleRetry(OutboxEntry entry, int attempt) {
+		int maxAttempts = settings.maxAttempts;
+		if (maxAttempts > 0 && attempt > maxAttempts) {
+			logger.error("Message {} to user {} dropped after {} attempts", entry.getId(), entry.getUserName(), maxAttempts);
+			outbox.ack(entry.getId());
+			return;
+		}
+		long delay = retryDelay(attempt);
+		logger.warn("Message {} to user {} not sent, retry in {} ms", entry.getId(), entry.getUserName(), delay);
+		scheduler.schedule(() -> dispatch(entry, attempt), delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Send a retry by a DELIVERY task, when the rate limit of its user allows it
+	 */
+	private void dispatch(OutboxEntry entry, int attempt) {
+		long waitMillis = rateLimiter.applyAsLong(entry.getUserName());
+		if (waitMillis > 0) {
+			scheduler.schedule(() -> dispatch(entry, attempt), waitMillis, TimeUnit.MILLISECONDS);
+			return;
+		}
+		taskExecutors.supplyAsync(TaskType.DELIVERY, () -> {
+			retry(entry, attempt);
+			return null;
+		}).whenComplete((ignored, e) -> {
+			if (e != null)
+				scheduleRetry(entry, attempt + 1); // not run (executors replaced)
+		});
+	}
+
+	/**
+	 * Exponential backoff, half of it randomized (jitter)
+	 * @param attempt the number of the attempt (starting at 1)
+	 * @return the delay in ms
+	 */
+	long retryDelay(int attempt) {
+		Settings current = settings;
+		long delay = Math.min(current.maxDelayMillis, current.initialDelayMillis << Math.min(attempt - 1, 30));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	private static class Settings {
+		private final long initialDelayMillis;
+		private final long maxDelayMillis;
+		private final int maxAttempts;
+		private final String directory;
+		private final int segmentSize;
+		private final long fsyncIntervalMillis;
+
+		private Settings(Properties properties) {
+			initialDelayMillis = Long.parseLong(properties.getProperty("outbox.retry.initial-delay-ms", "1000"));
+			maxDelayMillis = Long.parseLong(properties.getProperty("outbox.retry.max-delay-ms", "300000"));
+			maxAttempts = Integer.parseInt(properties.getProperty("outbox.retry.max-attempts", "20"));
+			directory = properties.getProperty("outbox.dir");
+			segmentSize = Integer.parseInt(properties.getProperty("outbox.segment-size", String.valueOf(4 * 1024 * 1024)));
+			fsyncIntervalMillis = Long.parseLong(properties.getProperty("outbox.fsync-interval-ms", "200"));
+		}
+	}
+}
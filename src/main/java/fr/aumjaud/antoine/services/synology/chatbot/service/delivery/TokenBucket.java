@@ -0,0 +1,48 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket rate limiter
+ */
+public class TokenBucket {
+
+	private final double tokensPerNano;
+	private final double capacity;
+	private final LongSupplier nanoClock;
+
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * @param ratePerMinute the number of tokens added each minute
+	 * @param burst the maximum number of tokens available at once
+	 */
+	public TokenBucket(double ratePerMinute, int burst) {
+		this(ratePerMinute, burst, System::nanoTime);
+	}
+
+	TokenBucket(double ratePerMinute, int burst, LongSupplier nanoClock) {
+		this.tokensPerNano = ratePerMinute / TimeUnit.MINUTES.toNanos(1);
+		this.capacity = Math.max(1, burst);
+		this.nanoClock = nanoClock;
+		this.tokens = capacity;
+		this.lastRefill = nanoClock.getAsLong();
+	}
+
+	/**
+	 * Take a token if available
+	 * @return 0 if a token has been taken, else the time to wait (in ms) before a token is available
+	 */
+	public synchronized long tryAcquire() {
+		long now = nanoClock.getAsLong();
+		tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+		lastRefill = now;
+		if (tokens >= 1) {
+			tokens -= 1;
+			return 0;
+		}
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis((long) Math.ceil((1 - tokens) / tokensPerNano)));
+	}
+}
@@ -0,0 +1,48 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.ToLongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors;
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors.TaskType;
+
+/**
+ * Send the messages outdated by the next ones (ie: download progress): they are not kept in the outbox
+ * nor retried, and they are dropped when the rate limit of their user has no token left.
+ */
+public class TransientSender implements MessageSender {
+
+	private static final Logger logger = LoggerFactory.getLogger(TransientSender.class);
+
+	private final MessageSender messageSender;
+	private final TaskExecutors taskExecutors;
+	private final ToLongFunction<String> rateLimiter;
+
+	/**
+	 * @param messageSender the sender of the messages
+	 * @param taskExecutors the executors of the asynchronous sends
+	 * @param rateLimiter take a token of a user: 0 if taken, else the time to wait in ms
+	 */
+	public TransientSender(MessageSender messageSender, TaskExecutors taskExecutors, ToLongFunction<String> rateLimiter) {
+		this.messageSender = messageSender;
+		this.taskExecutors = taskExecutors;
+		this.rateLimiter = rateLimiter;
+	}
+
+	@Override
+	public boolean send(String userName, String message, String url) {
+		if (rateLimiter.applyAsLong(userName) > 0) {
+			logger.debug("Message to user {} dropped by the rate limit: {}", userName, message);
+			return false;
+		}
+		return messageSender.send(userName, message, url);
+	}
+
+	@Override
+	public CompletableFuture<Boolean> sendAsync(String userName, String message, String url) {
+		return taskExecutors.supplyAsync(TaskType.DELIVERY, () -> send(userName, message, url));
+	}
+}
@@ -0,0 +1,41 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Where the downloader runs: a new process per download, or long-lived workers
+ */
+public interface DownloadBackend {
+
+	/**
+	 * Set config
+	 * @param properties the config to set
+	 */
+	void setConfig(Properties properties);
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	default void checkConfig(Properties properties) {
+	}
+
+	/**
+	 * Run a download until its end, the process used is attached to the job (to be cancelled)
+	 * @param job the job to run
+	 * @param variables the variables of the download, in order: url, user, uid, gid
+	 * @param output the parser of the downloader output
+	 * @return the exit code of the downloader
+	 * @throws IOException if the downloader can't be run
+	 * @throws InterruptedException if interrupted while waiting for the downloader
+	 */
+	int download(DownloadJob job, Map<String, String> variables, DownloadOutputParser output) throws IOException, InterruptedException;
+
+	/**
+	 * Stop the processes kept by the backend
+	 */
+	void shutdown();
+}
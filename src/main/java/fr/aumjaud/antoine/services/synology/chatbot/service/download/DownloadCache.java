@@ -0,0 +1,204 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reuse the files already downloaded: a video downloaded once (in a format) is hard-linked,
+ * or copied, in the share of the next users instead of being downloaded again.
+ * A cached file is checked with its size and date, its checksum is computed again only if its date changed.
+ */
+public class DownloadCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(DownloadCache.class);
+
+	private volatile DownloadIndex index;
+	private volatile String shareDirTemplate;
+	private volatile String format = "mp3";
+
+	/**
+	 * Set config, the index is opened on first call (entries of deleted files are removed)
+	 * @param properties the config to set
+	 */
+	public synchronized void setConfig(Properties properties) {
+		shareDirTemplate = properties.getProperty("download.share-dir", "");
+		format = properties.getProperty("download.format", "mp3");
+		String indexFile = properties.getProperty("download.index-file", "");
+		if (index == null && !indexFile.isEmpty() && !shareDirTemplate.isEmpty()) {
+			DownloadIndex openedIndex = new DownloadIndex(Paths.get(indexFile));
+			int removed = openedIndex.removeIf(entry -> !Files.isRegularFile(Paths.get(entry.getPath())));
+			if (removed > 0)
+				logger.info("{} entries of deleted files removed from download index", removed);
+			index = openedIndex;
+		}
+	}
+
+	/**
+	 * @return true if downloads are indexed
+	 */
+	public boolean isEnabled() {
+		return index != null;
+	}
+
+	/**
+	 * Get an already downloaded video in the share of a user
+	 * @param userName the user
+	 * @param videoId the canonical id of the video
+	 * @return the file in the share of the user, null if not downloaded (or not valid anymore)
+	 */
+	public Path reuse(String userName, String videoId) {
+		DownloadIndex currentIndex = index;
+		if (currentIndex == null)
+			return null;
+		String key = key(videoId);
+		DownloadIndex.Entry entry = currentIndex.get(key);
+		if (entry == null)
+			return null;
+
+		Path file = Paths.get(entry.getPath());
+		if (!isValid(entry, file)) {
+			logger.info("Downloaded file {} of {} deleted or changed, removed from index", file, videoId);
+			try {
+				currentIndex.remove(key);
+			} catch (UncheckedIOException e) {
+				logger.error("Can't remove {} from download index: {}", videoId, e.getMessage());
+			}
+			return null;
+		}
+		try {
+			return shareWith(userName, file);
+		} catch (IOException e) {
+			logger.error("Can't share {} with {}: {}", file, userName, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Index a downloaded video
+	 * @param videoId the canonical id of the video
+	 * @param file the downloaded file
+	 */
+	public void record(String videoId, Path file) {
+		DownloadIndex currentIndex = index;
+		if (currentIndex == null || file == null)
+			return;
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			currentIndex.put(key(videoId), new DownloadIndex.Entry(file.toAbsolutePath().toString(), attributes.size(),
+					attributes.lastModifiedTime().toMillis(), checksum(file), System.currentTimeMillis()));
+		} catch (IOException | UncheckedIOException e) {
+			logger.error("Can't index downloaded file {}: {}", file, e.getMessage());
+		}
+	}
+
+	/**
+	 * Put a file in the share of a user: hard link if possible, copy otherwise
+	 * @param userName the user
+	 * @param file the file
+	 * @return the file in the share of the user
+	 * @throws IOException if the file can't be shared
+	 */
+	public Path shareWith(String userName, Path file) throws IOException {
+		Path shareDir = shareDir(userName);
+		if (shareDir == null || shareDir.toAbsolutePath().equals(file.toAbsolutePath().getParent()))
+			return file;
+		Path target = shareDir.resolve(file.getFileName());
+		if (Files.isRegularFile(target) && Files.size(target) == Files.size(file))
+			return target;
+		Files.createDirectories(shareDir);
+		try {
+			Files.createLink(target, file);
+		} catch (IOException | UnsupportedOperationException e) {
+			logger.debug("Can't link {} to {} ({}), copying it", file, target, e.getMessage());
+			Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		return target;
+	}
+
+	/**
+	 * Find a file written by the downloader in the share of a user
+	 * @param userName the user
+	 * @param destination the destination displayed by the downloader (its directory can be the one of a container)
+	 * @return the file, null if not found
+	 */
+	public Path resolveOutput(String userName, String destination) {
+		Path shareDir = shareDir(userName);
+		if (shareDir == null || destination == null)
+			return null;
+		Path file = shareDir.resolve(Paths.get(destination).getFileName());
+		return Files.isRegularFile(file) ? file : null;
+	}
+
+	/**
+	 * List the files of the download format in the share of a user
+	 * @param userName the user
+	 * @return the files, empty if no share directory is configured
+	 */
+	public Set<Path> listOutputs(String userName) {
+		Set<Path> outputs = new HashSet<>();
+		Path shareDir = shareDir(userName);
+		if (shareDir == null || !Files.isDirectory(shareDir))
+			return outputs;
+		String extension = "." + format;
+		try (Stream<Path> files = Files.list(shareDir)) {
+			files.filter(path -> path.getFileName().toString().endsWith(extension) && Files.isRegularFile(path))
+					.forEach(outputs::add);
+		} catch (IOException e) {
+			logger.error("Can't list {}: {}", shareDir, e.getMessage());
+		}
+		return outputs;
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private String key(String videoId) {
+		return videoId + "#" + format;
+	}
+
+	private Path shareDir(String userName) {
+		String template = shareDirTemplate;
+		return template == null || template.isEmpty() ? null : Paths.get(template.replace("$user", userName));
+	}
+
+	/**
+	 * Fast check with size and date, the checksum is compared only if the date changed
+	 */
+	private static boolean isValid(DownloadIndex.Entry entry, Path file) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			if (!attributes.isRegularFile() || attributes.size() != entry.getSize())
+				return false;
+			return attributes.lastModifiedTime().toMillis() == entry.getLastModified() || checksum(file) == entry.getChecksum();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	static long checksum(Path file) throws IOException {
+		CRC32C crc = new CRC32C();
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = Files.newInputStream(file)) {
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				crc.update(buffer, 0, read);
+			}
+		}
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,181 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent index of the completed downloads, by video id and format.
+ * The index is small (one entry per video), it is rewritten in a temporary file
+ * then moved on each change, so the file is always complete.
+ * File format: [int magic][byte version][int count] then per entry
+ * [utf key][utf path][long size][long lastModified][long checksum][long completedAt]
+ */
+public class DownloadIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(DownloadIndex.class);
+
+	private static final int MAGIC = 0x444C4958; // DLIX
+	private static final byte VERSION = 1;
+
+	private final Path file;
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	/**
+	 * Open the index and load its entries
+	 * @param file the index file (created on first change)
+	 */
+	public DownloadIndex(Path file) {
+		this.file = file;
+		if (Files.exists(file)) {
+			try {
+				load();
+				logger.info("Download index {} loaded with {} entries", file, entries.size());
+			} catch (IOException e) {
+				entries.clear();
+				logger.error("Download index {} can't be read, starting empty: {}", file, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @param key the key of the download (video id and format)
+	 * @return the entry, null if not downloaded
+	 */
+	public synchronized Entry get(String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Add or replace an entry
+	 * @param key the key of the download (video id and format)
+	 * @param entry the entry
+	 */
+	public synchronized void put(String key, Entry entry) {
+		entries.put(key, entry);
+		save();
+	}
+
+	/**
+	 * Remove an entry (file deleted or changed)
+	 * @param key the key of the download (video id and format)
+	 */
+	public synchronized void remove(String key) {
+		if (entries.remove(key) != null)
+			save();
+	}
+
+	/**
+	 * Remove the entries matching a condition
+	 * @param condition the condition, ie: file deleted
+	 * @return the number of entries removed
+	 */
+	public synchronized int removeIf(Predicate<Entry> condition) {
+		int before = entries.size();
+		entries.values().removeIf(condition);
+		int removed = before - entries.size();
+		if (removed > 0)
+			save();
+		return removed;
+	}
+
+	/**
+	 * @return the number of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private void load() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+			if (in.readInt() != MAGIC || in.readByte() != VERSION)
+				throw new IOException("not a download index (or unknown version)");
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				entries.put(key, new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+			}
+		}
+	}
+
+	private void save() {
+		try {
+			Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 64 * 1024))) {
+				out.writeInt(MAGIC);
+				out.writeByte(VERSION);
+				out.writeInt(entries.size());
+				for (Map.Entry<String, Entry> keyEntry : entries.entrySet()) {
+					Entry entry = keyEntry.getValue();
+					out.writeUTF(keyEntry.getKey());
+					out.writeUTF(entry.path);
+					out.writeLong(entry.size);
+					out.writeLong(entry.lastModified);
+					out.writeLong(entry.checksum);
+					out.writeLong(entry.completedAt);
+				}
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can't save download index " + file, e);
+		}
+	}
+
+	/**
+	 * A downloaded file
+	 */
+	public static class Entry {
+		private final String path;
+		private final long size;
+		private final long lastModified;
+		private final long checksum;
+		private final long completedAt;
+
+		public Entry(String path, long size, long lastModified, long checksum, long completedAt) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.checksum = checksum;
+			this.completedAt = completedAt;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return the CRC32C of the file
+		 */
+		public long getChecksum() {
+			return checksum;
+		}
+
+		public long getCompletedAt() {
+			return completedAt;
+		}
+	}
+}
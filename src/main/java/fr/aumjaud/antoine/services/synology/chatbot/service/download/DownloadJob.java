@@ -0,0 +1,112 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A download of a video, shared by all the users who requested it while it was pending
+ */
+public class DownloadJob {
+
+	public enum State { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+	private final long id;
+	private final String videoId;
+	private final String url;
+	private final String owner;
+	private final Set<String> requesters = new LinkedHashSet<>();
+
+	private volatile State state = State.QUEUED;
+	private Process process;
+
+	public DownloadJob(long id, String videoId, String url, String owner) {
+		this.id = id;
+		this.videoId = videoId;
+		this.url = url;
+		this.owner = owner;
+		requesters.add(owner);
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getVideoId() {
+		return videoId;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return the first requester, the file is downloaded in their share
+	 */
+	public String getOwner() {
+		return owner;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public synchronized List<String> getRequesters() {
+		return new ArrayList<>(requesters);
+	}
+
+	/**
+	 * Attach the process of the download, destroyed if the job is cancelled
+	 * @param process the process running the download
+	 */
+	public synchronized void attach(Process process) {
+		this.process = process;
+		if (state == State.CANCELLED) {
+			destroy();
+		}
+	}
+
+	/**
+	 * @return true if the job has been cancelled, the download should stop
+	 */
+	public boolean isCancelled() {
+		return state == State.CANCELLED;
+	}
+
+	/*
+	 * PRIVATE (used by the manager)
+	 */
+
+	synchronized boolean addRequester(String userName) {
+		return requesters.add(userName);
+	}
+
+	synchronized boolean removeRequester(String userName) {
+		return requesters.remove(userName);
+	}
+
+	synchronized boolean hasRequester(String userName) {
+		return requesters.contains(userName);
+	}
+
+	synchronized boolean hasNoRequester() {
+		return requesters.isEmpty();
+	}
+
+	synchronized void setState(State state) {
+		this.state = state;
+	}
+
+	synchronized void cancel() {
+		state = State.CANCELLED;
+		destroy();
+	}
+
+	private void destroy() {
+		if (process != null) {
+			process.descendants().forEach(ProcessHandle::destroy);
+			process.destroy();
+		}
+	}
+}
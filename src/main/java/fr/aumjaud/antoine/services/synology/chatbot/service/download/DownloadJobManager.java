@@ -0,0 +1,412 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.delivery.MessageSender;
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors;
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors.TaskType;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Histogram;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.MetricsRegistry;
+
+/**
+ * Schedule the downloads: a video requested again while pending is downloaded once and all its requesters
+ * are notified, each user has a bounded queue and the queues are served in turn (a user sending a playlist
+ * doesn't block the others). Jobs not done at shutdown are saved and queued again at startup.
+ * A video already downloaded is taken from the download cache, by the job (the file can be copied).
+ */
+public class DownloadJobManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(DownloadJobManager.class);
+	private static final Histogram DONE_DURATION = jobDuration("done");
+	private static final Histogram FAILED_DURATION = jobDuration("failed");
+	private static final Histogram CANCELLED_DURATION = jobDuration("cancelled");
+
+	private final DownloadRunner downloadRunner;
+	private final MessageSender notifier;
+	private final TaskExecutors taskExecutors;
+	private final DownloadCache downloadCache;
+	private final AtomicLong nextId = new AtomicLong(1);
+
+	// pending jobs (queued or running)
+	private final Map<String, DownloadJob> pendingByVideo = new HashMap<>();
+	private final Map<Long, DownloadJob> pendingById = new LinkedHashMap<>();
+	// queued jobs by owner, the owners with queued jobs, and when each owner was last served
+	private final Map<String, Deque<DownloadJob>> queues = new HashMap<>();
+	private final Deque<String> turns = new ArrayDeque<>();
+	private final Map<String, Long> lastServed = new HashMap<>();
+	private long dispatched;
+	private int running;
+	private boolean stopped;
+
+	private volatile int maxQueuedPerUser = 10;
+	private volatile long shutdownTimeoutMillis = 30000;
+	private volatile Path stateFile;
+
+	public DownloadJobManager(DownloadRunner downloadRunner, MessageSender notifier, TaskExecutors taskExecutors) {
+		this(downloadRunner, notifier, taskExecutors, new DownloadCache());
+	}
+
+	public DownloadJobManager(DownloadRunner downloadRunner, MessageSender notifier, TaskExecutors taskExecutors, DownloadCache downloadCache) {
+		this.downloadRunner = downloadRunner;
+		this.notifier = notifier;
+		this.taskExecutors = taskExecutors;
+		this.downloadCache = downloadCache;
+	}
+
+	/**
+	 * Set config, the jobs saved at last shutdown are queued again on first call
+	 * @param properties the config to set
+	 */
+	public void setConfig(Properties properties) {
+		Settings settings = new Settings(properties);
+		maxQueuedPerUser = settings.maxQueuedPerUser;
+		shutdownTimeoutMillis = settings.shutdownTimeoutMillis;
+		String file = properties.getProperty("download.state-file");
+		boolean firstStateFile = stateFile == null && file != null && !file.isEmpty();
+		if (firstStateFile) {
+			stateFile = Paths.get(file);
+			restore();
+		}
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		new Settings(properties);
+	}
+
+	/**
+	 * Request the download of a video
+	 * @param userName the user requesting the download
+	 * @param url the URL of the video
+	 * @param videoId the canonical id of the video
+	 * @return the response to send to the user
+	 */
+	public String submit(String userName, String url, String videoId) {
+		return enqueue(userName, url, videoId);
+	}
+
+	/**
+	 * Describe the pending downloads of a user
+	 * @param userName the user
+	 * @return the response to send to the user
+	 */
+	public synchronized String status(String userName) {
+		StringBuilder status = new StringBuilder();
+		for (DownloadJob job : pendingById.values()) {
+			if (job.hasRequester(userName) && !job.isCancelled()) {
+				status.append(String.format("#%d %s %s%n", job.getId(), job.getState() == DownloadJob.State.RUNNING ? "downloading" : "queued", job.getUrl()));
+			}
+		}
+		int queued = getQueuedCount();
+		if (status.length() == 0)
+			return String.format("No download in progress for you (%d running, %d queued).", running, queued);
+		return status.append(String.format("(%d running, %d queued) Send \"cancel <job id>\" to cancel one.", running, queued)).toString();
+	}
+
+	/**
+	 * Cancel a download, it is stopped only if no other user requested it
+	 * @param userName the user
+	 * @param jobId the id of the job, as sent to the user
+	 * @return the response to send to the user
+	 */
+	public synchronized String cancel(String userName, String jobId) {
+		long id;
+		try {
+			id = Long.parseLong(jobId.trim().replace("#", ""));
+		} catch (NumberFormatException e) {
+			return "❌ Usage: cancel <job id>";
+		}
+		DownloadJob job = pendingById.get(id);
+		if (job == null || job.isCancelled() || !job.removeRequester(userName))
+			return String.format("❌ No pending download #%d for you.", id);
+
+		if (!job.hasNoRequester())
+			return String.format("✅ You won't be notified for download #%d (still requested by another user).", id);
+
+		if (job.getState() == DownloadJob.State.QUEUED) {
+			Deque<DownloadJob> queue = queues.get(job.getOwner());
+			queue.remove(job);
+			if (queue.isEmpty()) {
+				queues.remove(job.getOwner());
+				turns.remove(job.getOwner());
+			}
+			forget(job);
+		}
+		// a running job is forgotten when its process ends, a new request of the video starts a new job
+		pendingByVideo.remove(job.getVideoId(), job);
+		job.cancel();
+		logger.info("Download job {} of {} cancelled by {}", id, job.getVideoId(), userName);
+		return String.format("✅ Download #%d cancelled.", id);
+	}
+
+	/**
+	 * Stop accepting downloads, wait for the running ones, and save the others in the state file
+	 */
+	public void shutdown() {
+		List<DownloadJob> unfinished = new ArrayList<>();
+		synchronized (this) {
+			stopped = true;
+			for (Deque<DownloadJob> queue : queues.values()) {
+				unfinished.addAll(queue);
+			}
+			queues.clear();
+			turns.clear();
+
+			long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+			try {
+				while (running > 0 && System.currentTimeMillis() < deadline) {
+					wait(deadline - System.currentTimeMillis());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			for (DownloadJob job : pendingById.values()) {
+				if (job.getState() == DownloadJob.State.RUNNING && !job.isCancelled()) {
+					unfinished.add(job); // will be downloaded again
+				}
+			}
+		}
+		save(unfinished);
+	}
+
+	/**
+	 * @return the number of jobs waiting for a free download slot
+	 */
+	public synchronized int getQueuedCount() {
+		return pendingById.size() - running;
+	}
+
+	/**
+	 * @return the number of jobs running
+	 */
+	public synchronized int getRunningCount() {
+		return running;
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private static Histogram jobDuration(String result) {
+		return MetricsRegistry.DEFAULT.histogram("chatbot_download_job_duration_seconds", "Duration of the downloads, by result", "result", result);
+	}
+
+	private synchronized String enqueue(String userName, String url, String videoId) {
+		if (stopped)
+			return "❌ The service is stopping, send the link again in a few minutes.";
+
+		DownloadJob pending = pendingByVideo.get(videoId);
+		if (pending != null && !pending.isCancelled()) {
+			pending.addRequester(userName);
+			logger.debug("Download of {} already pending (job {}), {} added to its requesters", videoId, pending.getId(), userName);
+			return String.format("✅ Music download started (job #%d, already requested). You'll be notified when it's ready.", pending.getId());
+		}
+
+		Deque<DownloadJob> queue = queues.get(userName);
+		if (queue != null && queue.size() >= maxQueuedPerUser)
+			return String.format("❌ Too many downloads queued (max %d), wait for the current ones to complete.", maxQueuedPerUser);
+
+		DownloadJob job = new DownloadJob(nextId.getAndIncrement(), videoId, url, userName);
+		pendingByVideo.put(videoId, job);
+		pendingById.put(job.getId(), job);
+		if (queue == null) {
+			queue = new ArrayDeque<>();
+			queues.put(userName, queue);
+			turns.add(userName);
+		}
+		queue.add(job);
+		int position = queue.size() - 1;
+		dispatch();
+
+		return job.getState() == DownloadJob.State.RUNNING || position == 0
+				? String.format("✅ Music download started (job #%d). You'll be notified when it's ready.", job.getId())
+				: String.format("✅ Music download started (job #%d, %d before it in your queue). You'll be notified when it's ready.", job.getId(), position);
+	}
+
+	/**
+	 * Start queued jobs while there are free slots, taking the owners in turn
+	 * (the least recently served first)
+	 */
+	private synchronized void dispatch() {
+		while (running < taskExecutors.getLimit(TaskType.DOWNLOAD) && !turns.isEmpty()) {
+			String owner = nextOwner();
+			turns.remove(owner);
+			Deque<DownloadJob> queue = queues.get(owner);
+			DownloadJob job = queue.poll();
+			if (queue.isEmpty()) {
+				queues.remove(owner);
+			} else {
+				turns.add(owner);
+			}
+
+			job.setState(DownloadJob.State.RUNNING);
+			running++;
+			lastServed.put(owner, ++dispatched);
+			long start = System.nanoTime();
+			taskExecutors.supplyAsync(TaskType.DOWNLOAD, () -> download(job))
+					.whenComplete((result, e) -> {
+						(job.isCancelled() ? CANCELLED_DURATION : e == null ? DONE_DURATION : FAILED_DURATION).recordSince(start);
+						complete(job, result, e);
+					});
+		}
+	}
+
+	/**
+	 * Take the video from the download cache, download it otherwise
+	 */
+	private DownloadResult download(DownloadJob job) {
+		Path cached = downloadCache.reuse(job.getOwner(), job.getVideoId());
+		if (cached != null) {
+			logger.debug("Download of {} found in cache: {}", job.getVideoId(), cached);
+			return new DownloadResult(String.format("Already downloaded: %s is in your drive.", cached.getFileName()), cached, true);
+		}
+		return downloadRunner.download(job);
+	}
+
+	private String nextOwner() {
+		String next = null;
+		long nextServed = Long.MAX_VALUE;
+		for (String owner : turns) {
+			long served = lastServed.getOrDefault(owner, 0L);
+			if (served < nextServed) {
+				next = owner;
+				nextServed = served;
+			}
+		}
+		return next;
+	}
+
+	private void complete(DownloadJob job, DownloadResult result, Throwable e) {
+		List<String> requesters;
+		synchronized (this) {
+			running--;
+			forget(job);
+			notifyAll(); // shutdown waiting
+			if (job.isCancelled()) {
+				dispatch();
+				return;
+			}
+			job.setState(e == null ? DownloadJob.State.DONE : DownloadJob.State.FAILED);
+			requesters = job.getRequesters();
+			dispatch();
+		}
+
+		String message;
+		if (e == null) {
+			message = "✅ " + result.getMessage();
+		} else {
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			logger.error("Download job {} of {} failed: {}", job.getId(), job.getVideoId(), cause.getMessage());
+			message = "❌ Error: " + cause.getMessage();
+		}
+		for (String requester : requesters) {
+			String requesterMessage = message;
+			if (e == null && result.getFile() != null && !requester.equals(job.getOwner())) {
+				// downloaded in the share of the owner
+				requesterMessage = share(job, requester, result.getFile(), message);
+			}
+			try {
+				// not waited: the coalescer posts it by a DELIVERY task, a paced delivery doesn't hold a download thread
+				notifier.sendAsync(requester, requesterMessage, null).whenComplete((sent, notifyError) -> {
+					if (notifyError != null)
+						logger.error("Can't notify {} of download job {}: {}", requester, job.getId(), notifyError.getMessage());
+				});
+			} catch (RuntimeException notifyError) {
+				logger.error("Can't notify {} of download job {}: {}", requester, job.getId(), notifyError.getMessage());
+			}
+		}
+
+		// indexed once the requesters are notified
+		if (e == null && !result.isCached())
+			downloadCache.record(job.getVideoId(), result.getFile());
+	}
+
+	private String share(DownloadJob job, String requester, Path file, String message) {
+		try {
+			downloadCache.shareWith(requester, file);
+			return message;
+		} catch (IOException e) {
+			logger.error("Can't share download job {} with {}: {}", job.getId(), requester, e.getMessage());
+			return "❌ Error: the downloaded file can't be copied in your drive";
+		}
+	}
+
+	private void forget(DownloadJob job) {
+		pendingById.remove(job.getId());
+		pendingByVideo.remove(job.getVideoId(), job);
+	}
+
+	/**
+	 * Save the jobs, one line per requester: user, video id and URL separated by tabs
+	 */
+	private void save(List<DownloadJob> jobs) {
+		Path file = stateFile;
+		if (file == null) {
+			if (!jobs.isEmpty())
+				logger.warn("{} pending downloads dropped, no download.state-file configured", jobs.size());
+			return;
+		}
+		List<String> lines = new ArrayList<>();
+		for (DownloadJob job : jobs) {
+			for (String requester : job.getRequesters()) {
+				lines.add(requester + "\t" + job.getVideoId() + "\t" + job.getUrl());
+			}
+		}
+		try {
+			Files.write(file, lines, StandardCharsets.UTF_8);
+			logger.info("{} pending downloads saved in {}", jobs.size(), file);
+		} catch (IOException e) {
+			logger.error("Can't save pending downloads in {}: {}", file, e.getMessage());
+		}
+	}
+
+	private void restore() {
+		Path file = stateFile;
+		if (!Files.exists(file))
+			return;
+		try {
+			List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+			Files.delete(file);
+			for (String line : lines) {
+				String[] fields = line.split("\t", 3);
+				if (fields.length == 3) {
+					submit(fields[0], fields[2], fields[1]);
+				}
+			}
+			logger.info("{} pending downloads restored from {}", lines.size(), file);
+		} catch (IOException e) {
+			logger.error("Can't restore pending downloads from {}: {}", file, e.getMessage());
+		}
+	}
+
+
+	private static class Settings {
+		private final int maxQueuedPerUser;
+		private final long shutdownTimeoutMillis;
+
+		private Settings(Properties properties) {
+			maxQueuedPerUser = Integer.parseInt(properties.getProperty("download.queue.per-user-capacity", "10"));
+			shutdownTimeoutMillis = Long.parseLong(properties.getProperty("download.shutdown.timeout-ms", "30000"));
+		}
+	}
+}
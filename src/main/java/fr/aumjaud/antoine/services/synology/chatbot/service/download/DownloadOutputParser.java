@@ -0,0 +1,147 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parse the output of youtube-dl / yt-dlp while it is running: progress lines are reported
+ * (throttled), the destination file is extracted, and only the last lines are kept for error reports.
+ * Lines end with a line feed or a carriage return (progress lines are rewritten with \r).
+ */
+public class DownloadOutputParser {
+
+	private static final Pattern PROGRESS = Pattern.compile("^\\[download\\]\\s+(\\d{1,3}(?:\\.\\d+)?)% of\\s+~?\\s*(\\S+)");
+	private static final Pattern DESTINATION = Pattern.compile("^\\[(?:download|ExtractAudio|ffmpeg)\\] Destination: (.+)$");
+	private static final Pattern ALREADY_DOWNLOADED = Pattern.compile("^\\[download\\] (.+) has already been downloaded");
+	private static final Pattern MERGING = Pattern.compile("^\\[Merger\\] Merging formats into \"(.+)\"$");
+
+	/**
+	 * Receive the progress of a download
+	 */
+	@FunctionalInterface
+	public interface ProgressListener {
+		/**
+		 * @param percent the downloaded part, from 0 to 100
+		 * @param totalSize the size to download as displayed by the downloader, ie: 3.45MiB
+		 */
+		void onProgress(double percent, String totalSize);
+	}
+
+	private final String[] tail;
+	private final long progressIntervalMillis;
+	private final LongSupplier clock;
+	private final ProgressListener progressListener;
+
+	private int tailStart;
+	private int tailSize;
+	private long lastProgressAt;
+	private String destination;
+	private String totalSize;
+
+	/**
+	 * @param tailLines the number of last lines kept
+	 * @param progressIntervalMillis the minimum time between two progress reports (0 = no report)
+	 * @param progressListener the listener of the progress
+	 */
+	public DownloadOutputParser(int tailLines, long progressIntervalMillis, ProgressListener progressListener) {
+		this(tailLines, progressIntervalMillis, System::currentTimeMillis, progressListener);
+	}
+
+	DownloadOutputParser(int tailLines, long progressIntervalMillis, LongSupplier clock, ProgressListener progressListener) {
+		this.tail = new String[Math.max(1, tailLines)];
+		this.progressIntervalMillis = progressIntervalMillis;
+		this.clock = clock;
+		this.progressListener = progressListener;
+		this.lastProgressAt = clock.getAsLong();
+	}
+
+	/**
+	 * Parse a stream until its end
+	 * @param in the output of the process
+	 * @throws IOException if the stream can't be read
+	 */
+	public void parse(InputStream in) throws IOException {
+		LineReader lines = new LineReader(in);
+		String line;
+		while ((line = lines.readLine()) != null) {
+			accept(line);
+		}
+	}
+
+	/**
+	 * @return the name of the file written, null if not found in the output
+	 */
+	public String getDestination() {
+		return destination;
+	}
+
+	/**
+	 * @return the size downloaded as displayed by the downloader (ie: 3.45MiB), null if unknown
+	 */
+	public String getTotalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * @return the last lines of the output
+	 */
+	public String getTail() {
+		StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < tailSize; i++) {
+			lines.append(tail[(tailStart + i) % tail.length]).append('\n');
+		}
+		return lines.toString();
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	void accept(String line) {
+		Matcher progress = PROGRESS.matcher(line);
+		if (progress.find()) {
+			double percent = Double.parseDouble(progress.group(1));
+			totalSize = progress.group(2);
+			reportProgress(percent);
+			return; // progress lines are not kept in the tail
+		}
+
+		keep(line);
+		Matcher matcher = DESTINATION.matcher(line);
+		if (matcher.find()) {
+			destination = matcher.group(1).trim();
+			return;
+		}
+		matcher = ALREADY_DOWNLOADED.matcher(line);
+		if (matcher.find()) {
+			destination = matcher.group(1).trim();
+			return;
+		}
+		matcher = MERGING.matcher(line);
+		if (matcher.find()) {
+			destination = matcher.group(1).trim();
+		}
+	}
+
+	private void reportProgress(double percent) {
+		if (progressIntervalMillis <= 0 || progressListener == null || percent >= 100)
+			return;
+		long now = clock.getAsLong();
+		if (now - lastProgressAt >= progressIntervalMillis) {
+			lastProgressAt = now;
+			progressListener.onProgress(percent, totalSize);
+		}
+	}
+
+	private void keep(String line) {
+		if (tailSize < tail.length) {
+			tail[(tailStart + tailSize++) % tail.length] = line;
+		} else {
+			tail[tailStart] = line;
+			tailStart = (tailStart + 1) % tail.length;
+		}
+	}
+}
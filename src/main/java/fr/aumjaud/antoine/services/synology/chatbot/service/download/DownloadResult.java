@@ -0,0 +1,49 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import java.nio.file.Path;
+
+/**
+ * Result of a download
+ */
+public class DownloadResult {
+
+	private final String message;
+	private final Path file;
+	private final boolean cached;
+
+	public DownloadResult(String message, Path file) {
+		this(message, file, false);
+	}
+
+	/**
+	 * @param message the message to send to the requesters
+	 * @param file the downloaded file, null if unknown
+	 * @param cached true if the file is taken from the download cache
+	 */
+	public DownloadResult(String message, Path file, boolean cached) {
+		this.message = message;
+		this.file = file;
+		this.cached = cached;
+	}
+
+	/**
+	 * @return the message to send to the requesters
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return the downloaded file, null if unknown
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * @return true if the file is taken from the download cache, not downloaded
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+}
@@ -0,0 +1,16 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+/**
+ * Execution of a download
+ */
+@FunctionalInterface
+public interface DownloadRunner {
+
+	/**
+	 * Download a video, the process started should be attached to the job (to be cancelled)
+	 * @param job the job to run
+	 * @return the message to send to the requesters, and the downloaded file
+	 * @throws RuntimeException if the download failed
+	 */
+	DownloadResult download(DownloadJob job);
+}
@@ -0,0 +1,50 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read the lines of a process output, ended by a line feed or a carriage return (progress lines are rewritten with \r).
+ * Empty lines are skipped and longer lines are truncated. The bytes read after a line are kept for the next one,
+ * so a reader can be used for a whole conversation with a process.
+ */
+class LineReader {
+
+	static final int MAX_LINE_LENGTH = 4096;
+
+	private final InputStream in;
+	private final byte[] buffer = new byte[8192];
+	private final byte[] line = new byte[MAX_LINE_LENGTH];
+	private int position;
+	private int limit;
+
+	LineReader(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * @return the next line, null at the end of the stream
+	 * @throws IOException if the stream can't be read
+	 */
+	String readLine() throws IOException {
+		int lineLength = 0;
+		while (true) {
+			if (position == limit) {
+				limit = in.read(buffer);
+				position = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return lineLength > 0 ? new String(line, 0, lineLength, StandardCharsets.UTF_8) : null;
+				}
+			}
+			byte b = buffer[position++];
+			if (b == '\n' || b == '\r') {
+				if (lineLength > 0)
+					return new String(line, 0, lineLength, StandardCharsets.UTF_8);
+			} else if (lineLength < MAX_LINE_LENGTH) {
+				line[lineLength++] = b; // longer lines are truncated
+			}
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Run each download in a new process: the configured command (ie: docker run ...) is executed with sh -c,
+ * its $url, $user, $uid and $gid variables replaced
+ */
+public class ProcessDownloadBackend implements DownloadBackend {
+
+	private static final Logger logger = LoggerFactory.getLogger(ProcessDownloadBackend.class);
+
+	private volatile String commandTemplate;
+
+	@Override
+	public void setConfig(Properties properties) {
+		commandTemplate = properties.getProperty("youtube.mp3.download.command");
+	}
+
+	@Override
+	public int download(DownloadJob job, Map<String, String> variables, DownloadOutputParser output) throws IOException, InterruptedException {
+		String command = commandTemplate;
+		if (command == null)
+			throw new IOException("youtube.mp3.download.command is not configured");
+		for (Map.Entry<String, String> variable : variables.entrySet()) {
+			command = command.replace("$" + variable.getKey(), variable.getValue() != null ? variable.getValue() : "");
+		}
+		logger.info("Executing command: {}", command);
+
+		ProcessBuilder pb = new ProcessBuilder("sh", "-c", command);
+		pb.redirectErrorStream(true);
+		Process process = pb.start();
+		job.attach(process); // destroyed if the job is cancelled
+		try (InputStream in = process.getInputStream()) {
+			output.parse(in);
+		}
+		return process.waitFor();
+	}
+
+	@Override
+	public void shutdown() {
+		// nothing kept between downloads
+	}
+}
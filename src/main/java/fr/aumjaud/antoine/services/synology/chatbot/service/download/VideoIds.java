@@ -0,0 +1,46 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Canonical ids of the videos, so the different URLs of a video are downloaded once.
+ * A playlist is part of the id: a video alone and the same video with its playlist are different downloads.
+ */
+public final class VideoIds {
+
+	private static final Pattern YOUTUBE_URL = Pattern.compile("(?:https?://)?(?:(?:www|m|music)\\.)?(?:youtube\\.com|youtu\\.be)(?:/.*)?");
+	private static final Pattern YOUTUBE_ID = Pattern.compile("(?:[?&]v=|youtu\\.be/|/shorts/|/embed/|/live/|/v/)([A-Za-z0-9_-]{11})(?![A-Za-z0-9_-])");
+	private static final Pattern YOUTUBE_LIST = Pattern.compile("[?&]list=([A-Za-z0-9_-]+)");
+	private static final Pattern URL_PREFIX = Pattern.compile("^(?:https?://)?(?:(?:www|m)\\.)?");
+
+	private VideoIds() {
+	}
+
+	/**
+	 * @param url the URL sent by the user
+	 * @return true if it is a YouTube URL
+	 */
+	public static boolean isYoutubeUrl(String url) {
+		return YOUTUBE_URL.matcher(url).matches();
+	}
+
+	/**
+	 * Get the canonical id of a video (or playlist, channel)
+	 * @param url the URL of the video
+	 * @return the id, ie: youtube:dQw4w9WgXcQ, youtube:dQw4w9WgXcQ&list=PL123, youtube:list=PL123,
+	 * or the URL without scheme if it has neither video nor playlist id (channel); null if it is not a YouTube URL
+	 */
+	public static String canonicalId(String url) {
+		if (!isYoutubeUrl(url))
+			return null;
+		Matcher list = YOUTUBE_LIST.matcher(url);
+		String listId = list.find() ? "list=" + list.group(1) : null;
+		Matcher matcher = YOUTUBE_ID.matcher(url);
+		if (matcher.find())
+			return "youtube:" + matcher.group(1) + (listId != null ? "&" + listId : "");
+		if (listId != null)
+			return "youtube:" + listId;
+		return "youtube-url:" + URL_PREFIX.matcher(url).replaceFirst("").replaceFirst("/+$", "");
+	}
+}
@@ -0,0 +1,373 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Run the downloads in long-lived worker processes (ie: docker exec -i into a running container),
+ * to not pay the start of a shell, a container and the downloader on each download.
+ * Line protocol, fields separated by tabs:
+ * <ul>
+ * <li>to the worker: "JOB id url user uid gid" or "PING"</li>
+ * <li>from the worker: the downloader output then "DONE id exitCode", or "PONG"</li>
+ * </ul>
+ * Idle workers are pinged periodically, a worker which crashed or doesn't answer is restarted.
+ * Without any worker alive (or free in time), the download runs on the fallback backend.
+ */
+public class WorkerPoolDownloadBackend implements DownloadBackend {
+
+	private static final Logger logger = LoggerFactory.getLogger(WorkerPoolDownloadBackend.class);
+
+	private final DownloadBackend fallback;
+	private final Set<Worker> workers = ConcurrentHashMap.newKeySet();
+	private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(daemon("download-workers"));
+	private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(daemon("download-workers-watchdog"));
+
+	private volatile long healthTimeoutMillis = 5000;
+	private volatile long acquireTimeoutMillis = 30000;
+	private volatile long restartDelayMillis = 60000;
+	private volatile boolean stopped;
+	private boolean started;
+	private String command = ""; // guarded by this, with the count and the generation of the pool
+	private int count;
+	private int generation;
+
+	/**
+	 * @param fallback the backend used when no worker can run a download
+	 */
+	public WorkerPoolDownloadBackend(DownloadBackend fallback) {
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Set config, the workers are started on first call, and replaced if their command or their count changed
+	 * (busy workers end their download before being stopped)
+	 * @param properties the config to set
+	 */
+	@Override
+	public synchronized void setConfig(Properties properties) {
+		fallback.setConfig(properties);
+		Settings settings = new Settings(properties);
+		healthTimeoutMillis = settings.healthTimeoutMillis;
+		acquireTimeoutMillis = settings.acquireTimeoutMillis;
+		restartDelayMillis = settings.healthIntervalMillis;
+		if (settings.command.equals(command) && settings.count == count)
+			return;
+		retireWorkers();
+		command = settings.command;
+		count = settings.count;
+		if (command.isEmpty() || stopped)
+			return;
+		int poolGeneration = generation;
+		String poolCommand = command;
+		for (int i = 0; i < count; i++) {
+			scheduler.execute(() -> startWorker(poolGeneration, poolCommand));
+		}
+		if (!started) {
+			started = true;
+			scheduler.scheduleWithFixedDelay(this::checkIdleWorkers, settings.healthIntervalMillis, settings.healthIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+		logger.info("Starting {} download workers: {}", count, command);
+	}
+
+	/**
+	 * Stop the workers when the backend is no longer used, they are started again by the next config setting them
+	 */
+	public synchronized void stopWorkers() {
+		if (command.isEmpty())
+			return;
+		retireWorkers();
+		command = "";
+		count = 0;
+		logger.info("Download workers stopped");
+	}
+
+	@Override
+	public void checkConfig(Properties properties) {
+		fallback.checkConfig(properties);
+		new Settings(properties);
+	}
+
+	@Override
+	public int download(DownloadJob job, Map<String, String> variables, DownloadOutputParser output) throws IOException, InterruptedException {
+		Worker worker = acquire();
+		if (worker == null) {
+			logger.warn("No download worker available for job #{}, running it in a new process", job.getId());
+			return fallback.download(job, variables, output);
+		}
+		try {
+			int exitCode = worker.run(job, variables, output);
+			release(worker);
+			return exitCode;
+		} catch (IOException e) {
+			replace(worker);
+			if (job.isCancelled())
+				throw e;
+			logger.warn("Download worker crashed during job #{} ({}), running it in a new process", job.getId(), e.getMessage());
+			return fallback.download(job, variables, output);
+		}
+	}
+
+	/**
+	 * Stop the workers: their input is closed, they are destroyed if still alive after the health timeout
+	 */
+	@Override
+	public void shutdown() {
+		synchronized (this) {
+			stopped = true;
+			scheduler.shutdownNow();
+			watchdog.shutdownNow();
+		}
+		for (Worker worker : workers) {
+			worker.close();
+		}
+		for (Worker worker : workers) {
+			worker.stop(healthTimeoutMillis);
+		}
+		workers.clear();
+		idle.clear();
+		fallback.shutdown();
+	}
+
+	/**
+	 * @return the number of workers alive
+	 */
+	public int getWorkerCount() {
+		return workers.size();
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private static ThreadFactory daemon(String name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private Worker acquire() throws InterruptedException {
+		while (!workers.isEmpty()) {
+			Worker worker = idle.poll(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+			if (worker == null || worker.isAlive())
+				return worker;
+			replace(worker); // crashed while idle
+		}
+		return null;
+	}
+
+	private synchronized boolean isCurrent(int workerGeneration) {
+		return workerGeneration == generation && !stopped;
+	}
+
+	private void startWorker(int workerGeneration, String workerCommand) {
+		if (!isCurrent(workerGeneration))
+			return;
+		Worker worker = null;
+		try {
+			worker = new Worker(workerCommand, workerGeneration);
+			worker.ping(healthTimeoutMillis, watchdog);
+			synchronized (this) {
+				if (!isCurrent(workerGeneration)) {
+					worker.destroy(); // pool replaced while starting
+					return;
+				}
+				workers.add(worker);
+				idle.add(worker);
+			}
+			logger.info("Download worker {} started", worker.pid());
+		} catch (IOException e) {
+			logger.error("Can't start download worker, retrying in {} ms: {}", restartDelayMillis, e.getMessage());
+			if (worker != null)
+				worker.destroy();
+			if (isCurrent(workerGeneration))
+				scheduler.schedule(() -> startWorker(workerGeneration, workerCommand), restartDelayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void replace(Worker worker) {
+		worker.destroy();
+		if (workers.remove(worker) && isCurrent(worker.generation)) {
+			logger.warn("Download worker {} stopped, restarting it", worker.pid());
+			scheduler.execute(() -> startWorker(worker.generation, worker.command));
+		}
+	}
+
+	/**
+	 * Give back a worker after its use, it is stopped if its pool was replaced meanwhile
+	 */
+	private synchronized void release(Worker worker) {
+		if (isCurrent(worker.generation))
+			idle.add(worker);
+		else
+			retire(worker);
+	}
+
+	/**
+	 * Stop the idle workers of the current pool, the busy ones are stopped when they are released
+	 */
+	private synchronized void retireWorkers() {
+		generation++;
+		Worker worker;
+		while ((worker = idle.poll()) != null) {
+			retire(worker);
+		}
+	}
+
+	private void retire(Worker worker) {
+		workers.remove(worker);
+		if (stopped) {
+			worker.destroy(); // released after shutdown
+			return;
+		}
+		worker.close();
+		scheduler.execute(() -> worker.stop(healthTimeoutMillis));
+	}
+
+	private void checkIdleWorkers() {
+		for (int i = idle.size(); i > 0; i--) {
+			Worker worker = idle.poll();
+			if (worker == null)
+				return;
+			try {
+				worker.ping(healthTimeoutMillis, watchdog);
+				release(worker);
+			} catch (IOException e) {
+				logger.warn("Download worker {} is not healthy: {}", worker.pid(), e.getMessage());
+				replace(worker);
+			}
+		}
+	}
+
+	private static class Settings {
+		private final String command;
+		private final int count;
+		private final long healthTimeoutMillis;
+		private final long acquireTimeoutMillis;
+		private final long healthIntervalMillis;
+
+		private Settings(Properties properties) {
+			command = properties.getProperty("download.worker.command", "");
+			count = Integer.parseInt(properties.getProperty("download.worker.count", "2"));
+			healthTimeoutMillis = Long.parseLong(properties.getProperty("download.worker.health-timeout-ms", "5000"));
+			acquireTimeoutMillis = Long.parseLong(properties.getProperty("download.worker.acquire-timeout-ms", "30000"));
+			healthIntervalMillis = Long.parseLong(properties.getProperty("download.worker.health-interval-ms", "60000"));
+		}
+	}
+
+	/**
+	 * A worker process, used by one download at a time
+	 */
+	private static class Worker {
+		private final String command;
+		private final int generation;
+		private final Process process;
+		private final OutputStream in;
+		private final LineReader out;
+
+		Worker(String command, int generation) throws IOException {
+			this.command = command;
+			this.generation = generation;
+			ProcessBuilder pb = new ProcessBuilder("sh", "-c", command);
+			pb.redirectErrorStream(true);
+			process = pb.start();
+			in = process.getOutputStream();
+			out = new LineReader(process.getInputStream());
+		}
+
+		int run(DownloadJob job, Map<String, String> variables, DownloadOutputParser output) throws IOException {
+			job.attach(process); // destroyed if the job is cancelled, then restarted
+			StringBuilder request = new StringBuilder("JOB\t").append(job.getId());
+			for (String value : variables.values()) {
+				request.append('\t').append(value != null ? value.replace('\t', ' ') : "");
+			}
+			send(request.toString());
+
+			String done = "DONE\t" + job.getId() + "\t";
+			String line;
+			while ((line = out.readLine()) != null) {
+				if (line.startsWith(done)) {
+					try {
+						return Integer.parseInt(line.substring(done.length()).trim());
+					} catch (NumberFormatException e) {
+						throw new IOException("Wrong end of job: " + line);
+					}
+				}
+				output.accept(line);
+			}
+			throw new IOException("worker stopped");
+		}
+
+		/**
+		 * Check the worker answers, it is destroyed if the answer takes longer than the timeout
+		 */
+		void ping(long timeoutMillis, ScheduledExecutorService watchdog) throws IOException {
+			ScheduledFuture<?> timeout = watchdog.schedule(this::destroy, timeoutMillis, TimeUnit.MILLISECONDS);
+			try {
+				send("PING");
+				String line;
+				while ((line = out.readLine()) != null) {
+					if (line.equals("PONG"))
+						return;
+				}
+				throw new IOException("no answer to ping");
+			} finally {
+				timeout.cancel(false);
+			}
+		}
+
+		boolean isAlive() {
+			return process.isAlive();
+		}
+
+		long pid() {
+			return process.pid();
+		}
+
+		void close() {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// already stopped
+			}
+		}
+
+		void stop(long timeoutMillis) {
+			try {
+				if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS))
+					destroy();
+			} catch (InterruptedException e) {
+				destroy();
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		void destroy() {
+			process.descendants().forEach(ProcessHandle::destroyForcibly);
+			process.destroyForcibly();
+		}
+
+		private void send(String line) throws IOException {
+			in.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+			in.flush();
+		}
+	}
+}
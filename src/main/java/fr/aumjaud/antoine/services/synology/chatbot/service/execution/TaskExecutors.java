@@ -0,0 +1,219 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.execution;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executors of the background work (downloads, chat deliveries, skills) and limits of the blocking work.
+ * With platform threads, each task type has a pool sized by its limit. With virtual threads,
+ * each task gets its own virtual thread and the limit of its type is enforced by a semaphore.
+ */
+public class TaskExecutors {
+
+	private static final Logger logger = LoggerFactory.getLogger(TaskExecutors.class);
+
+	public enum TaskType {
+		REQUEST("execution.request.max-concurrent", 50),
+		DOWNLOAD("execution.download.max-concurrent", 5),
+		DELIVERY("execution.delivery.max-concurrent", 10),
+		SKILL("execution.skill.max-concurrent", 20);
+
+		private final String limitKey;
+		private final int defaultLimit;
+
+		TaskType(String limitKey, int defaultLimit) {
+			this.limitKey = limitKey;
+			this.defaultLimit = defaultLimit;
+		}
+	}
+
+	private volatile Pools pools = new Pools(new Properties());
+
+	/**
+	 * Set config, the executors are rebuilt if the settings changed (running tasks are not interrupted)
+	 * @param properties the config to set
+	 */
+	public synchronized void setConfig(Properties properties) {
+		Pools newPools = new Pools(properties);
+		if (!newPools.sameAs(pools)) {
+			Pools previous = pools;
+			pools = newPools;
+			previous.shutdown();
+			logger.info("Task executors use {} threads, limits: {}", newPools.virtualThreads ? "virtual" : "platform", newPools.limits);
+		}
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		new Pools(properties);
+	}
+
+	/**
+	 * @return true if tasks run on virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		return pools.virtualThreads;
+	}
+
+	/**
+	 * @param type the type of task
+	 * @return the maximum number of tasks of this type running at the same time
+	 */
+	public int getLimit(TaskType type) {
+		return pools.limits.get(type);
+	}
+
+	/**
+	 * Run a task in background
+	 * @param type the type of the task, to apply its limit
+	 * @param task the task
+	 */
+	public void execute(TaskType type, Runnable task) {
+		supplyAsync(type, () -> {
+			task.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Run a task in background
+	 * @param type the type of the task, to apply its limit
+	 * @param task the task
+	 * @return the future result of the task
+	 */
+	public <T> CompletableFuture<T> supplyAsync(TaskType type, Supplier<T> task) {
+		Pools current = pools;
+		Semaphore limit = current.semaphores.get(type);
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			current.executorOf(type).execute(() -> {
+				try {
+					limit.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					future.completeExceptionally(e);
+					return;
+				}
+				try {
+					future.complete(task.get());
+				} catch (RuntimeException | Error e) {
+					logger.error("Error in {} task: {}", type, e.getMessage(), e);
+					future.completeExceptionally(e);
+				} finally {
+					limit.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Run a blocking task in the caller thread if its type is under its limit
+	 * @param type the type of the task, to apply its limit
+	 * @param task the task
+	 * @return the result of the task, null if the limit was still reached after the configured wait
+	 */
+	public <T> T callLimited(TaskType type, Supplier<T> task) {
+		Pools current = pools;
+		Semaphore limit = current.semaphores.get(type);
+		try {
+			if (!limit.tryAcquire(current.waitMillis, TimeUnit.MILLISECONDS))
+				return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		try {
+			return task.get();
+		} finally {
+			limit.release();
+		}
+	}
+
+	/**
+	 * Build a thread factory for long running loops (not limited)
+	 * @param name the prefix of the thread names
+	 * @return a factory of virtual threads, or of daemon platform threads
+	 */
+	public ThreadFactory threadFactory(String name) {
+		return pools.virtualThreads ? Thread.ofVirtual().name(name + "-", 0).factory() : daemon(name);
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private static ThreadFactory daemon(String name) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + counter.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private static class Pools {
+		private final boolean virtualThreads;
+		private final long waitMillis;
+		private final Map<TaskType, Integer> limits = new EnumMap<>(TaskType.class);
+		private final Map<TaskType, Semaphore> semaphores = new EnumMap<>(TaskType.class);
+		private final Map<TaskType, ExecutorService> executors = new EnumMap<>(TaskType.class);
+		private ExecutorService virtualExecutor;
+
+		private Pools(Properties properties) {
+			virtualThreads = Boolean.parseBoolean(properties.getProperty("execution.virtual-threads", "false"));
+			waitMillis = Long.parseLong(properties.getProperty("execution.request.wait-ms", "1000"));
+			for (TaskType type : TaskType.values()) {
+				int limit = Integer.parseInt(properties.getProperty(type.limitKey, String.valueOf(type.defaultLimit)));
+				limits.put(type, limit);
+				semaphores.put(type, new Semaphore(limit));
+			}
+		}
+
+		/**
+		 * Executors are created on first use. REQUEST tasks run in the caller thread with callLimited,
+		 * or in their own pool when submitted (fan-out of a message to several users)
+		 */
+		private synchronized ExecutorService executorOf(TaskType type) {
+			if (virtualThreads) {
+				if (virtualExecutor == null)
+					virtualExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("task-", 0).factory());
+				return virtualExecutor;
+			}
+			return executors.computeIfAbsent(type,
+					key -> Executors.newFixedThreadPool(limits.get(key), daemon("task-" + key.name().toLowerCase())));
+		}
+
+		private synchronized void shutdown() {
+			executors.values().forEach(ExecutorService::shutdown);
+			if (virtualExecutor != null)
+				virtualExecutor.shutdown();
+		}
+
+		private boolean sameAs(Pools other) {
+			return other != null
+					&& virtualThreads == other.virtualThreads
+					&& waitMillis == other.waitMillis
+					&& limits.equals(other.limits);
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A counter which only goes up, incremented without lock (striped cells summed on read)
+ */
+public class Counter {
+
+	private final LongAdder value = new LongAdder();
+
+	public void increment() {
+		value.increment();
+	}
+
+	public void add(long amount) {
+		value.add(amount);
+	}
+
+	public long get() {
+		return value.sum();
+	}
+}
@@ -0,0 +1,82 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of durations in logarithmic buckets (powers of 2 of nanoseconds, from 1 µs to 68 s),
+ * recorded without lock: the bucket of a value is found from its leading zeros and incremented in a striped counter.
+ * The relative error of a bucket bound is at most x2, enough for latencies spread over several orders of magnitude.
+ */
+public class Histogram {
+
+	static final int MIN_EXPONENT = 10; // first bucket: up to 1024 ns
+	static final int BUCKETS = 27; // last bucket: up to 2^36 ns, then +Inf
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS + 1];
+	private final LongAdder sumNanos = new LongAdder();
+
+	public Histogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record a duration
+	 * @param nanos the duration, in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets[index(nanos)].increment();
+		sumNanos.add(nanos);
+	}
+
+	/**
+	 * Record the time elapsed since a start
+	 * @param startNanos the start, from System.nanoTime()
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	public long getSumNanos() {
+		return sumNanos.sum();
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	/**
+	 * @return the number of values recorded in a bucket (not cumulative)
+	 */
+	long getBucketCount(int index) {
+		return buckets[index].sum();
+	}
+
+	/**
+	 * @return the bucket of a value: the smallest power of 2 greater or equal to it
+	 */
+	static int index(long nanos) {
+		if (nanos <= 1L << MIN_EXPONENT)
+			return 0;
+		int exponent = 64 - Long.numberOfLeadingZeros(nanos - 1);
+		return Math.min(exponent - MIN_EXPONENT, BUCKETS);
+	}
+
+	/**
+	 * @return the upper bound of a bucket (inclusive), in nanoseconds, Long.MAX_VALUE for the last one
+	 */
+	static long upperBound(int index) {
+		return index < BUCKETS ? 1L << (MIN_EXPONENT + index) : Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,166 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of the bot, rendered in the Prometheus text exposition format.
+ * A metric is looked up once (by name and labels) and kept by its user, recording is then lock-free.
+ * Labels are given as name/value pairs: counter("chatbot_send_total", "Messages sent", "result", "sent")
+ */
+public class MetricsRegistry {
+
+	/**
+	 * The registry exposed on /metrics
+	 */
+	public static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+	private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Get or create a counter
+	 * @param name the metric name, suffixed by _total
+	 * @param help the description of the metric
+	 * @param labels the label names and values
+	 * @return the counter
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		return (Counter) family(name, help, Type.COUNTER).metrics.computeIfAbsent(labels(labels), key -> new Counter());
+	}
+
+	/**
+	 * Get or create a histogram of durations, exposed in seconds
+	 * @param name the metric name, suffixed by _seconds
+	 * @param help the description of the metric
+	 * @param labels the label names and values
+	 * @return the histogram
+	 */
+	public Histogram histogram(String name, String help, String... labels) {
+		return (Histogram) family(name, help, Type.HISTOGRAM).metrics.computeIfAbsent(labels(labels), key -> new Histogram());
+	}
+
+	/**
+	 * Register a gauge, read on each rendering (it replaces the gauge registered with the same name and labels)
+	 * @param name the metric name
+	 * @param help the description of the metric
+	 * @param value the current value
+	 * @param labels the label names and values
+	 */
+	public void gauge(String name, String help, LongSupplier value, String... labels) {
+		family(name, help, Type.GAUGE).metrics.put(labels(labels), value);
+	}
+
+	/**
+	 * @return the metrics in the Prometheus text exposition format (version 0.0.4)
+	 */
+	public String render() {
+		StringBuilder out = new StringBuilder(4096);
+		for (Family family : families.values()) {
+			out.append("# HELP ").append(family.name).append(' ').append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+			out.append("# TYPE ").append(family.name).append(' ').append(family.type.name().toLowerCase()).append('\n');
+			for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+				String labels = metric.getKey();
+				switch (family.type) {
+				case COUNTER:
+					sample(out, family.name, labels, null, ((Counter) metric.getValue()).get());
+					break;
+				case GAUGE:
+					sample(out, family.name, labels, null, ((LongSupplier) metric.getValue()).getAsLong());
+					break;
+				case HISTOGRAM:
+					renderHistogram(out, family.name, labels, (Histogram) metric.getValue());
+					break;
+				}
+			}
+		}
+		return out.toString();
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private enum Type {
+		COUNTER, GAUGE, HISTOGRAM
+	}
+
+	private Family family(String name, String help, Type type) {
+		Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+		if (family.type != type)
+			throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type.name().toLowerCase());
+		return family;
+	}
+
+	/**
+	 * @return the labels as rendered between braces, with their values escaped
+	 */
+	static String labels(String... labels) {
+		if (labels.length % 2 != 0)
+			throw new IllegalArgumentException("Labels must be name/value pairs");
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			if (i > 0)
+				out.append(',');
+			out.append(labels[i]).append("=\"");
+			String value = labels[i + 1] != null ? labels[i + 1] : "";
+			for (int j = 0; j < value.length(); j++) {
+				char c = value.charAt(j);
+				if (c == '\\' || c == '"')
+					out.append('\\').append(c);
+				else if (c == '\n')
+					out.append("\\n");
+				else
+					out.append(c);
+			}
+			out.append('"');
+		}
+		return out.toString();
+	}
+
+	private static void renderHistogram(StringBuilder out, String name, String labels, Histogram histogram) {
+		String bucketName = name + "_bucket";
+		String separator = labels.isEmpty() ? "" : ",";
+		long cumulative = 0;
+		for (int i = 0; i <= Histogram.BUCKETS; i++) {
+			cumulative += histogram.getBucketCount(i);
+			String le = i < Histogram.BUCKETS ? seconds(Histogram.upperBound(i)) : "+Inf";
+			sample(out, bucketName, labels + separator + "le=\"" + le + "\"", null, cumulative);
+		}
+		sample(out, name + "_sum", labels, seconds(histogram.getSumNanos()), 0);
+		sample(out, name + "_count", labels, null, cumulative);
+	}
+
+	private static void sample(StringBuilder out, String name, String labels, String text, long value) {
+		out.append(name);
+		if (!labels.isEmpty())
+			out.append('{').append(labels).append('}');
+		out.append(' ');
+		if (text != null)
+			out.append(text);
+		else
+			out.append(value);
+		out.append('\n');
+	}
+
+	private static String seconds(long nanos) {
+		return Double.toString(nanos / 1e9);
+	}
+
+	/**
+	 * The metrics of a name, by labels
+	 */
+	private static class Family {
+		private final String name;
+		private final String help;
+		private final Type type;
+		private final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+		Family(String name, String help, Type type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.skill;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reply a static string, to check the bot is up
+ */
+public class EchoSkill implements Skill {
+
+	public static final String ECHO = "echo from bot service";
+
+	@Override
+	public String getName() {
+		return "echo";
+	}
+
+	@Override
+	public List<SkillTrigger> getTriggers() {
+		return Collections.singletonList(SkillTrigger.prefix("echo"));
+	}
+
+	@Override
+	public String handle(SkillRequest request) {
+		return ECHO;
+	}
+}
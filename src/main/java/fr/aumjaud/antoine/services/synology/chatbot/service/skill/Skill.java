@@ -0,0 +1,72 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.skill;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Function;
+
+/**
+ * A command of the bot. Skills are registered by the bot service, or found with ServiceLoader:
+ * list the implementations in META-INF/services/fr.aumjaud.antoine.services.synology.chatbot.service.skill.Skill
+ */
+public interface Skill {
+
+	/**
+	 * @return the name of the skill, used in logs and config
+	 */
+	String getName();
+
+	/**
+	 * @return the triggers of the skill: message prefixes, message patterns or channels
+	 */
+	List<SkillTrigger> getTriggers();
+
+	/**
+	 * Handle a message
+	 * @param request the message received
+	 * @return the response to send to the chat
+	 */
+	String handle(SkillRequest request);
+
+	/**
+	 * Set config
+	 * @param properties the config to set
+	 */
+	default void setConfig(Properties properties) {
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	default void checkConfig(Properties properties) {
+	}
+
+	/**
+	 * Build a skill from a function (built-in skills using the state of the bot service)
+	 * @param name the name of the skill
+	 * @param handler the handler of the messages
+	 * @param triggers the triggers of the skill
+	 * @return the skill
+	 */
+	static Skill of(String name, Function<SkillRequest, String> handler, SkillTrigger... triggers) {
+		List<SkillTrigger> triggerList = Arrays.asList(triggers);
+		return new Skill() {
+			@Override
+			public String getName() {
+				return name;
+			}
+
+			@Override
+			public List<SkillTrigger> getTriggers() {
+				return triggerList;
+			}
+
+			@Override
+			public String handle(SkillRequest request) {
+				return handler.apply(request);
+			}
+		};
+	}
+}
@@ -0,0 +1,154 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.skill;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.delivery.MessageSender;
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors;
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors.TaskType;
+
+/**
+ * Run the skills with a deadline: Synology Chat drops the response of an outgoing webhook after a few seconds,
+ * so a skill missing its deadline is acknowledged at once, and its response is sent to the user when ready.
+ * The deadline of a skill is skill.[name].timeout-ms, or skill.timeout-ms (0 = run in the request thread, no deadline).
+ */
+public class SkillDispatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(SkillDispatcher.class);
+
+	private final TaskExecutors taskExecutors;
+	private final MessageSender sender;
+	private final Map<String, SkillStats> stats = new ConcurrentHashMap<>();
+
+	private volatile Settings settings = new Settings(new Properties());
+
+	/**
+	 * @param taskExecutors the executors running the skills
+	 * @param sender the sender of the deferred responses
+	 */
+	public SkillDispatcher(TaskExecutors taskExecutors, MessageSender sender) {
+		this.taskExecutors = taskExecutors;
+		this.sender = sender;
+	}
+
+	/**
+	 * Set config, the deadlines are read once
+	 * @param properties the config to set
+	 */
+	public void setConfig(Properties properties) {
+		settings = new Settings(properties);
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		new Settings(properties);
+	}
+
+	/**
+	 * Run a skill
+	 * @param skill the skill triggered by the message
+	 * @param request the message
+	 * @return the response of the skill, or an acknowledgement if the response will be sent later
+	 */
+	public String dispatch(Skill skill, SkillRequest request) {
+		SkillStats skillStats = stats.computeIfAbsent(skill.getName(), name -> new SkillStats());
+		skillStats.called();
+		Settings current = settings;
+		long timeoutMillis = current.timeoutOf(skill);
+		if (timeoutMillis <= 0) {
+			try {
+				return skill.handle(request);
+			} catch (RuntimeException e) {
+				skillStats.failed();
+				throw e;
+			}
+		}
+
+		CompletableFuture<String> response = taskExecutors.supplyAsync(TaskType.SKILL, () -> skill.handle(request));
+		try {
+			return response.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			skillStats.deferred();
+			logger.info("Skill {} missed its deadline of {} ms, response deferred for {}", skill.getName(), timeoutMillis, request.getUserName());
+			response.whenComplete((message, error) -> sendDeferred(skill, request, skillStats, message, error));
+			return current.deferredMessage;
+		} catch (ExecutionException e) {
+			skillStats.failed();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for skill " + skill.getName(), e);
+		}
+	}
+
+	/**
+	 * @return the counters of the skills called, by skill name
+	 */
+	public Map<String, SkillStats> getStats() {
+		return new TreeMap<>(stats);
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private void sendDeferred(Skill skill, SkillRequest request, SkillStats skillStats, String message, Throwable error) {
+		if (error != null) {
+			skillStats.failed();
+			message = "❌ Error: " + error.getMessage();
+		}
+		try {
+			sender.sendAsync(request.getUserName(), message, null).whenComplete((sent, e) -> {
+				if (e != null || !Boolean.TRUE.equals(sent))
+					logger.error("Deferred response of skill {} NOT sent to {}", skill.getName(), request.getUserName());
+			});
+		} catch (RuntimeException e) {
+			logger.error("Deferred response of skill {} NOT sent to {}: {}", skill.getName(), request.getUserName(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Immutable deadlines of the skills, read once on each config
+	 */
+	private static class Settings {
+		private static final String PREFIX = "skill.";
+		private static final String SUFFIX = ".timeout-ms";
+
+		private final long defaultTimeoutMillis;
+		private final Map<String, Long> timeoutsMillis; // by skill name
+		private final String deferredMessage;
+
+		private Settings(Properties properties) {
+			defaultTimeoutMillis = Long.parseLong(properties.getProperty("skill.timeout-ms", "3000"));
+			Map<String, Long> timeouts = new HashMap<>();
+			for (String key : properties.stringPropertyNames()) {
+				if (key.startsWith(PREFIX) && key.endsWith(SUFFIX) && key.length() > PREFIX.length() + SUFFIX.length()) {
+					timeouts.put(key.substring(PREFIX.length(), key.length() - SUFFIX.length()), Long.parseLong(properties.getProperty(key)));
+				}
+			}
+			timeoutsMillis = Collections.unmodifiableMap(timeouts);
+			deferredMessage = properties.getProperty("skill.deferred-message", "⏳ Working on it, the response will follow.");
+		}
+
+		private long timeoutOf(Skill skill) {
+			return timeoutsMillis.getOrDefault(skill.getName(), defaultTimeoutMillis);
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.skill;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The skills of the bot and their triggers. Triggers are compiled once (on registration and config),
+ * so routing a message costs a walk of its prefix in a trie, one match of the combined patterns, and a channel lookup,
+ * whatever the number of skills. The patterns with groups are matched alone: their group numbers and names
+ * would be changed or clash in a combined pattern.
+ */
+public class SkillRegistry {
+
+	private static final Logger logger = LoggerFactory.getLogger(SkillRegistry.class);
+
+	private final List<Skill> skills = new CopyOnWriteArrayList<>();
+	private volatile Properties properties = new Properties();
+	private volatile Router router = new Router(new ArrayList<>(), new Properties());
+
+	/**
+	 * Register a skill
+	 * @param skill the skill to add
+	 */
+	public synchronized void register(Skill skill) {
+		skills.add(skill);
+		skill.setConfig(properties);
+		router = new Router(skills, properties);
+		logger.info("Skill {} registered with triggers {}", skill.getName(), skill.getTriggers());
+	}
+
+	/**
+	 * Register the skills declared in META-INF/services
+	 * @param classLoader the class loader where skills are searched
+	 * @return the number of skills registered
+	 */
+	public int loadServices(ClassLoader classLoader) {
+		int count = 0;
+		for (Skill skill : ServiceLoader.load(Skill.class, classLoader)) {
+			register(skill);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Set config of the skills, the channel triggers are resolved with it
+	 * @param properties the config to set
+	 */
+	public synchronized void setConfig(Properties properties) {
+		this.properties = properties;
+		for (Skill skill : skills) {
+			skill.setConfig(properties);
+		}
+		router = new Router(skills, properties);
+	}
+
+	/**
+	 * Check a config of the skills without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public synchronized void checkConfig(Properties properties) {
+		for (Skill skill : skills) {
+			skill.checkConfig(properties);
+		}
+		new Router(skills, properties);
+	}
+
+	/**
+	 * Find the skill of a message
+	 * @param channelId the channel Id which send the message
+	 * @param message the message sent
+	 * @return the skill and its arguments, null if no skill is triggered
+	 */
+	public Route route(String channelId, String message) {
+		return router.route(channelId, message);
+	}
+
+	/**
+	 * @return the skills registered
+	 */
+	public List<Skill> getSkills() {
+		return new ArrayList<>(skills);
+	}
+
+	/**
+	 * A skill selected for a message
+	 */
+	public static class Route {
+		private final Skill skill;
+		private final String arguments;
+
+		Route(Skill skill, String arguments) {
+			this.skill = skill;
+			this.arguments = arguments;
+		}
+
+		public Skill getSkill() {
+			return skill;
+		}
+
+		/**
+		 * @return the message without the prefix which selected the skill (trimmed), the whole message otherwise
+		 */
+		public String getArguments() {
+			return arguments;
+		}
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	/**
+	 * Immutable compiled triggers, replaced on each change
+	 */
+	private static class Router {
+		private final Node prefixes = new Node();
+		private final List<PatternGroup> patternGroups = new ArrayList<>();
+		private final Map<String, Skill> channels = new HashMap<>();
+		private Skill fallback;
+
+		Router(List<Skill> skills, Properties properties) {
+			PatternGroup combined = null;
+			for (Skill skill : skills) {
+				for (SkillTrigger trigger : skill.getTriggers()) {
+					switch (trigger.getType()) {
+					case PREFIX:
+						prefixes.add(trigger.getValue(), skill);
+						break;
+					case PATTERN:
+						Pattern pattern = Pattern.compile(trigger.getValue(), Pattern.DOTALL); // fail on the wrong pattern, not on the combined one
+						if (pattern.matcher("").groupCount() > 0) {
+							patternGroups.add(new PatternGroup(pattern, skill));
+							combined = null;
+						} else {
+							if (combined == null) {
+								combined = new PatternGroup();
+								patternGroups.add(combined);
+							}
+							combined.add(trigger.getValue(), skill);
+						}
+						break;
+					case CHANNEL:
+						String channelId = properties.getProperty(trigger.getValue());
+						if (channelId != null && !channelId.isEmpty())
+							channels.putIfAbsent(channelId, skill);
+						break;
+					case FALLBACK:
+						if (fallback == null)
+							fallback = skill;
+						break;
+					}
+				}
+			}
+			for (PatternGroup patternGroup : patternGroups) {
+				patternGroup.compile();
+			}
+		}
+
+		Route route(String channelId, String message) {
+			// Longest prefix
+			Node node = prefixes;
+			Skill prefixSkill = null;
+			int prefixLength = 0;
+			for (int i = 0; i < message.length() && node != null; i++) {
+				node = node.children.get(message.charAt(i));
+				if (node != null && node.skill != null) {
+					prefixSkill = node.skill;
+					prefixLength = i + 1;
+				}
+			}
+			if (prefixSkill != null)
+				return new Route(prefixSkill, message.substring(prefixLength).trim());
+
+			// First pattern matching the whole message
+			for (PatternGroup patternGroup : patternGroups) {
+				Skill patternSkill = patternGroup.match(message);
+				if (patternSkill != null)
+					return new Route(patternSkill, message);
+			}
+
+			// Channel binding, then fallback
+			Skill channelSkill = channelId != null ? channels.get(channelId) : null;
+			if (channelSkill != null)
+				return new Route(channelSkill, message);
+			return fallback != null ? new Route(fallback, message) : null;
+		}
+	}
+
+	/**
+	 * Consecutive patterns without groups combined in one alternation (a named group by pattern),
+	 * or a pattern with groups matched alone
+	 */
+	private static class PatternGroup {
+		private final StringBuilder alternatives = new StringBuilder();
+		private final List<Skill> skills = new ArrayList<>();
+		private Pattern pattern;
+
+		PatternGroup() {
+		}
+
+		PatternGroup(Pattern pattern, Skill skill) {
+			this.pattern = pattern;
+			skills.add(skill);
+		}
+
+		void add(String regex, Skill skill) {
+			if (alternatives.length() > 0)
+				alternatives.append('|');
+			alternatives.append("(?<s").append(skills.size()).append('>').append(regex).append(')');
+			skills.add(skill);
+		}
+
+		void compile() {
+			if (pattern == null)
+				pattern = Pattern.compile(alternatives.toString(), Pattern.DOTALL);
+		}
+
+		Skill match(String message) {
+			Matcher matcher = pattern.matcher(message);
+			if (!matcher.matches())
+				return null;
+			if (alternatives.length() == 0)
+				return skills.get(0);
+			for (int i = 0; i < skills.size(); i++) {
+				if (matcher.start("s" + i) >= 0)
+					return skills.get(i);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Node of the prefix trie
+	 */
+	private static class Node {
+		private final Map<Character, Node> children = new HashMap<>();
+		private Skill skill;
+
+		void add(String prefix, Skill prefixSkill) {
+			Node node = this;
+			for (int i = 0; i < prefix.length(); i++) {
+				node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node());
+			}
+			if (node.skill == null)
+				node.skill = prefixSkill; // first registered wins
+		}
+	}
+}
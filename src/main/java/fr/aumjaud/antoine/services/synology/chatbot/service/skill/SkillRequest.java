@@ -0,0 +1,38 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.skill;
+
+/**
+ * A message sent to a skill
+ */
+public class SkillRequest {
+
+	private final String channelId;
+	private final String userName;
+	private final String message;
+	private final String arguments;
+
+	public SkillRequest(String channelId, String userName, String message, String arguments) {
+		this.channelId = channelId;
+		this.userName = userName;
+		this.message = message;
+		this.arguments = arguments;
+	}
+
+	public String getChannelId() {
+		return channelId;
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return the message without the prefix which selected the skill (trimmed), the whole message otherwise
+	 */
+	public String getArguments() {
+		return arguments;
+	}
+}
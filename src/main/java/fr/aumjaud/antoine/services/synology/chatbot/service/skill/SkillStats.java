@@ -0,0 +1,37 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.skill;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a skill: calls, calls answered after their deadline (deferred), and failures
+ */
+public class SkillStats {
+
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder deferred = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	void called() {
+		calls.increment();
+	}
+
+	void deferred() {
+		deferred.increment();
+	}
+
+	void failed() {
+		failed.increment();
+	}
+
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	public long getDeferred() {
+		return deferred.sum();
+	}
+
+	public long getFailed() {
+		return failed.sum();
+	}
+}
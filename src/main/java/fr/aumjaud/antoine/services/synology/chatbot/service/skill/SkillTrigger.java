@@ -0,0 +1,63 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.skill;
+
+/**
+ * What selects a skill for a message.
+ * Prefixes are checked first (the longest wins), then patterns (in registration order), then channels,
+ * and the fallback takes the messages not triggering any other skill.
+ */
+public final class SkillTrigger {
+
+	public enum Type { PREFIX, PATTERN, CHANNEL, FALLBACK }
+
+	private final Type type;
+	private final String value;
+
+	private SkillTrigger(Type type, String value) {
+		this.type = type;
+		this.value = value;
+	}
+
+	/**
+	 * @param prefix the start of the messages, ie: echo
+	 * @return the trigger
+	 */
+	public static SkillTrigger prefix(String prefix) {
+		return new SkillTrigger(Type.PREFIX, prefix);
+	}
+
+	/**
+	 * @param regex the regular expression matching the whole message
+	 * @return the trigger
+	 */
+	public static SkillTrigger pattern(String regex) {
+		return new SkillTrigger(Type.PATTERN, regex);
+	}
+
+	/**
+	 * @param configKey the key of the channel id in config, ie: mp3.channel-id
+	 * @return the trigger
+	 */
+	public static SkillTrigger channel(String configKey) {
+		return new SkillTrigger(Type.CHANNEL, configKey);
+	}
+
+	/**
+	 * @return the trigger of the messages not triggering any other skill
+	 */
+	public static SkillTrigger fallback() {
+		return new SkillTrigger(Type.FALLBACK, "*");
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return type.name().toLowerCase() + ":" + value;
+	}
+}
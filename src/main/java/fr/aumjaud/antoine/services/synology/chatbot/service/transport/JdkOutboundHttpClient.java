@@ -0,0 +1,237 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.transport;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Outbound HTTP calls with the JDK client: connections are kept alive and reused,
+ * and HTTP/2 is used when the server supports it. When the settings change, the previous client
+ * is closed once its requests in flight are done.
+ */
+public class JdkOutboundHttpClient implements OutboundHttpClient {
+
+	private static final Logger logger = LoggerFactory.getLogger(JdkOutboundHttpClient.class);
+
+	private volatile Settings settings;
+
+	public JdkOutboundHttpClient() {
+		settings = new Settings(new Properties()).open();
+	}
+
+	/**
+	 * Set config, the client (and its connection pool) is rebuilt only if the settings changed
+	 * @param properties the config to set
+	 */
+	public void setConfig(Properties properties) {
+		Settings newSettings = new Settings(properties);
+		if (!newSettings.sameAs(settings)) {
+			Settings previous = settings;
+			settings = newSettings.open();
+			previous.retire();
+		}
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		new Settings(properties); // not opened
+	}
+
+	@Override
+	public OutboundResponse get(String url) {
+		Settings current = acquire();
+		try {
+			HttpResponse<String> response = current.client.send(current.request(url).GET().build(), HttpResponse.BodyHandlers.ofString());
+			return new OutboundResponse(response.statusCode(), response.body());
+		} catch (IOException | IllegalArgumentException e) {
+			logger.error("GET {} failed: {}", url, e.getMessage());
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			current.release();
+		}
+	}
+
+	@Override
+	public OutboundResponse postForm(URI url, String formBody) {
+		Settings current = acquire();
+		try {
+			HttpResponse<String> response = current.client.send(current.formPost(url, formBody), HttpResponse.BodyHandlers.ofString());
+			return new OutboundResponse(response.statusCode(), response.body());
+		} catch (IOException | IllegalArgumentException e) {
+			logger.error("POST {} failed: {}", url, e.getMessage());
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			current.release();
+		}
+	}
+
+	@Override
+	public CompletableFuture<OutboundResponse> postFormAsync(URI url, String formBody) {
+		Settings current = acquire();
+		HttpRequest request;
+		try {
+			request = current.formPost(url, formBody);
+		} catch (IllegalArgumentException e) {
+			current.release();
+			logger.error("POST {} failed: {}", url, e.getMessage());
+			return CompletableFuture.completedFuture(null);
+		}
+		return current.client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+				.handle((response, e) -> {
+					current.release();
+					if (e != null) {
+						logger.error("POST {} failed: {}", url, e.getMessage());
+						return null;
+					}
+					return new OutboundResponse(response.statusCode(), response.body());
+				});
+	}
+
+	@Override
+	public int postJsonLines(String url, String authorization, String jsonBody, long timeoutMillis, Consumer<String> lines) {
+		Settings current = acquire();
+		try {
+			HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+					.timeout(Duration.ofMillis(timeoutMillis))
+					.header("Content-Type", "application/json; charset=UTF-8")
+					.POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8));
+			if (authorization != null)
+				request.header("Authorization", authorization);
+			HttpResponse<Stream<String>> response = current.client.send(request.build(), HttpResponse.BodyHandlers.ofLines());
+			try (Stream<String> body = response.body()) {
+				body.forEach(lines);
+			}
+			return response.statusCode();
+		} catch (IOException | IllegalArgumentException | UncheckedIOException e) {
+			logger.error("POST {} failed: {}", url, e.getMessage());
+			return -1;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return -1;
+		} finally {
+			current.release();
+		}
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	/**
+	 * @return the current settings, counted in use until released
+	 */
+	private Settings acquire() {
+		while (true) {
+			Settings current = settings;
+			if (current.acquire())
+				return current;
+		}
+	}
+
+	private static class Settings {
+		private final long connectTimeoutMillis;
+		private final long requestTimeoutMillis;
+		private final HttpClient.Version version;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicBoolean closed = new AtomicBoolean();
+		private volatile boolean retired;
+		private HttpClient client;
+
+		private Settings(Properties properties) {
+			connectTimeoutMillis = Long.parseLong(properties.getProperty("http.connect-timeout-ms", "5000"));
+			requestTimeoutMillis = Long.parseLong(properties.getProperty("http.request-timeout-ms", "10000"));
+			version = HttpClient.Version.valueOf(properties.getProperty("http.version", "HTTP_2"));
+		}
+
+		/**
+		 * Build the client (and its connection pool) for these settings
+		 */
+		private Settings open() {
+			client = HttpClient.newBuilder()
+					.version(version)
+					.connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+					.followRedirects(HttpClient.Redirect.NORMAL)
+					.build();
+			return this;
+		}
+
+		/**
+		 * Count a request in flight
+		 * @return false if these settings are retired, the current ones have to be used
+		 */
+		private boolean acquire() {
+			inFlight.incrementAndGet();
+			if (retired) {
+				release();
+				return false;
+			}
+			return true;
+		}
+
+		private void release() {
+			if (inFlight.decrementAndGet() == 0 && retired)
+				close();
+		}
+
+		/**
+		 * Stop using these settings, the client is closed when no request is in flight
+		 */
+		private void retire() {
+			retired = true;
+			if (inFlight.get() == 0)
+				close();
+		}
+
+		private void close() {
+			if (closed.compareAndSet(false, true))
+				client.shutdown(); // no new request, the running ones complete
+		}
+
+		private HttpRequest.Builder request(String url) {
+			return request(URI.create(url));
+		}
+
+		private HttpRequest.Builder request(URI url) {
+			return HttpRequest.newBuilder(url)
+					.timeout(Duration.ofMillis(requestTimeoutMillis));
+		}
+
+		private HttpRequest formPost(URI url, String formBody) {
+			return request(url)
+					.header("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8")
+					.POST(HttpRequest.BodyPublishers.ofString(formBody, StandardCharsets.UTF_8))
+					.build();
+		}
+
+		private boolean sameAs(Settings other) {
+			return other != null
+					&& connectTimeoutMillis == other.connectTimeoutMillis
+					&& requestTimeoutMillis == other.requestTimeoutMillis
+					&& version == other.version;
+		}
+	}
+}
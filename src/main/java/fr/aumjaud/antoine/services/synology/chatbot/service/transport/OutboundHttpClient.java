@@ -0,0 +1,45 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.transport;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Outbound HTTP calls of the chatbot (Synology Chat, Travis...)
+ */
+public interface OutboundHttpClient {
+
+	/**
+	 * GET an URL
+	 * @param url the URL
+	 * @return the response, null if the server can't be reached
+	 */
+	OutboundResponse get(String url);
+
+	/**
+	 * POST a form-urlencoded body
+	 * @param url the URL
+	 * @param formBody the body, already encoded
+	 * @return the response, null if the server can't be reached
+	 */
+	OutboundResponse postForm(URI url, String formBody);
+
+	/**
+	 * POST a form-urlencoded body without blocking the caller
+	 * @param url the URL
+	 * @param formBody the body, already encoded
+	 * @return the future response, completed with null if the server can't be reached
+	 */
+	CompletableFuture<OutboundResponse> postFormAsync(URI url, String formBody);
+
+	/**
+	 * POST a JSON body and read the response line by line while it is received (ie: server-sent events)
+	 * @param url the URL
+	 * @param authorization the Authorization header (null = none)
+	 * @param jsonBody the body
+	 * @param timeoutMillis the timeout of the whole response
+	 * @param lines the consumer of the response lines
+	 * @return the status code, -1 if the server can't be reached
+	 */
+	int postJsonLines(String url, String authorization, String jsonBody, long timeoutMillis, Consumer<String> lines);
+}
@@ -0,0 +1,29 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.transport;
+
+public class OutboundResponse {
+
+	private final int statusCode;
+	private final String content;
+
+	public OutboundResponse(int statusCode, String content) {
+		this.statusCode = statusCode;
+		this.content = content;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	public String getContent() {
+		return content;
+	}
+
+	public boolean isOk() {
+		return statusCode == 200;
+	}
+
+	@Override
+	public String toString() {
+		return statusCode + " " + content;
+	}
+}
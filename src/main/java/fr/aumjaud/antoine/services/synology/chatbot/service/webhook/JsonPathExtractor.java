@@ -0,0 +1,125 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.webhook;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import fr.aumjaud.antoine.services.common.security.WrongRequestException;
+
+/**
+ * Extract values of a JSON document by their path (ie: "workflow_run.head_commit.message", "commits.0.id")
+ * in one streaming pass: the paths are compiled in a tree, the branches of the document not in the tree are skipped
+ * without being built.
+ */
+public class JsonPathExtractor {
+
+	private final Node root = new Node();
+	private final int size;
+
+	/**
+	 * @param paths the paths to extract, segments separated by dots (array elements by their index)
+	 */
+	public JsonPathExtractor(List<String> paths) {
+		size = paths.size();
+		for (int i = 0; i < paths.size(); i++) {
+			Node node = root;
+			for (String segment : paths.get(i).split("\\.")) {
+				if (segment.isEmpty())
+					throw new IllegalArgumentException("Wrong JSON path: " + paths.get(i));
+				node = node.children.computeIfAbsent(segment, key -> new Node());
+			}
+			node.slots = Arrays.copyOf(node.slots, node.slots.length + 1);
+			node.slots[node.slots.length - 1] = i;
+		}
+	}
+
+	/**
+	 * Extract the values of the paths
+	 * @param json the JSON document, in UTF-8
+	 * @return the values, in the order of the paths, null when missing or not a string, number or boolean
+	 * @throws WrongRequestException if the document is not valid JSON
+	 */
+	public String[] extract(byte[] json) {
+		String[] values = new String[size];
+		try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8))) {
+			reader.setLenient(true);
+			JsonToken token = reader.peek();
+			if (token != JsonToken.BEGIN_OBJECT && token != JsonToken.BEGIN_ARRAY)
+				throw new WrongRequestException("payload is not well formed", "Webhook payload is not a JSON object");
+			read(reader, root, values);
+		} catch (IOException | IllegalStateException | NumberFormatException e) {
+			throw new WrongRequestException("payload is not well formed", "Webhook payload is not valid JSON: " + e.getMessage());
+		}
+		return values;
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private static void read(JsonReader reader, Node node, String[] values) throws IOException {
+		switch (reader.peek()) {
+		case BEGIN_OBJECT:
+			if (node.children.isEmpty()) {
+				reader.skipValue();
+				return;
+			}
+			reader.beginObject();
+			while (reader.hasNext()) {
+				Node child = node.children.get(reader.nextName());
+				if (child != null)
+					read(reader, child, values);
+				else
+					reader.skipValue();
+			}
+			reader.endObject();
+			return;
+		case BEGIN_ARRAY:
+			if (node.children.isEmpty()) {
+				reader.skipValue();
+				return;
+			}
+			reader.beginArray();
+			for (int i = 0; reader.hasNext(); i++) {
+				Node child = node.children.get(Integer.toString(i));
+				if (child != null)
+					read(reader, child, values);
+				else
+					reader.skipValue();
+			}
+			reader.endArray();
+			return;
+		case STRING:
+		case NUMBER:
+			set(node, reader.nextString(), values);
+			return;
+		case BOOLEAN:
+			set(node, String.valueOf(reader.nextBoolean()), values);
+			return;
+		default:
+			reader.skipValue();
+		}
+	}
+
+	private static void set(Node node, String value, String[] values) {
+		for (int slot : node.slots) {
+			values[slot] = value;
+		}
+	}
+
+	/**
+	 * Segment of the compiled paths: the paths ending here, and the next segments
+	 */
+	private static class Node {
+		private final Map<String, Node> children = new HashMap<>();
+		private int[] slots = new int[0];
+	}
+}
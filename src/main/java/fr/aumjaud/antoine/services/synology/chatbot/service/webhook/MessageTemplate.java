@@ -0,0 +1,62 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.webhook;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message with placeholders, ie: "Pipeline {status} of {project} ({branch})".
+ * It is compiled once in literal parts and field indexes, a render only appends them.
+ */
+public class MessageTemplate {
+
+	private final String[] literals; // one more than fields: literal, field, literal, ..., literal
+	private final int[] fields;
+
+	private MessageTemplate(String[] literals, int[] fields) {
+		this.literals = literals;
+		this.fields = fields;
+	}
+
+	/**
+	 * Compile a template
+	 * @param template the template, fields between braces
+	 * @param fieldNames the known fields, a placeholder is replaced by the value of the same index
+	 * @return the compiled template
+	 * @throws IllegalArgumentException if a placeholder is not a known field
+	 */
+	public static MessageTemplate compile(String template, List<String> fieldNames) {
+		List<String> literals = new ArrayList<>();
+		List<Integer> fields = new ArrayList<>();
+		int start = 0;
+		int open;
+		while ((open = template.indexOf('{', start)) >= 0) {
+			int close = template.indexOf('}', open);
+			if (close < 0)
+				throw new IllegalArgumentException("Unclosed placeholder in template: " + template);
+			String name = template.substring(open + 1, close).trim();
+			int field = fieldNames.indexOf(name);
+			if (field < 0)
+				throw new IllegalArgumentException("Unknown field {" + name + "} in template: " + template);
+			literals.add(template.substring(start, open));
+			fields.add(field);
+			start = close + 1;
+		}
+		literals.add(template.substring(start));
+		return new MessageTemplate(literals.toArray(new String[0]), fields.stream().mapToInt(Integer::intValue).toArray());
+	}
+
+	/**
+	 * @param values the values of the fields, null are rendered empty
+	 * @return the message
+	 */
+	public String render(String[] values) {
+		StringBuilder message = new StringBuilder(128);
+		for (int i = 0; i < fields.length; i++) {
+			message.append(literals[i]);
+			String value = values[fields[i]];
+			if (value != null)
+				message.append(value);
+		}
+		return message.append(literals[fields.length]).toString();
+	}
+}
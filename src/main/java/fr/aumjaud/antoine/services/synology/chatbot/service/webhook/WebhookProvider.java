@@ -0,0 +1,231 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.webhook;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import fr.aumjaud.antoine.services.common.security.NoAccessException;
+import fr.aumjaud.antoine.services.common.security.WrongRequestException;
+import fr.aumjaud.antoine.services.synology.chatbot.service.HmacSha256Verifier;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Counter;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.Histogram;
+import fr.aumjaud.antoine.services.synology.chatbot.service.metrics.MetricsRegistry;
+
+/**
+ * A webhook provider declared in config (keys "webhook.&lt;name&gt;.*"): how its payload is signed,
+ * the fields read in it (JSON paths, alternatives separated by "|", a quoted literal as default value),
+ * and the templates of its message. All of it is compiled when the config is loaded.
+ */
+public class WebhookProvider {
+
+	private final String name;
+	private final Signature signature;
+	private final String signatureHeader;
+	private final String signatureParam;
+	private final String deliveryHeader;
+	private final String payloadParam;
+	private final JsonPathExtractor extractor;
+	private final int[][] fieldPaths; // by field, the indexes of its paths in the extractor
+	private final String[] fieldDefaults;
+	private final MessageTemplate template;
+	private final int templateField;
+	private final Map<String, MessageTemplate> templatesByValue = new HashMap<>();
+	private final Histogram verification;
+	private final Counter invalid;
+
+	/**
+	 * @param name the name of the provider
+	 * @param properties the config
+	 * @throws IllegalArgumentException if the provider is not correctly declared
+	 */
+	public WebhookProvider(String name, Properties properties) {
+		this.name = name;
+		String prefix = "webhook." + name + ".";
+		signature = Signature.of(name, properties.getProperty(prefix + "signature", ""), properties.getProperty(prefix + "secret", ""),
+				properties.getProperty(prefix + "signature-prefix", ""));
+		signatureHeader = properties.getProperty(prefix + "signature-header");
+		signatureParam = properties.getProperty(prefix + "signature-param");
+		if (signatureHeader == null && signatureParam == null)
+			throw new IllegalArgumentException("Webhook " + name + ": signature-header or signature-param must be set");
+		deliveryHeader = properties.getProperty(prefix + "delivery-header");
+		payloadParam = properties.getProperty(prefix + "payload-param");
+
+		// Fields: all their paths are read in a single pass
+		List<String> fieldNames = new ArrayList<>();
+		List<String> paths = new ArrayList<>();
+		List<int[]> pathsByField = new ArrayList<>();
+		List<String> defaults = new ArrayList<>();
+		for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+			if (!key.startsWith(prefix + "field."))
+				continue;
+			fieldNames.add(key.substring((prefix + "field.").length()));
+			List<Integer> fieldPathIndexes = new ArrayList<>();
+			String fieldDefault = null;
+			for (String alternative : properties.getProperty(key).split("\\|")) {
+				alternative = alternative.trim();
+				if (alternative.length() >= 2 && alternative.startsWith("'") && alternative.endsWith("'")) {
+					fieldDefault = alternative.substring(1, alternative.length() - 1);
+				} else if (!alternative.isEmpty()) {
+					fieldPathIndexes.add(paths.size());
+					paths.add(alternative);
+				}
+			}
+			pathsByField.add(fieldPathIndexes.stream().mapToInt(Integer::intValue).toArray());
+			defaults.add(fieldDefault);
+		}
+		extractor = new JsonPathExtractor(paths);
+		fieldPaths = pathsByField.toArray(new int[0][]);
+		fieldDefaults = defaults.toArray(new String[0]);
+
+		// Templates: the default one, and one by value of a field
+		String defaultTemplate = properties.getProperty(prefix + "template");
+		if (defaultTemplate == null)
+			throw new IllegalArgumentException("Webhook " + name + ": template must be set");
+		template = MessageTemplate.compile(defaultTemplate, fieldNames);
+		String templateBy = properties.getProperty(prefix + "template-by");
+		templateField = templateBy != null ? fieldNames.indexOf(templateBy) : -1;
+		if (templateBy != null && templateField < 0)
+			throw new IllegalArgumentException("Webhook " + name + ": unknown field " + templateBy + " in template-by");
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith(prefix + "template."))
+				templatesByValue.put(key.substring((prefix + "template.").length()).toLowerCase(Locale.ROOT),
+						MessageTemplate.compile(properties.getProperty(key), fieldNames));
+		}
+
+		verification = MetricsRegistry.DEFAULT.histogram("chatbot_signature_verification_seconds",
+				"Duration of the webhook signature checks, by provider", "provider", name);
+		invalid = MetricsRegistry.DEFAULT.counter("chatbot_signature_invalid_total",
+				"Webhook payloads rejected on their signature, by provider", "provider", name);
+	}
+
+	/**
+	 * Check the signature of a payload and build its message
+	 * @param payload the payload, as received
+	 * @param signatureValue the value of the signature header (or parameter)
+	 * @return the message
+	 * @throws WrongRequestException if the signature is missing or the payload is not valid JSON
+	 * @throws NoAccessException if the signature is invalid
+	 */
+	public String getMessage(byte[] payload, String signatureValue) {
+		if (signatureValue == null || signatureValue.isEmpty())
+			throw new WrongRequestException("signature is null", "No " + name + " signature sent with payload");
+		long start = System.nanoTime();
+		boolean valid;
+		try {
+			valid = signature.verify(payload, signatureValue);
+		} finally {
+			verification.recordSince(start);
+		}
+		if (!valid) {
+			invalid.increment();
+			throw new NoAccessException("wrong signature", name + " payload signature is invalid");
+		}
+		return render(extractor.extract(payload));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the header of the signature, null if sent as a parameter
+	 */
+	public String getSignatureHeader() {
+		return signatureHeader;
+	}
+
+	/**
+	 * @return the URL parameter of the signature, null if sent in a header
+	 */
+	public String getSignatureParam() {
+		return signatureParam;
+	}
+
+	/**
+	 * @return the header of the delivery id, null if the provider doesn't send one
+	 */
+	public String getDeliveryHeader() {
+		return deliveryHeader;
+	}
+
+	/**
+	 * @return the form parameter holding the payload, null if the payload is the body
+	 */
+	public String getPayloadParam() {
+		return payloadParam;
+	}
+
+	/**
+	 * @return true if the signature depends on the payload (so it identifies a redelivery)
+	 */
+	public boolean isSignatureOfPayload() {
+		return signature.ofPayload;
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	String render(String[] pathValues) {
+		String[] values = new String[fieldPaths.length];
+		for (int field = 0; field < fieldPaths.length; field++) {
+			for (int path : fieldPaths[field]) {
+				String value = pathValues[path];
+				if (value != null && !value.isEmpty()) {
+					values[field] = value;
+					break;
+				}
+			}
+			if (values[field] == null)
+				values[field] = fieldDefaults[field];
+		}
+		MessageTemplate selected = null;
+		if (templateField >= 0 && values[templateField] != null)
+			selected = templatesByValue.get(values[templateField].toLowerCase(Locale.ROOT));
+		return (selected != null ? selected : template).render(values);
+	}
+
+	/**
+	 * Signature schemes: "hmac-sha256" (hexadecimal digest of the payload, after a prefix), or "token" (a shared secret)
+	 */
+	private abstract static class Signature {
+		private final boolean ofPayload;
+
+		Signature(boolean ofPayload) {
+			this.ofPayload = ofPayload;
+		}
+
+		abstract boolean verify(byte[] payload, String value);
+
+		static Signature of(String name, String scheme, String secret, String prefix) {
+			if (secret.isEmpty())
+				throw new IllegalArgumentException("Webhook " + name + ": secret must be set");
+			byte[] secretBytes = secret.getBytes(StandardCharsets.UTF_8);
+			switch (scheme) {
+			case "hmac-sha256":
+				HmacSha256Verifier verifier = new HmacSha256Verifier(secretBytes);
+				return new Signature(true) {
+					@Override
+					boolean verify(byte[] payload, String value) {
+						return value.startsWith(prefix) && verifier.verify(payload, value, prefix.length());
+					}
+				};
+			case "token":
+				return new Signature(false) {
+					@Override
+					boolean verify(byte[] payload, String value) {
+						return MessageDigest.isEqual(secretBytes, value.getBytes(StandardCharsets.UTF_8)); // constant time
+					}
+				};
+			default:
+				throw new IllegalArgumentException("Webhook " + name + ": unknown signature scheme '" + scheme + "' (hmac-sha256 or token)");
+			}
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.webhook;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import fr.aumjaud.antoine.services.common.security.WrongRequestException;
+
+/**
+ * The webhook providers declared in config ("webhook.providers", separated by commas), compiled on each config change
+ */
+public class WebhookProviders {
+
+	private volatile Map<String, WebhookProvider> providers = Collections.emptyMap();
+
+	/**
+	 * Set config, all the providers are compiled before replacing the current ones
+	 * @param properties the config to set
+	 * @throws IllegalArgumentException if a provider is not correctly declared
+	 */
+	public void setConfig(Properties properties) {
+		providers = compile(properties);
+	}
+
+	/**
+	 * Check a config without applying it
+	 * @param properties the config to check
+	 * @throws IllegalArgumentException if the config is not valid
+	 */
+	public void checkConfig(Properties properties) {
+		compile(properties);
+	}
+
+	/**
+	 * @param name the name of the provider
+	 * @return the provider
+	 * @throws WrongRequestException if the provider is not declared
+	 */
+	public WebhookProvider get(String name) {
+		WebhookProvider provider = name != null ? providers.get(name) : null;
+		if (provider == null)
+			throw new WrongRequestException("unknown provider", "Webhook provider not declared in configuration: " + name);
+		return provider;
+	}
+
+	/*
+	 * PRIVATE
+	 */
+
+	private static Map<String, WebhookProvider> compile(Properties properties) {
+		Map<String, WebhookProvider> compiled = new HashMap<>();
+		for (String name : properties.getProperty("webhook.providers", "").split(",")) {
+			name = name.trim();
+			if (!name.isEmpty())
+				compiled.put(name, new WebhookProvider(name, properties));
+		}
+		return compiled;
+	}
+}
@@ -1,13 +1,21 @@
 package fr.aumjaud.antoine.services.synology.chatbot.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.net.URI;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import org.junit.Before;
 import org.junit.Test;
 import fr.aumjaud.antoine.services.common.security.WrongRequestException;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.OutboundHttpClient;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.OutboundResponse;
 
 public class BotServiceTest {
 
@@ -100,4 +108,132 @@ public class BotServiceTest {
 		assertTrue(response.contains("Music download started"));
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void sendMessage_should_post_form_encoded_payload_to_user_url() {
+		// Given
+		RecordingHttpClient httpClient = new RecordingHttpClient(new OutboundResponse(200, "{\"success\":true}"));
+		BotService service = new BotService(httpClient);
+		service.setConfig(properties);
+
+		// When
+		boolean sent = service.sendMessage("testuser", "hello \"world\"", null);
+
+		// Then
+		assertTrue(sent);
+		assertEquals("http://synology/api?token=usertoken123", httpClient.url);
+		assertEquals("payload=%7B%22text%22%3A%22hello+%5C%22world%5C%22%22%7D", httpClient.body);
+	}
+
+	@Test
+	public void sendMessage_should_post_the_body_already_encoded() {
+		// Given
+		RecordingHttpClient httpClient = new RecordingHttpClient(new OutboundResponse(200, "{\"success\":true}"));
+		BotService service = new BotService(httpClient);
+		service.setConfig(properties);
+		String formBody = SynologyChatPayloadEncoder.toFormBody("alert", null);
+
+		// When
+		service.getChatSender().send("testuser", "alert", null, formBody);
+
+		// Then
+		assertEquals("http://synology/api?token=usertoken123", httpClient.url);
+		assertSame(formBody, httpClient.body);
+	}
+
+	@Test
+	public void checkConfig_should_reject_a_wrong_config_without_applying_it() {
+		// Given
+		Properties wrong = new Properties();
+		wrong.setProperty("group.ops", "unknown");
+
+		// When
+		try {
+			botService.checkConfig(wrong);
+			fail("config without chat-tokens accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		// Then
+		botService.checkUser("testuser");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void checkConfig_should_reject_a_wrong_setting_of_a_component() {
+		// Given
+		Properties wrong = new Properties();
+		wrong.putAll(properties);
+		wrong.setProperty("download.queue.per-user-capacity", "ten");
+
+		// When
+		botService.checkConfig(wrong);
+	}
+
+	@Test(expected = WrongRequestException.class)
+	public void getGroup_should_reject_an_unknown_group() {
+		// When
+		botService.getGroup("ops");
+	}
+
+	@Test
+	public void sendMessageAsync_should_return_false_if_chat_answers_an_error() {
+		// Given
+		RecordingHttpClient httpClient = new RecordingHttpClient(new OutboundResponse(200, "{\"error\":{\"code\":117}}"));
+		BotService service = new BotService(httpClient);
+		service.setConfig(properties);
+
+		// When
+		boolean sent = service.sendMessageAsync("testuser", "hello", null).join();
+
+		// Then
+		assertFalse(sent);
+	}
+
+	@Test
+	public void sendMessage_should_return_false_if_chat_is_not_reachable() {
+		// Given
+		BotService service = new BotService(new RecordingHttpClient(null));
+		service.setConfig(properties);
+
+		// When
+		boolean sent = service.sendMessage("testuser", "hello", null);
+
+		// Then
+		assertFalse(sent);
+	}
+
+	private static class RecordingHttpClient implements OutboundHttpClient {
+		private final OutboundResponse response;
+		private String url;
+		private String body;
+
+		private RecordingHttpClient(OutboundResponse response) {
+			this.response = response;
+		}
+
+		@Override
+		public OutboundResponse get(String url) {
+			this.url = url;
+			return response;
+		}
+
+		@Override
+		public OutboundResponse postForm(URI url, String formBody) {
+			this.url = url.toString();
+			this.body = formBody;
+			return response;
+		}
+
+		@Override
+		public CompletableFuture<OutboundResponse> postFormAsync(URI url, String formBody) {
+			return CompletableFuture.completedFuture(postForm(url, formBody));
+		}
+
+		@Override
+		public int postJsonLines(String url, String authorization, String jsonBody, long timeoutMillis, Consumer<String> lines) {
+			this.url = url;
+			this.body = jsonBody;
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChatConfigTest {
+
+	private Properties properties;
+
+	@Before
+	public void setUp() {
+		properties = new Properties();
+		properties.setProperty("chat-tokens", "token1;token2");
+		properties.setProperty("synology-chat.url", "http://synology/api?token=%s");
+		properties.setProperty("token.antoine", "usertoken123");
+		properties.setProperty("user.antoine.user", "1001");
+		properties.setProperty("user.antoine.group", "1000");
+	}
+
+	@Test
+	public void new_should_precompute_tokens_urls_and_ids() {
+		// When
+		ChatConfig config = new ChatConfig(properties);
+
+		// Then
+		assertTrue(config.isValidToken("token2"));
+		assertFalse(config.isValidToken("token"));
+		assertTrue(config.isKnownUser("antoine"));
+		assertEquals(URI.create("http://synology/api?token=usertoken123"), config.getTargetUrl("antoine"));
+		assertEquals("1001", config.getUid("antoine"));
+		assertEquals("1000", config.getGid("antoine"));
+		assertNull(config.getUid("bob"));
+	}
+
+	@Test
+	public void new_should_know_the_users_without_chat_url() {
+		// Given
+		properties.remove("synology-chat.url");
+
+		// When
+		ChatConfig config = new ChatConfig(properties);
+
+		// Then
+		assertTrue(config.isKnownUser("antoine"));
+		assertNull(config.getTargetUrl("antoine"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void new_should_reject_a_config_without_chat_tokens() {
+		// Given
+		properties.remove("chat-tokens");
+
+		// When
+		new ChatConfig(properties);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void new_should_reject_a_wrong_chat_url() {
+		// Given
+		properties.setProperty("synology-chat.url", "http://synology/api?token=%s and spaces");
+
+		// When
+		new ChatConfig(properties);
+	}
+
+	@Test
+	public void new_should_read_the_groups_without_duplicates() {
+		// Given
+		properties.setProperty("token.bob", "usertoken456");
+		properties.setProperty("group.ops", "antoine, bob,antoine");
+
+		// When
+		ChatConfig config = new ChatConfig(properties);
+
+		// Then
+		assertEquals(Arrays.asList("antoine", "bob"), config.getGroup("ops"));
+		assertNull(config.getGroup("dev"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void new_should_reject_a_group_with_a_user_without_token() {
+		// Given
+		properties.setProperty("group.ops", "antoine,bob");
+
+		// When
+		new ChatConfig(properties);
+	}
+}
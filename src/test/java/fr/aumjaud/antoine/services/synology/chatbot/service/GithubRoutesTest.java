@@ -0,0 +1,120 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.aumjaud.antoine.services.synology.chatbot.model.GithubPayload;
+
+public class GithubRoutesTest {
+
+	private Properties properties;
+	private GithubRoutes routes = new GithubRoutes();
+
+	@Before
+	public void setUp() {
+		properties = new Properties();
+		properties.setProperty("github.routes", "failures, delivery, bot");
+		properties.setProperty("github.route.failures.conclusion", "failure, Cancelled");
+		properties.setProperty("github.route.failures.targets", "continuous-integration");
+		properties.setProperty("github.route.delivery.repository", "antoine-aumjaud/*");
+		properties.setProperty("github.route.delivery.branch", "main");
+		properties.setProperty("github.route.delivery.targets", "continuous-delivery, antoine");
+		properties.setProperty("github.route.bot.repository", "antoine-aumjaud/api-synology-chatbot");
+		properties.setProperty("github.route.bot.workflow", "java build");
+		properties.setProperty("github.route.bot.targets", "antoine");
+		routes.setConfig(properties);
+	}
+
+	private static GithubPayload payload(String repository, String branch, String workflow, String status) {
+		return new GithubPayload(repository, workflow, status, branch, null, null);
+	}
+
+	@Test
+	public void route_should_return_the_targets_of_all_the_rules_matching() {
+		// When
+		LinkedHashSet<String> targets = new LinkedHashSet<>(routes.route(payload("antoine-aumjaud/api-synology-chatbot", "main", "java build", "failure")));
+
+		// Then
+		assertEquals(new LinkedHashSet<>(Arrays.asList("continuous-integration", "continuous-delivery", "antoine")), targets);
+	}
+
+	@Test
+	public void route_should_require_every_condition_of_a_rule() {
+		// Then
+		assertEquals(Collections.singleton("continuous-integration"), routes.route(payload("other/repo", "main", "java build", "cancelled")));
+		assertEquals(Collections.singleton("antoine"), routes.route(payload("antoine-aumjaud/api-synology-chatbot", "feature", "java build", "success")));
+		assertTrue(routes.route(payload("other/repo", "main", "deploy", "success")).isEmpty());
+	}
+
+	@Test
+	public void route_should_match_prefixes() {
+		// Then
+		assertEquals(new LinkedHashSet<>(Arrays.asList("continuous-delivery", "antoine")),
+				routes.route(payload("antoine-aumjaud/api-raspberry", "main", "deploy", "success")));
+		assertTrue(routes.route(payload("antoine/api-raspberry", "main", "deploy", "success")).isEmpty());
+	}
+
+	@Test
+	public void route_should_select_among_hundreds_of_rules() {
+		// Given
+		StringBuilder names = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			names.append("r").append(i).append(',');
+			properties.setProperty("github.route.r" + i + ".repository", "owner/repo-" + i);
+			properties.setProperty("github.route.r" + i + ".targets", "user-" + i);
+		}
+		properties.setProperty("github.routes", names.toString());
+		routes.setConfig(properties);
+
+		// Then
+		assertEquals(Collections.singleton("user-321"), routes.route(payload("owner/repo-321", "main", "build", "success")));
+	}
+
+	@Test
+	public void isEnabled_should_be_false_without_rules() {
+		// When
+		routes.setConfig(new Properties());
+
+		// Then
+		assertFalse(routes.isEnabled());
+		assertTrue(routes.route(payload("o/r", "main", "build", "failure")).isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setConfig_should_fail_on_a_rule_without_targets() {
+		// Given
+		properties.setProperty("github.route.bot.targets", "");
+
+		// When
+		routes.setConfig(properties);
+	}
+
+	@Test
+	public void checkConfig_should_reject_a_rule_without_targets_without_applying_it() {
+		// Given
+		Properties wrong = new Properties();
+		wrong.putAll(properties);
+		wrong.setProperty("github.route.bot.targets", "");
+
+		// When
+		try {
+			routes.checkConfig(wrong);
+			fail("rule without targets accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		// Then
+		assertEquals(Collections.singleton("antoine"), routes.route(payload("antoine-aumjaud/api-synology-chatbot", "feature", "java build", "success")));
+	}
+}
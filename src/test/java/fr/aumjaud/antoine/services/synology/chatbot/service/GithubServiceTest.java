@@ -17,9 +17,9 @@ import javax.crypto.spec.SecretKeySpec;
 
 import org.junit.Test;
 
-import com.google.gson.JsonObject;
-
 import fr.aumjaud.antoine.services.common.security.NoAccessException;
+import fr.aumjaud.antoine.services.common.security.WrongRequestException;
+import fr.aumjaud.antoine.services.synology.chatbot.model.GithubPayload;
 
 public class GithubServiceTest {
 
@@ -31,23 +31,50 @@ public class GithubServiceTest {
 		String payload = new String(Files.readAllBytes(Paths.get(getClass().getClassLoader().getResource("github_workflow_notification.json").toURI())));
 
 		// When
-		JsonObject parsed = githubService.extractGithubPayload(payload);
+		GithubPayload parsed = githubService.extractGithubPayload(payload);
 
 		// Then
 		assertNotNull(parsed);
-		assertNotNull(parsed.get("repository"));
-		assertEquals("antoine-aumjaud/api-synology-chatbot", parsed.get("repository").getAsString());
-		assertEquals("failure", parsed.get("status").getAsString());
+		assertEquals("antoine-aumjaud/api-synology-chatbot", parsed.getRepository());
+		assertEquals("failure", parsed.getStatus());
+		assertEquals("java build", parsed.getWorkflow());
+		assertEquals("master", parsed.getBranch());
+		assertEquals("Tests failed", parsed.getCommitMessage());
+	}
+
+	@Test
+	public void extractGithubPayload_should_read_workflow_run_fields_and_skip_the_others() {
+		// Given
+		String payload = "{\"action\":\"completed\","
+				+ "\"workflow\":{\"id\":1,\"name\":\"ignored\"},"
+				+ "\"workflow_run\":{\"id\":42,\"name\":\"java build\",\"head_branch\":\"main\",\"status\":\"completed\",\"conclusion\":\"FAILURE\","
+				+ "\"html_url\":\"https://github.com/o/r/actions/runs/42\",\"pull_requests\":[{\"id\":1}],\"actor\":{\"login\":\"a\",\"site_admin\":false},"
+				+ "\"head_commit\":{\"id\":\"abc\",\"message\":\"Fix build\",\"author\":{\"name\":\"A\"}}},"
+				+ "\"repository\":{\"id\":7,\"name\":\"r\",\"full_name\":\"o/r\",\"owner\":{\"login\":\"o\"}},"
+				+ "\"sender\":{\"login\":\"a\"}}";
+
+		// When
+		GithubPayload parsed = githubService.extractGithubPayload(payload);
+
+		// Then
+		assertEquals("o/r", parsed.getRepository());
+		assertEquals("java build", parsed.getWorkflow());
+		assertEquals("failure", parsed.getStatus());
+		assertEquals("main", parsed.getBranch());
+		assertEquals("https://github.com/o/r/actions/runs/42", parsed.getUrl());
+		assertEquals("Fix build", parsed.getCommitMessage());
+	}
+
+	@Test(expected = WrongRequestException.class)
+	public void extractGithubPayload_should_reject_a_payload_which_is_not_an_object() {
+		githubService.extractGithubPayload("[1, 2]");
 	}
 
 	@Test
 	public void buildGithubMessage_should_return_success_message_when_status_is_success() {
 		// Given
-		JsonObject payload = new JsonObject();
-		payload.addProperty("repository", "antoine-aumjaud/api-synology-chatbot");
-		payload.addProperty("workflow", "java build");
-		payload.addProperty("status", "success");
-		payload.addProperty("branch", "master");
+		GithubPayload payload = githubService.extractGithubPayload("{\"repository\":\"antoine-aumjaud/api-synology-chatbot\","
+				+ "\"workflow\":\"java build\",\"status\":\"success\",\"branch\":\"master\"}");
 
 		// When
 		String msg = githubService.buildGithubMessage(payload);
@@ -59,13 +86,9 @@ public class GithubServiceTest {
 	@Test
 	public void buildGithubMessage_should_return_failure_message_when_status_is_failure() {
 		// Given
-		JsonObject payload = new JsonObject();
-		payload.addProperty("repository", "antoine-aumjaud/api-synology-chatbot");
-		payload.addProperty("workflow", "java build");
-		payload.addProperty("status", "failure");
-		payload.addProperty("branch", "master");
-		payload.addProperty("url", "https://github.com/antoine-aumjaud/api-synology-chatbot/actions/runs/42");
-		payload.addProperty("message", "Tests failed");
+		GithubPayload payload = githubService.extractGithubPayload("{\"repository\":\"antoine-aumjaud/api-synology-chatbot\","
+				+ "\"workflow\":\"java build\",\"status\":\"failure\",\"branch\":\"master\","
+				+ "\"url\":\"https://github.com/antoine-aumjaud/api-synology-chatbot/actions/runs/42\",\"message\":\"Tests failed\"}");
 
 		// When
 		String msg = githubService.buildGithubMessage(payload);
@@ -91,6 +114,23 @@ public class GithubServiceTest {
 		assertTrue(msg.contains("Workflow success"));
 	}
 
+	@Test
+	public void getMessage_should_accept_an_uppercase_signature() throws Exception {
+		// Given
+		String payload = "{\"repository\":\"antoine-aumjaud/api-synology-chatbot\",\"workflow\":\"java build\",\"status\":\"success\",\"branch\":\"master\"}";
+		String secret = "top-secret";
+		Properties properties = new Properties();
+		properties.setProperty("github.webhook.secret", secret);
+		githubService.setConfig(properties);
+		String signature = "sha256=" + computeHmacSha256Hex(payload, secret).toUpperCase();
+
+		// When
+		String msg = githubService.getMessage(payload.getBytes(StandardCharsets.UTF_8), signature);
+
+		// Then
+		assertTrue(msg.contains("Workflow success"));
+	}
+
 	@Test(expected = NoAccessException.class)
 	public void getMessage_should_reject_payload_when_signature_is_invalid() {
 		// Given
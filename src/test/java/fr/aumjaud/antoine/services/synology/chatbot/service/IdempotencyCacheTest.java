@@ -0,0 +1,137 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IdempotencyCacheTest {
+
+	private AtomicLong now;
+	private IdempotencyCache cache;
+
+	@Before
+	public void setUp() {
+		now = new AtomicLong(1000);
+		cache = new IdempotencyCache(now::get);
+		cache.setConfig(config(4, 60000));
+	}
+
+	private static Properties config(int capacity, long windowMillis) {
+		Properties properties = new Properties();
+		properties.setProperty("webhook.idempotency.capacity", Integer.toString(capacity));
+		properties.setProperty("webhook.idempotency.window-ms", Long.toString(windowMillis));
+		return properties;
+	}
+
+	@Test
+	public void claim_should_return_the_original_result_of_a_webhook_handled() {
+		// Given
+		long key = IdempotencyCache.fingerprint("github", "antoine", "delivery-1");
+		assertNull(cache.claim(key));
+		cache.complete(key, 200, "{\"status\"=\"sent\"}");
+
+		// When
+		IdempotencyCache.Result result = cache.claim(key);
+
+		// Then
+		assertEquals(200, result.getStatus());
+		assertEquals("{\"status\"=\"sent\"}", result.getBody());
+		assertSame(result, cache.get(key));
+	}
+
+	@Test
+	public void claim_should_return_pending_while_the_webhook_is_handled() {
+		// Given
+		long key = IdempotencyCache.fingerprint("github", "antoine", "delivery-1");
+		cache.claim(key);
+
+		// Then
+		assertSame(IdempotencyCache.PENDING, cache.claim(key));
+	}
+
+	@Test
+	public void release_should_let_a_failed_webhook_be_handled_again() {
+		// Given
+		long key = IdempotencyCache.fingerprint("travis", "antoine", "c2lnbmF0dXJl");
+		cache.claim(key);
+
+		// When
+		cache.release(key);
+
+		// Then
+		assertNull(cache.get(key));
+		assertNull(cache.claim(key));
+	}
+
+	@Test
+	public void get_should_forget_results_older_than_the_window() {
+		// Given
+		long key = IdempotencyCache.fingerprint("github", "antoine", "delivery-1");
+		cache.claim(key);
+		cache.complete(key, 200, "sent");
+
+		// When
+		now.addAndGet(60000);
+
+		// Then
+		assertNull(cache.get(key));
+		assertNull(cache.claim(key));
+	}
+
+	@Test
+	public void fingerprint_should_depend_on_every_part() {
+		// Then
+		long key = IdempotencyCache.fingerprint("github", "antoine", "delivery-1");
+		assertEquals(key, IdempotencyCache.fingerprint("github", "antoine", "delivery-1"));
+		assertFalse(key == IdempotencyCache.fingerprint("github", "bob", "delivery-1"));
+		assertFalse(key == IdempotencyCache.fingerprint("travis", "antoine", "delivery-1"));
+		assertFalse(IdempotencyCache.fingerprint("a", "bc", "") == IdempotencyCache.fingerprint("ab", "c", ""));
+	}
+
+	@Test
+	public void claim_should_overwrite_the_oldest_webhooks_when_full() {
+		// Given
+		Random random = new Random(42);
+		cache.setConfig(config(8, Long.MAX_VALUE));
+		Long[] ring = new Long[8]; // expected content of each ring position
+		int next = 0;
+
+		for (int i = 0; i < 2000; i++) {
+			// When
+			long key = random.nextInt(64) * 0x10000L; // same low bits, long probe sequences
+			if (cache.claim(key) == null) {
+				ring[next] = key;
+				next = (next + 1) % ring.length;
+			}
+			int released = random.nextInt(ring.length);
+			if (random.nextInt(4) == 0 && ring[released] != null) {
+				cache.release(ring[released]);
+				assertNull(cache.get(ring[released]));
+				ring[released] = null;
+			}
+
+			// Then
+			int kept = 0;
+			for (Long keptKey : ring) {
+				if (keptKey != null) {
+					assertSame(IdempotencyCache.PENDING, cache.get(keptKey));
+					kept++;
+				}
+			}
+			int found = 0;
+			for (int k = 0; k < 64; k++) {
+				if (cache.get(k * 0x10000L) != null)
+					found++;
+			}
+			assertEquals(kept, found);
+		}
+	}
+}
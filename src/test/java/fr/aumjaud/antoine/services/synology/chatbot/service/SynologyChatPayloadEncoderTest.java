@@ -0,0 +1,56 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class SynologyChatPayloadEncoderTest {
+
+	private static final String TRICKY_TEXT = "Build \"failed\" in C:\\temp\n\tline 2 \u0001 café 🚀 100% a+b=c&d";
+
+	@Test
+	public void toJson_should_build_text_and_file_url_payload() {
+		assertEquals("{\"text\":\"hello\",\"file_url\":\"http://nas/file.mp3\"}", SynologyChatPayloadEncoder.toJson("hello", "http://nas/file.mp3"));
+		assertEquals("{\"file_url\":\"http://nas/file.mp3\"}", SynologyChatPayloadEncoder.toJson(null, "http://nas/file.mp3"));
+		assertEquals("{\"text\":\"hello\"}", SynologyChatPayloadEncoder.toJson("hello", null));
+	}
+
+	@Test
+	public void toJson_should_escape_quotes_backslashes_and_control_chars() {
+		// When
+		String json = SynologyChatPayloadEncoder.toJson(TRICKY_TEXT, null);
+
+		// Then
+		assertTrue(json.contains("Build \\\"failed\\\" in C:\\\\temp\\n\\tline 2 \\u0001 café 🚀"));
+		JsonObject parsed = new JsonParser().parse(json).getAsJsonObject();
+		assertEquals(TRICKY_TEXT, parsed.get("text").getAsString());
+	}
+
+	@Test
+	public void toFormBody_should_urlencode_the_json_payload() throws Exception {
+		// When
+		String body = SynologyChatPayloadEncoder.toFormBody(TRICKY_TEXT, "http://nas/a b.mp3");
+
+		// Then
+		String json = SynologyChatPayloadEncoder.toJson(TRICKY_TEXT, "http://nas/a b.mp3");
+		assertEquals("payload=" + URLEncoder.encode(json, "UTF-8"), body);
+		JsonObject parsed = new JsonParser().parse(URLDecoder.decode(body.substring("payload=".length()), "UTF-8")).getAsJsonObject();
+		assertEquals(TRICKY_TEXT, parsed.get("text").getAsString());
+		assertEquals("http://nas/a b.mp3", parsed.get("file_url").getAsString());
+	}
+
+	@Test
+	public void toFormBody_should_replace_unpaired_surrogates() throws Exception {
+		String body = SynologyChatPayloadEncoder.toFormBody("a\uD800b", null);
+
+		assertEquals("{\"text\":\"a\uFFFDb\"}", URLDecoder.decode(body.substring("payload=".length()), StandardCharsets.UTF_8.name()));
+	}
+}
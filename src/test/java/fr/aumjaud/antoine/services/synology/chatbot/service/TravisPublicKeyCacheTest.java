@@ -0,0 +1,169 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.aumjaud.antoine.services.common.security.NoAccessException;
+
+public class TravisPublicKeyCacheTest {
+
+	private KeyPair keyPair;
+	private String publicKeyPem;
+	private AtomicLong now = new AtomicLong(1_000_000);
+	private AtomicInteger loadCount = new AtomicInteger();
+	private volatile boolean failLoad;
+
+	private TravisPublicKeyCache publicKeyCache;
+
+	@Before
+	public void setUp() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(1024);
+		keyPair = generator.generateKeyPair();
+		publicKeyPem = "-----BEGIN PUBLIC KEY-----\n"
+				+ Base64.getMimeEncoder().encodeToString(keyPair.getPublic().getEncoded())
+				+ "\n-----END PUBLIC KEY-----";
+
+		publicKeyCache = new TravisPublicKeyCache(null, now::get) {
+			@Override
+			String loadPublicKeyPem() {
+				loadCount.incrementAndGet();
+				if (failLoad)
+					throw new NoAccessException("can't get public key", "Travis Public key is not accessible");
+				return publicKeyPem;
+			}
+		};
+		Properties properties = new Properties();
+		properties.setProperty("travis.public-key.ttl-seconds", "60");
+		properties.setProperty("travis.public-key.refresh-ahead-seconds", "10");
+		publicKeyCache.setConfig(properties);
+	}
+
+	@Test
+	public void getPublicKey_should_load_the_key_only_once_during_ttl() {
+		// When
+		PublicKey first = publicKeyCache.getPublicKey();
+		now.addAndGet(30_000);
+		PublicKey second = publicKeyCache.getPublicKey();
+
+		// Then
+		assertSame(first, second);
+		assertEquals(1, loadCount.get());
+		assertEquals(keyPair.getPublic(), first);
+	}
+
+	@Test
+	public void getPublicKey_should_reload_the_key_when_expired() {
+		// When
+		publicKeyCache.getPublicKey();
+		now.addAndGet(61_000);
+		publicKeyCache.getPublicKey();
+
+		// Then
+		assertEquals(2, loadCount.get());
+	}
+
+	@Test
+	public void getPublicKey_should_reload_in_background_before_expiration() throws InterruptedException {
+		// Given
+		publicKeyCache.getPublicKey();
+
+		// When
+		now.addAndGet(55_000);
+		publicKeyCache.getPublicKey();
+
+		// Then
+		for (int i = 0; i < 50 && loadCount.get() < 2; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, loadCount.get());
+	}
+
+	@Test
+	public void getPublicKey_should_use_expired_key_when_reload_fails() {
+		// Given
+		PublicKey loaded = publicKeyCache.getPublicKey();
+		failLoad = true;
+
+		// When
+		now.addAndGet(61_000);
+		PublicKey stale = publicKeyCache.getPublicKey();
+
+		// Then
+		assertSame(loaded, stale);
+	}
+
+	@Test
+	public void getPublicKey_should_not_reload_before_the_retry_delay_when_reload_fails() {
+		// Given
+		PublicKey loaded = publicKeyCache.getPublicKey();
+		failLoad = true;
+		now.addAndGet(61_000);
+
+		// When
+		for (int i = 0; i < 100; i++) {
+			assertSame(loaded, publicKeyCache.getPublicKey());
+			now.addAndGet(100);
+		}
+		now.addAndGet(30_000);
+		publicKeyCache.getPublicKey();
+
+		// Then
+		assertEquals(3, loadCount.get()); // first load, failed reload, reload after the retry delay
+	}
+
+	@Test(expected = NoAccessException.class)
+	public void getPublicKey_should_throw_an_exception_when_no_key_has_ever_been_loaded() {
+		// Given
+		failLoad = true;
+
+		// When
+		publicKeyCache.getPublicKey();
+
+		// Then
+		fail("should has thrown an exception");
+	}
+
+	@Test
+	public void checkSignature_should_accept_a_payload_signed_with_the_cached_key() throws Exception {
+		// Given
+		TravisService travisService = new TravisService(publicKeyCache);
+		String payload = "{\"status\":0}";
+		Signature signer = Signature.getInstance("SHA1withRSA");
+		signer.initSign(keyPair.getPrivate());
+		signer.update(payload.getBytes(StandardCharsets.UTF_8));
+		String signatureB64 = Base64.getEncoder().encodeToString(signer.sign());
+
+		// When
+		travisService.checkSignature(publicKeyCache.getPublicKey(), payload, signatureB64);
+
+		// Then no exception
+	}
+
+	@Test(expected = NoAccessException.class)
+	public void checkSignature_should_reject_a_payload_with_a_wrong_signature() throws Exception {
+		// Given
+		TravisService travisService = new TravisService(publicKeyCache);
+		String signatureB64 = Base64.getEncoder().encodeToString(new byte[128]);
+
+		// When
+		travisService.checkSignature(publicKeyCache.getPublicKey(), "{\"status\":0}", signatureB64);
+
+		// Then
+		fail("should has thrown an exception");
+	}
+}
@@ -0,0 +1,199 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.conversation.CompactConversationStore;
+import fr.aumjaud.antoine.services.synology.chatbot.service.skill.SkillRequest;
+import fr.aumjaud.antoine.services.synology.chatbot.service.transport.JdkOutboundHttpClient;
+
+public class AgentSkillTest {
+
+	private static final String STREAM = "data: {\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}\n\n"
+			+ "data: {\"choices\":[{\"delta\":{\"content\":\"Hello \"}}]}\n\n"
+			+ "data: {\"choices\":[{\"delta\":{\"content\":\"world\"}}]}\n\n"
+			+ "data: [DONE]\n\n";
+
+	private final List<String> requests = new CopyOnWriteArrayList<>();
+	private final List<String> sent = new CopyOnWriteArrayList<>();
+	private CountDownLatch release = new CountDownLatch(0);
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private HttpServer server;
+	private Properties properties;
+	private AgentSkill agent;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/v1/chat/completions", exchange -> {
+			try (InputStream in = exchange.getRequestBody()) {
+				requests.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+			}
+			try {
+				release.await(2, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(STREAM.getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		server.start();
+
+		properties = new Properties();
+		properties.setProperty("http.version", "HTTP_1_1");
+		properties.setProperty("agent.url", "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions");
+		properties.setProperty("agent.model", "local");
+		properties.setProperty("agent.stream.batch-ms", "0");
+		JdkOutboundHttpClient httpClient = new JdkOutboundHttpClient();
+		httpClient.setConfig(properties);
+		agent = new AgentSkill(httpClient, (userName, message, url) -> sent.add(userName + ": " + message), new CompactConversationStore());
+		agent.setConfig(properties);
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private String ask(String channelId, String userName, String message) {
+		return agent.handle(new SkillRequest(channelId, userName, message, message));
+	}
+
+	@Test
+	public void handle_should_stream_the_answer_and_send_the_context_of_the_channel() {
+		// When
+		String first = ask("1", "antoine", "Hi");
+		String second = ask("1", "antoine", "And then?");
+
+		// Then
+		assertEquals("Hello world", first);
+		assertEquals("Hello world", second);
+		assertEquals(2, requests.size());
+		assertTrue(requests.get(0).contains("\"stream\":true"));
+		assertTrue(requests.get(1), requests.get(1).contains("{\"role\":\"user\",\"content\":\"Hi\"},{\"role\":\"assistant\",\"content\":\"Hello world\"}"));
+	}
+
+	@Test
+	public void handle_should_answer_a_question_asked_again_from_cache() {
+		// When
+		String first = ask("1", "antoine", "What is Java?");
+		String second = ask("2", "bob", "  what is   JAVA ");
+
+		// Then
+		assertEquals(first, second);
+		assertEquals(1, requests.size());
+	}
+
+	@Test
+	public void handle_should_reject_a_question_when_the_queue_of_the_user_is_full() throws InterruptedException {
+		// Given
+		properties.setProperty("agent.queue.per-user-capacity", "0");
+		agent.setConfig(properties);
+		release = new CountDownLatch(1);
+		Thread first = new Thread(() -> ask("1", "antoine", "Slow question"));
+		first.start();
+		for (int i = 0; i < 200 && requests.isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+
+		// When
+		String rejected = ask("1", "antoine", "Another question");
+		release.countDown();
+		first.join(2000);
+
+		// Then
+		assertTrue(rejected.startsWith("❌ Too many questions pending"));
+		assertEquals(1, requests.size());
+	}
+
+	@Test
+	public void handle_should_answer_busy_when_the_turn_is_not_free_in_time() throws InterruptedException {
+		// Given
+		properties.setProperty("agent.queue.wait-ms", "50");
+		agent.setConfig(properties);
+		release = new CountDownLatch(1);
+		Thread first = new Thread(() -> ask("1", "antoine", "Slow question"));
+		first.start();
+		for (int i = 0; i < 200 && requests.isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+
+		// When
+		String busy = ask("1", "antoine", "Another question");
+		release.countDown();
+		first.join(2000);
+
+		// Then
+		assertTrue(busy.startsWith("⏳ The agent is busy"));
+		assertEquals(1, requests.size());
+	}
+
+	@Test
+	public void handle_should_not_answer_from_cache_after_a_change_of_model() {
+		// Given
+		ask("1", "antoine", "What is Java?");
+		properties.setProperty("agent.model", "other");
+		agent.setConfig(properties);
+
+		// When
+		ask("2", "bob", "What is Java?");
+
+		// Then
+		assertEquals(2, requests.size());
+	}
+
+	@Test
+	public void getTriggers_should_be_empty_without_endpoint() {
+		// Given
+		properties.setProperty("agent.url", "");
+
+		// When
+		agent.setConfig(properties);
+
+		// Then
+		assertTrue(agent.getTriggers().isEmpty());
+	}
+
+	@Test
+	public void batcher_should_send_the_words_received_at_each_interval() throws InterruptedException {
+		// Given
+		List<String> parts = new ArrayList<>();
+		AgentSkill.Batcher batcher = new AgentSkill.Batcher(1, parts::add);
+
+		// When
+		Thread.sleep(5);
+		batcher.accept("Hello wor");
+		batcher.accept("ld");
+
+		// Then
+		assertEquals(1, parts.size());
+		assertEquals("Hello", parts.get(0));
+		assertEquals("world", batcher.rest());
+	}
+}
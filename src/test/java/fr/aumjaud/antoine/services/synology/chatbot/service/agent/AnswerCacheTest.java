@@ -0,0 +1,56 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class AnswerCacheTest {
+
+	@Test
+	public void get_should_find_an_answer_with_a_normalized_prompt() {
+		// Given
+		AnswerCache cache = new AnswerCache(10, 1000);
+		cache.put("What is Java?", "A language");
+
+		// When
+		String answer = cache.get("  what is\tjava ");
+
+		// Then
+		assertEquals("A language", answer);
+	}
+
+	@Test
+	public void get_should_not_return_an_expired_answer() {
+		// Given
+		AtomicLong now = new AtomicLong(0);
+		AnswerCache cache = new AnswerCache(10, 1000, now::get);
+		cache.put("question", "answer");
+
+		// When
+		now.set(1001);
+
+		// Then
+		assertNull(cache.get("question"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void put_should_evict_the_least_recently_used_answer() {
+		// Given
+		AnswerCache cache = new AnswerCache(2, 1000);
+		cache.put("first", "1");
+		cache.put("second", "2");
+		cache.get("first");
+
+		// When
+		cache.put("third", "3");
+
+		// Then
+		assertEquals("1", cache.get("first"));
+		assertNull(cache.get("second"));
+		assertEquals("3", cache.get("third"));
+	}
+}
@@ -0,0 +1,118 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.conversation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompactConversationStoreTest {
+
+	private Properties properties;
+	private Path snapshotFile;
+
+	@Before
+	public void setUp() throws IOException {
+		properties = new Properties();
+		snapshotFile = Files.createTempFile("conversations", ".snapshot");
+		Files.delete(snapshotFile);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(snapshotFile);
+	}
+
+	private CompactConversationStore store() {
+		CompactConversationStore store = new CompactConversationStore();
+		store.setConfig(properties);
+		return store;
+	}
+
+	@Test
+	public void history_should_return_the_messages_of_the_channel_in_order() {
+		// Given
+		CompactConversationStore store = store();
+		StringBuilder longAnswer = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			longAnswer.append("the same sentence again ");
+		}
+
+		// When
+		store.append("1", new ConversationMessage("user", "Hi é", 1L));
+		store.append("1", new ConversationMessage("assistant", longAnswer.toString(), 2L));
+		List<ConversationMessage> history = store.history("1");
+
+		// Then
+		assertEquals(2, history.size());
+		assertEquals("user", history.get(0).getRole());
+		assertEquals("Hi é", history.get(0).getContent());
+		assertEquals(1L, history.get(0).getTimestamp());
+		assertEquals(longAnswer.toString(), history.get(1).getContent());
+		assertTrue(store.getUsedBytes() < longAnswer.length()); // deflated
+		assertTrue(store.history("2").isEmpty());
+	}
+
+	@Test
+	public void append_should_keep_the_last_messages_of_a_channel() {
+		// Given
+		properties.setProperty("conversation.max-messages-per-channel", "2");
+		CompactConversationStore store = store();
+
+		// When
+		store.append("1", new ConversationMessage("user", "first", 1L));
+		store.append("1", new ConversationMessage("user", "second", 2L));
+		store.append("1", new ConversationMessage("user", "third", 3L));
+
+		// Then
+		List<ConversationMessage> history = store.history("1");
+		assertEquals(2, history.size());
+		assertEquals("second", history.get(0).getContent());
+	}
+
+	@Test
+	public void append_should_evict_the_least_recently_used_channel_over_budget() {
+		// Given
+		properties.setProperty("conversation.memory-budget-bytes", "400");
+		CompactConversationStore store = store();
+		store.append("a", new ConversationMessage("user", "message of a", 1L));
+		store.append("b", new ConversationMessage("user", "message of b", 1L));
+		store.history("a");
+
+		// When
+		store.append("c", new ConversationMessage("user", "message of c", 1L));
+
+		// Then
+		assertEquals(2, store.getChannelCount());
+		assertEquals(1, store.history("a").size());
+		assertTrue(store.history("b").isEmpty());
+		assertTrue(store.getUsedBytes() <= 400);
+	}
+
+	@Test
+	public void shutdown_should_save_a_snapshot_loaded_at_startup() {
+		// Given
+		properties.setProperty("conversation.snapshot-file", snapshotFile.toString());
+		CompactConversationStore store = store();
+		store.append("1", new ConversationMessage("user", "question", 1L));
+		store.append("1", new ConversationMessage("assistant", "answer", 2L));
+
+		// When
+		store.shutdown();
+		CompactConversationStore restarted = store();
+
+		// Then
+		List<ConversationMessage> history = restarted.history("1");
+		assertEquals(2, history.size());
+		assertEquals("answer", history.get(1).getContent());
+		assertEquals(store.getUsedBytes(), restarted.getUsedBytes());
+		restarted.shutdown();
+	}
+}
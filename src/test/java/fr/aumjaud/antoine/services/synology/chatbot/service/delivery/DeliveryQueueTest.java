@@ -0,0 +1,120 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DeliveryQueueTest {
+
+	private Properties properties(int capacity, int workers) {
+		Properties properties = new Properties();
+		properties.setProperty("delivery.async.enabled", "true");
+		properties.setProperty("delivery.queue.capacity", String.valueOf(capacity));
+		properties.setProperty("delivery.workers", String.valueOf(workers));
+		properties.setProperty("delivery.max-in-flight", String.valueOf(workers));
+		return properties;
+	}
+
+	@Test
+	public void submit_should_deliver_message_and_update_its_status() throws InterruptedException {
+		// Given
+		CountDownLatch sent = new CountDownLatch(1);
+		DeliveryQueue deliveryQueue = new DeliveryQueue((userName, message, url) -> {
+			sent.countDown();
+			return true;
+		});
+		deliveryQueue.setConfig(properties(10, 1));
+
+		// When
+		String id = deliveryQueue.submit("antoine", "hello", null);
+
+		// Then
+		assertNotNull(id);
+		assertTrue(sent.await(1, TimeUnit.SECONDS));
+		for (int i = 0; i < 50 && deliveryQueue.getStatus(id) == DeliveryQueue.Status.QUEUED; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(DeliveryQueue.Status.SENT, deliveryQueue.getStatus(id));
+	}
+
+	@Test
+	public void submit_should_reject_message_when_queue_is_full() throws InterruptedException {
+		// Given
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		DeliveryQueue deliveryQueue = new DeliveryQueue((userName, message, url) -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return true;
+		});
+		deliveryQueue.setConfig(properties(1, 1));
+		deliveryQueue.submit("antoine", "in worker", null);
+		assertTrue(started.await(1, TimeUnit.SECONDS));
+		deliveryQueue.submit("antoine", "in queue", null);
+
+		// When
+		String id = deliveryQueue.submit("antoine", "rejected", null);
+
+		// Then
+		assertNull(id);
+		release.countDown();
+	}
+
+	@Test
+	public void submit_should_not_count_the_rejected_messages_in_the_kept_statuses() throws InterruptedException {
+		// Given
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		DeliveryQueue deliveryQueue = new DeliveryQueue((userName, message, url) -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return true;
+		});
+		Properties properties = properties(1, 1);
+		properties.setProperty("delivery.status.max-entries", "3");
+		deliveryQueue.setConfig(properties);
+		String first = deliveryQueue.submit("antoine", "in worker", null);
+		assertTrue(started.await(1, TimeUnit.SECONDS));
+		String second = deliveryQueue.submit("antoine", "in queue", null);
+
+		// When
+		String rejected = deliveryQueue.submit("antoine", "rejected", null);
+		deliveryQueue.submit("antoine", "rejected", null);
+		release.countDown();
+		String accepted = null;
+		for (int i = 0; i < 50 && accepted == null; i++) {
+			Thread.sleep(10);
+			accepted = deliveryQueue.submit("antoine", "accepted later", null);
+		}
+
+		// Then
+		assertNull(rejected);
+		assertNotNull(accepted);
+		assertNotNull(deliveryQueue.getStatus(first));
+		assertNotNull(deliveryQueue.getStatus(second));
+		assertNotNull(deliveryQueue.getStatus(accepted));
+	}
+
+	@Test
+	public void getStatus_should_return_null_for_an_unknown_id() {
+		DeliveryQueue deliveryQueue = new DeliveryQueue((userName, message, url) -> true);
+		deliveryQueue.setConfig(properties(10, 1));
+
+		assertNull(deliveryQueue.getStatus("unknown"));
+	}
+}
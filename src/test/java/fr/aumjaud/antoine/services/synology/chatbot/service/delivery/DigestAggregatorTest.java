@@ -0,0 +1,105 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+public class DigestAggregatorTest {
+
+	private List<String> posts = new CopyOnWriteArrayList<>();
+	private DigestAggregator digestAggregator = new DigestAggregator((userName, message, url) -> {
+		posts.add(userName + ":" + message);
+		return true;
+	});
+
+	@Test
+	public void isEnabled_should_be_false_without_window() {
+		// Given
+		digestAggregator.setConfig(new Properties());
+
+		// When
+		boolean enabled = digestAggregator.isEnabled();
+
+		// Then
+		assertFalse(enabled);
+	}
+
+	@Test
+	public void add_should_post_one_summary_by_target_at_the_end_of_the_window() throws Exception {
+		// Given
+		digestAggregator.setConfig(config("200", "50"));
+
+		// When
+		digestAggregator.add("ci", "workflow", "antoine/api", "main", "api ok");
+		digestAggregator.add("ci", "workflow", "antoine/api", "main", "api ok");
+		digestAggregator.add("ci", "build", "antoine/web", "develop", "web ok");
+		digestAggregator.add("cd", "workflow", "antoine/api", null, "api ok");
+		for (int i = 0; i < 100 && posts.size() < 2; i++) {
+			Thread.sleep(20);
+		}
+
+		// Then
+		assertEquals(2, posts.size());
+		assertTrue(posts.contains("ci:✅ 1 build and 2 workflows succeeded on 2 repos:\n- antoine/api (main) x2\n- antoine/web (develop)"));
+		assertTrue(posts.contains("cd:api ok"));
+	}
+
+	@Test
+	public void add_should_count_together_the_entries_over_the_max() {
+		// Given
+		digestAggregator.setConfig(config("60000", "2"));
+
+		// When
+		digestAggregator.add("ci", "workflow", "a", "main", "a ok");
+		digestAggregator.add("ci", "workflow", "b", "main", "b ok");
+		digestAggregator.add("ci", "workflow", "c", "main", "c ok");
+		digestAggregator.add("ci", "workflow", "d", "main", "d ok");
+		digestAggregator.add("ci", "workflow", "a", "main", "a ok");
+		digestAggregator.shutdown();
+
+		// Then
+		assertEquals(1, posts.size());
+		assertEquals("ci:✅ 5 workflows succeeded on 2 repos and more:\n- a (main) x2\n- b (main)\n- 2 more", posts.get(0));
+	}
+
+	@Test
+	public void shutdown_should_post_the_pending_digests() {
+		// Given
+		digestAggregator.setConfig(config("60000", "50"));
+		digestAggregator.add("ci", "build", "antoine/api", "main", "api ok");
+
+		// When
+		digestAggregator.shutdown();
+
+		// Then
+		assertEquals(1, posts.size());
+		assertEquals("ci:api ok", posts.get(0));
+	}
+
+	@Test
+	public void add_should_post_the_notification_as_is_after_shutdown() {
+		// Given
+		digestAggregator.setConfig(config("60000", "50"));
+		digestAggregator.shutdown();
+
+		// When
+		digestAggregator.add("ci", "build", "antoine/api", "main", "api ok");
+
+		// Then
+		assertEquals(1, posts.size());
+		assertEquals("ci:api ok", posts.get(0));
+	}
+
+	private static Properties config(String windowMillis, String maxEntries) {
+		Properties properties = new Properties();
+		properties.setProperty("digest.window-ms", windowMillis);
+		properties.setProperty("digest.max-entries-per-target", maxEntries);
+		return properties;
+	}
+}
@@ -0,0 +1,154 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MessageCoalescerTest {
+
+	private List<String> posts = new CopyOnWriteArrayList<>();
+	private MessageCoalescer messageCoalescer = new MessageCoalescer((userName, message, url) -> {
+		posts.add(userName + ":" + message + (url != null ? "|" + url : ""));
+		return true;
+	});
+
+	@Test
+	public void send_should_post_directly_when_coalescing_is_disabled() {
+		// Given
+		messageCoalescer.setConfig(new Properties());
+
+		// When
+		boolean sent = messageCoalescer.send("antoine", "hello", null);
+
+		// Then
+		assertTrue(sent);
+		assertEquals(1, posts.size());
+		assertEquals("antoine:hello", posts.get(0));
+	}
+
+	@Test
+	public void sendAsync_should_post_in_order_without_holding_the_caller_when_coalescing_is_disabled() throws Exception {
+		// Given
+		CountDownLatch release = new CountDownLatch(1);
+		MessageCoalescer coalescer = new MessageCoalescer((userName, message, url) -> {
+			try {
+				release.await(2, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return posts.add(userName + ":" + message);
+		});
+		coalescer.setConfig(new Properties());
+
+		// When
+		CompletableFuture<Boolean> first = coalescer.sendAsync("antoine", "1", null);
+		CompletableFuture<Boolean> second = coalescer.sendAsync("antoine", "2", null);
+		boolean doneBeforeRelease = first.isDone();
+		release.countDown();
+		CompletableFuture.allOf(first, second).get(2, TimeUnit.SECONDS);
+
+		// Then
+		assertFalse(doneBeforeRelease);
+		assertEquals(2, posts.size());
+		assertEquals("antoine:1", posts.get(0));
+		assertEquals("antoine:2", posts.get(1));
+	}
+
+	@Test
+	public void sendAsync_should_merge_messages_of_the_same_user_sent_during_the_window() throws Exception {
+		// Given
+		Properties properties = new Properties();
+		properties.setProperty("delivery.coalesce.window-ms", "200");
+		messageCoalescer.setConfig(properties);
+
+		// When
+		CompletableFuture<Boolean> first = messageCoalescer.sendAsync("ci", "build 1 failed", null);
+		CompletableFuture<Boolean> second = messageCoalescer.sendAsync("ci", "build 2 failed", null);
+		CompletableFuture<Boolean> other = messageCoalescer.sendAsync("cd", "deployed", null);
+
+		// Then
+		assertTrue(first.get(2, TimeUnit.SECONDS));
+		assertTrue(second.get(2, TimeUnit.SECONDS));
+		assertTrue(other.get(2, TimeUnit.SECONDS));
+		assertEquals(2, posts.size());
+		assertTrue(posts.contains("ci:build 1 failed\nbuild 2 failed"));
+		assertTrue(posts.contains("cd:deployed"));
+	}
+
+	@Test
+	public void sendAsync_should_not_merge_messages_with_a_file() throws Exception {
+		// Given
+		Properties properties = new Properties();
+		properties.setProperty("delivery.coalesce.window-ms", "200");
+		messageCoalescer.setConfig(properties);
+
+		// When
+		CompletableFuture<Boolean> text = messageCoalescer.sendAsync("ci", "text", null);
+		CompletableFuture<Boolean> file = messageCoalescer.sendAsync("ci", "file", "http://file");
+		CompletableFuture.allOf(text, file).get(2, TimeUnit.SECONDS);
+
+		// Then
+		assertEquals(2, posts.size());
+		assertEquals("ci:text", posts.get(0));
+		assertEquals("ci:file|http://file", posts.get(1));
+	}
+
+	@Test
+	public void sendAsync_should_flush_when_max_messages_is_reached() throws Exception {
+		// Given
+		Properties properties = new Properties();
+		properties.setProperty("delivery.coalesce.window-ms", "60000");
+		properties.setProperty("delivery.coalesce.max-messages", "2");
+		messageCoalescer.setConfig(properties);
+
+		// When
+		CompletableFuture<Boolean> first = messageCoalescer.sendAsync("ci", "1", null);
+		CompletableFuture<Boolean> second = messageCoalescer.sendAsync("ci", "2", null);
+
+		// Then
+		CompletableFuture.allOf(first, second).get(2, TimeUnit.SECONDS);
+		assertEquals(1, posts.size());
+		assertEquals("ci:1\n2", posts.get(0));
+	}
+
+	@Test
+	public void sendAsync_should_pass_the_encoded_body_of_a_message_posted_alone() throws Exception {
+		// Given
+		List<String> bodies = new CopyOnWriteArrayList<>();
+		MessageCoalescer coalescer = new MessageCoalescer(new MessageSender() {
+			@Override
+			public boolean send(String userName, String message, String url) {
+				return send(userName, message, url, null);
+			}
+
+			@Override
+			public boolean send(String userName, String message, String url, String formBody) {
+				bodies.add(message + "=" + formBody);
+				return true;
+			}
+		});
+		Properties properties = new Properties();
+		properties.setProperty("delivery.coalesce.window-ms", "200");
+		coalescer.setConfig(properties);
+
+		// When
+		CompletableFuture<Boolean> alone = coalescer.sendAsync("cd", "deployed", null, "body-deployed");
+		CompletableFuture<Boolean> first = coalescer.sendAsync("ci", "1", null, "body-1");
+		CompletableFuture<Boolean> second = coalescer.sendAsync("ci", "2", null, "body-2");
+		CompletableFuture.allOf(alone, first, second).get(2, TimeUnit.SECONDS);
+
+		// Then
+		assertEquals(2, bodies.size());
+		assertTrue(bodies.contains("deployed=body-deployed"));
+		assertTrue(bodies.contains("1\n2=null"));
+	}
+}
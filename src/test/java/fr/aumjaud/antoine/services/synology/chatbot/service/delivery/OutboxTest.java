@@ -0,0 +1,190 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors;
+
+public class OutboxTest {
+
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("outbox-test");
+	}
+
+	@Test
+	public void outbox_should_reload_pending_entries_after_restart() {
+		// Given
+		Outbox outbox = new Outbox(directory, 4096);
+		OutboxEntry delivered = outbox.append("antoine", "delivered", null);
+		outbox.append("antoine", "pending éà", "http://file");
+		outbox.ack(delivered.getId());
+		outbox.flush();
+
+		// When
+		Outbox reopened = new Outbox(directory, 4096);
+
+		// Then
+		List<OutboxEntry> pending = reopened.getPending();
+		assertEquals(1, pending.size());
+		assertEquals("antoine", pending.get(0).getUserName());
+		assertEquals("pending éà", pending.get(0).getMessage());
+		assertEquals("http://file", pending.get(0).getUrl());
+		assertTrue(reopened.append("antoine", "next", null).getId() > pending.get(0).getId());
+	}
+
+	@Test
+	public void outbox_should_compact_segment_when_full() throws IOException {
+		// Given
+		Outbox outbox = new Outbox(directory, 256);
+		OutboxEntry kept = outbox.append("antoine", "kept", null);
+
+		// When
+		for (int i = 0; i < 100; i++) {
+			OutboxEntry entry = outbox.append("antoine", "message " + i, null);
+			outbox.ack(entry.getId());
+		}
+		outbox.flush();
+
+		// Then
+		try (Stream<Path> files = Files.list(directory)) {
+			assertEquals(1, files.count());
+		}
+		List<OutboxEntry> pending = new Outbox(directory, 256).getPending();
+		assertEquals(1, pending.size());
+		assertEquals(kept.getId(), pending.get(0).getId());
+		assertNull(pending.get(0).getUrl());
+	}
+
+	@Test
+	public void outbox_should_reopen_a_segment_grown_over_the_segment_size() {
+		// Given
+		Outbox outbox = new Outbox(directory, 256);
+		for (int i = 0; i < 50; i++) {
+			outbox.append("antoine", "pending message " + i, null);
+		}
+		outbox.flush();
+
+		// When
+		Outbox reopened = new Outbox(directory, 256);
+
+		// Then
+		List<OutboxEntry> pending = reopened.getPending();
+		assertEquals(50, pending.size());
+		assertEquals("pending message 0", pending.get(0).getMessage());
+		assertEquals("pending message 49", pending.get(49).getMessage());
+		reopened.append("antoine", "after reopen", null);
+		assertEquals(51, new Outbox(directory, 256).getPending().size());
+	}
+
+	@Test
+	public void outboxSender_should_retry_failed_messages_until_delivered() throws InterruptedException {
+		// Given
+		AtomicInteger attempts = new AtomicInteger();
+		List<String> delivered = new CopyOnWriteArrayList<>();
+		OutboxSender outboxSender = new OutboxSender((userName, message, url) -> {
+			if (attempts.incrementAndGet() < 3)
+				return false;
+			delivered.add(message);
+			return true;
+		});
+		Properties properties = new Properties();
+		properties.setProperty("outbox.dir", directory.toString());
+		properties.setProperty("outbox.retry.initial-delay-ms", "10");
+		outboxSender.setConfig(properties);
+
+		// When
+		boolean sent = outboxSender.send("antoine", "hello", null);
+
+		// Then
+		assertFalse(sent);
+		for (int i = 0; i < 100 && delivered.isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, delivered.size());
+		assertEquals(3, attempts.get());
+	}
+
+	@Test
+	public void outboxSender_should_wait_for_the_rate_limit_before_a_retry() throws InterruptedException {
+		// Given
+		AtomicInteger attempts = new AtomicInteger();
+		AtomicInteger tokenRequests = new AtomicInteger();
+		OutboxSender outboxSender = new OutboxSender((userName, message, url) -> attempts.incrementAndGet() > 1,
+				new TaskExecutors(), userName -> tokenRequests.incrementAndGet() < 3 ? 20 : 0);
+		Properties properties = new Properties();
+		properties.setProperty("outbox.dir", directory.toString());
+		properties.setProperty("outbox.retry.initial-delay-ms", "10");
+		outboxSender.setConfig(properties);
+
+		// When
+		outboxSender.send("antoine", "hello", null);
+
+		// Then
+		for (int i = 0; i < 100 && attempts.get() < 2; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, attempts.get());
+		assertEquals(3, tokenRequests.get());
+	}
+
+	@Test
+	public void outboxSender_should_send_async_without_holding_the_caller() throws Exception {
+		// Given
+		CountDownLatch release = new CountDownLatch(1);
+		OutboxSender outboxSender = new OutboxSender((userName, message, url) -> {
+			try {
+				return release.await(2, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		});
+		outboxSender.setConfig(new Properties());
+
+		// When
+		CompletableFuture<Boolean> sending = outboxSender.sendAsync("antoine", "hello", null);
+		boolean doneBeforeRelease = sending.isDone();
+		release.countDown();
+
+		// Then
+		assertFalse(doneBeforeRelease);
+		assertTrue(sending.get(2, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void retryDelay_should_grow_exponentially_up_to_the_max() {
+		OutboxSender outboxSender = new OutboxSender((userName, message, url) -> true);
+		Properties properties = new Properties();
+		properties.setProperty("outbox.retry.initial-delay-ms", "1000");
+		properties.setProperty("outbox.retry.max-delay-ms", "10000");
+		outboxSender.setConfig(properties);
+
+		long first = outboxSender.retryDelay(1);
+		long third = outboxSender.retryDelay(3);
+		long tenth = outboxSender.retryDelay(10);
+
+		assertTrue(first >= 500 && first <= 1000);
+		assertTrue(third >= 2000 && third <= 4000);
+		assertTrue(tenth >= 5000 && tenth <= 10000);
+	}
+}
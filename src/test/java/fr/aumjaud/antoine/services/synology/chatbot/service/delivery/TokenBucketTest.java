@@ -0,0 +1,39 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+	private AtomicLong now = new AtomicLong();
+
+	@Test
+	public void tryAcquire_should_allow_a_burst_then_ask_to_wait() {
+		// Given
+		TokenBucket tokenBucket = new TokenBucket(60, 2, now::get);
+
+		// When / Then
+		assertEquals(0, tokenBucket.tryAcquire());
+		assertEquals(0, tokenBucket.tryAcquire());
+		long waitMillis = tokenBucket.tryAcquire();
+		assertTrue("wait " + waitMillis, waitMillis > 900 && waitMillis <= 1000);
+	}
+
+	@Test
+	public void tryAcquire_should_refill_tokens_with_time() {
+		// Given
+		TokenBucket tokenBucket = new TokenBucket(60, 1, now::get);
+		tokenBucket.tryAcquire();
+
+		// When
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+
+		// Then
+		assertEquals(0, tokenBucket.tryAcquire());
+	}
+}
@@ -0,0 +1,46 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.delivery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors;
+
+public class TransientSenderTest {
+
+	private List<String> posts = new CopyOnWriteArrayList<>();
+	private MessageSender poster = (userName, message, url) -> posts.add(userName + ":" + message);
+
+	@Test
+	public void sendAsync_should_post_when_the_rate_limit_gives_a_token() throws Exception {
+		// Given
+		TransientSender transientSender = new TransientSender(poster, new TaskExecutors(), userName -> 0);
+
+		// When
+		boolean sent = transientSender.sendAsync("antoine", "50%", null).get(2, TimeUnit.SECONDS);
+
+		// Then
+		assertTrue(sent);
+		assertEquals(1, posts.size());
+		assertEquals("antoine:50%", posts.get(0));
+	}
+
+	@Test
+	public void send_should_drop_the_message_when_the_rate_limit_has_no_token() {
+		// Given
+		TransientSender transientSender = new TransientSender(poster, new TaskExecutors(), userName -> 1000);
+
+		// When
+		boolean sent = transientSender.send("antoine", "50%", null);
+
+		// Then
+		assertFalse(sent);
+		assertTrue(posts.isEmpty());
+	}
+}
@@ -0,0 +1,152 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DownloadCacheTest {
+
+	private Path directory;
+	private Properties properties;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("download-cache");
+		properties = new Properties();
+		properties.setProperty("download.index-file", directory.resolve("downloads.idx").toString());
+		properties.setProperty("download.share-dir", directory.resolve("$user").toString());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private Path download(String userName, String name) throws IOException {
+		Path shareDir = Files.createDirectories(directory.resolve(userName));
+		return Files.write(shareDir.resolve(name), ("content of " + name).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private DownloadCache cache() {
+		DownloadCache downloadCache = new DownloadCache();
+		downloadCache.setConfig(properties);
+		return downloadCache;
+	}
+
+	@Test
+	public void reuse_should_return_the_file_already_downloaded_by_the_user() throws IOException {
+		// Given
+		Path file = download("antoine", "song.mp3");
+		cache().record("youtube:1", file);
+
+		// When
+		Path reused = cache().reuse("antoine", "youtube:1");
+
+		// Then
+		assertEquals(file.toAbsolutePath(), reused.toAbsolutePath());
+	}
+
+	@Test
+	public void record_should_not_fail_if_the_index_can_not_be_saved() throws IOException {
+		// Given
+		properties.setProperty("download.index-file", directory.resolve("missing").resolve("downloads.idx").toString());
+		Path file = download("antoine", "song.mp3");
+		DownloadCache downloadCache = cache();
+
+		// When
+		downloadCache.record("youtube:1", file);
+
+		// Then
+		assertEquals(file.toAbsolutePath(), downloadCache.reuse("antoine", "youtube:1").toAbsolutePath());
+	}
+
+	@Test
+	public void reuse_should_put_the_file_in_the_share_of_another_user() throws IOException {
+		// Given
+		Path file = download("antoine", "song.mp3");
+		DownloadCache downloadCache = cache();
+		downloadCache.record("youtube:1", file);
+
+		// When
+		Path reused = downloadCache.reuse("bob", "youtube:1");
+
+		// Then
+		assertEquals(directory.resolve("bob").resolve("song.mp3"), reused);
+		assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(reused));
+	}
+
+	@Test
+	public void reuse_should_return_null_and_forget_a_deleted_file() throws IOException {
+		// Given
+		Path file = download("antoine", "song.mp3");
+		DownloadCache downloadCache = cache();
+		downloadCache.record("youtube:1", file);
+		Files.delete(file);
+
+		// When
+		Path reused = downloadCache.reuse("antoine", "youtube:1");
+
+		// Then
+		assertNull(reused);
+		assertEquals(0, new DownloadIndex(directory.resolve("downloads.idx")).size());
+	}
+
+	@Test
+	public void reuse_should_return_null_if_file_content_changed() throws IOException {
+		// Given
+		Path file = download("antoine", "song.mp3");
+		DownloadCache downloadCache = cache();
+		downloadCache.record("youtube:1", file);
+		Files.write(file, "content of other.mp3".getBytes(StandardCharsets.UTF_8)); // same size
+
+		// When
+		Path reused = downloadCache.reuse("antoine", "youtube:1");
+
+		// Then
+		assertNull(reused);
+	}
+
+	@Test
+	public void setConfig_should_remove_entries_of_deleted_files() throws IOException {
+		// Given
+		Path file = download("antoine", "song.mp3");
+		cache().record("youtube:1", file);
+		Files.delete(file);
+
+		// When
+		cache();
+
+		// Then
+		assertEquals(0, new DownloadIndex(directory.resolve("downloads.idx")).size());
+	}
+
+	@Test
+	public void listOutputs_should_list_files_of_the_format() throws IOException {
+		// Given
+		Path file = download("antoine", "song.mp3");
+		download("antoine", "song.part");
+
+		// When
+		DownloadCache downloadCache = cache();
+
+		// Then
+		assertEquals(1, downloadCache.listOutputs("antoine").size());
+		assertTrue(downloadCache.listOutputs("antoine").contains(file));
+		assertTrue(downloadCache.listOutputs("bob").isEmpty());
+	}
+}
@@ -0,0 +1,80 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DownloadIndexTest {
+
+	private Path directory;
+	private Path indexFile;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("download-index");
+		indexFile = directory.resolve("downloads.idx");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(indexFile);
+		Files.deleteIfExists(directory);
+	}
+
+	@Test
+	public void put_should_be_loaded_when_index_is_opened_again() {
+		// Given
+		DownloadIndex index = new DownloadIndex(indexFile);
+		index.put("youtube:1#mp3", new DownloadIndex.Entry("/music/antoine/one.mp3", 4096, 1000, 42, 2000));
+		index.put("youtube:2#mp3", new DownloadIndex.Entry("/music/antoine/two.mp3", 8192, 1001, 43, 2001));
+		index.remove("youtube:2#mp3");
+
+		// When
+		DownloadIndex reopened = new DownloadIndex(indexFile);
+
+		// Then
+		assertEquals(1, reopened.size());
+		DownloadIndex.Entry entry = reopened.get("youtube:1#mp3");
+		assertEquals("/music/antoine/one.mp3", entry.getPath());
+		assertEquals(4096, entry.getSize());
+		assertEquals(1000, entry.getLastModified());
+		assertEquals(42, entry.getChecksum());
+		assertEquals(2000, entry.getCompletedAt());
+		assertNull(reopened.get("youtube:2#mp3"));
+	}
+
+	@Test
+	public void removeIf_should_remove_matching_entries() {
+		// Given
+		DownloadIndex index = new DownloadIndex(indexFile);
+		index.put("youtube:1#mp3", new DownloadIndex.Entry("/music/one.mp3", 1, 1, 1, 1));
+		index.put("youtube:2#mp3", new DownloadIndex.Entry("/deleted/two.mp3", 1, 1, 1, 1));
+
+		// When
+		int removed = index.removeIf(entry -> entry.getPath().startsWith("/deleted"));
+
+		// Then
+		assertEquals(1, removed);
+		assertEquals(1, new DownloadIndex(indexFile).size());
+	}
+
+	@Test
+	public void index_should_start_empty_if_file_is_not_an_index() throws IOException {
+		// Given
+		Files.write(indexFile, "not an index".getBytes(StandardCharsets.UTF_8));
+
+		// When
+		DownloadIndex index = new DownloadIndex(indexFile);
+
+		// Then
+		assertEquals(0, index.size());
+	}
+}
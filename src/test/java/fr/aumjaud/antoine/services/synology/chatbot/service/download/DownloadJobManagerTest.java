@@ -0,0 +1,275 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors;
+
+public class DownloadJobManagerTest {
+
+	private final List<String> notifications = new CopyOnWriteArrayList<>();
+	private final List<String> downloaded = new CopyOnWriteArrayList<>();
+	private final AtomicInteger runs = new AtomicInteger();
+	private CountDownLatch release;
+	private TaskExecutors taskExecutors;
+	private Properties properties;
+	private Path stateFile;
+
+	@Before
+	public void setUp() throws IOException {
+		release = new CountDownLatch(1);
+		properties = new Properties();
+		properties.setProperty("execution.download.max-concurrent", "1");
+		properties.setProperty("download.queue.per-user-capacity", "2");
+		properties.setProperty("download.shutdown.timeout-ms", "100");
+		stateFile = Files.createTempFile("downloads", ".state");
+		Files.delete(stateFile);
+		taskExecutors = new TaskExecutors();
+		taskExecutors.setConfig(properties);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		release.countDown();
+		Files.deleteIfExists(stateFile);
+	}
+
+	private DownloadJobManager manager() {
+		DownloadJobManager manager = new DownloadJobManager(job -> {
+			runs.incrementAndGet();
+			try {
+				release.await(2, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			downloaded.add(job.getVideoId());
+			return new DownloadResult("downloaded " + job.getVideoId(), null);
+		}, (userName, message, url) -> notifications.add(userName + ": " + message), taskExecutors);
+		manager.setConfig(properties);
+		return manager;
+	}
+
+	private void waitFor(int count, List<String> list) throws InterruptedException {
+		for (int i = 0; i < 200 && list.size() < count; i++) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void submit_should_download_once_a_video_requested_twice_and_notify_all_requesters() throws InterruptedException {
+		// Given
+		DownloadJobManager manager = manager();
+
+		// When
+		String first = manager.submit("antoine", "https://youtu.be/dQw4w9WgXcQ", "youtube:dQw4w9WgXcQ");
+		String second = manager.submit("bob", "https://www.youtube.com/watch?v=dQw4w9WgXcQ", "youtube:dQw4w9WgXcQ");
+		release.countDown();
+		waitFor(2, notifications);
+
+		// Then
+		assertTrue(first.contains("job #1"));
+		assertTrue(second.contains("job #1, already requested"));
+		assertEquals(1, runs.get());
+		assertEquals(2, notifications.size());
+		assertTrue(notifications.contains("antoine: ✅ downloaded youtube:dQw4w9WgXcQ"));
+		assertTrue(notifications.contains("bob: ✅ downloaded youtube:dQw4w9WgXcQ"));
+	}
+
+	@Test
+	public void submit_should_serve_the_users_in_turn() throws InterruptedException {
+		// Given
+		DownloadJobManager manager = manager();
+		manager.submit("antoine", "url1", "youtube:1");
+		manager.submit("antoine", "url2", "youtube:2");
+		manager.submit("antoine", "url3", "youtube:3");
+
+		// When
+		manager.submit("bob", "url4", "youtube:4");
+		release.countDown();
+		waitFor(4, downloaded);
+
+		// Then
+		assertEquals("youtube:1", downloaded.get(0));
+		assertEquals("youtube:4", downloaded.get(1));
+		assertEquals("youtube:2", downloaded.get(2));
+	}
+
+	@Test
+	public void submit_should_reject_a_download_when_user_queue_is_full() {
+		// Given
+		DownloadJobManager manager = manager();
+		manager.submit("antoine", "url1", "youtube:1"); // running
+		manager.submit("antoine", "url2", "youtube:2");
+		manager.submit("antoine", "url3", "youtube:3");
+
+		// When
+		String response = manager.submit("antoine", "url4", "youtube:4");
+
+		// Then
+		assertTrue(response.startsWith("❌ Too many downloads queued"));
+	}
+
+	@Test
+	public void cancel_should_remove_a_queued_job() throws InterruptedException {
+		// Given
+		DownloadJobManager manager = manager();
+		manager.submit("antoine", "url1", "youtube:1");
+		manager.submit("antoine", "url2", "youtube:2");
+
+		// When
+		String response = manager.cancel("antoine", " #2");
+		release.countDown();
+		waitFor(1, notifications);
+		Thread.sleep(50);
+
+		// Then
+		assertEquals("✅ Download #2 cancelled.", response);
+		assertEquals(1, runs.get());
+		assertFalse(manager.status("antoine").contains("url2"));
+	}
+
+	@Test
+	public void submit_should_download_again_a_video_cancelled_while_running() throws InterruptedException {
+		// Given
+		DownloadJobManager manager = manager();
+		manager.submit("antoine", "url1", "youtube:1");
+		manager.cancel("antoine", "1");
+
+		// When
+		String response = manager.submit("bob", "url1", "youtube:1");
+		release.countDown();
+		waitFor(1, notifications);
+
+		// Then
+		assertEquals("✅ Music download started (job #2). You'll be notified when it's ready.", response);
+		assertEquals(1, notifications.size());
+		assertEquals("bob: ✅ downloaded youtube:1", notifications.get(0));
+		assertEquals(2, runs.get());
+	}
+
+	@Test
+	public void shutdown_should_not_save_a_running_job_cancelled() throws IOException {
+		// Given
+		properties.setProperty("download.state-file", stateFile.toString());
+		DownloadJobManager manager = manager();
+		manager.submit("antoine", "url1", "youtube:1");
+		manager.cancel("antoine", "1");
+
+		// When
+		manager.shutdown();
+
+		// Then
+		assertTrue(Files.readAllLines(stateFile).isEmpty());
+	}
+
+	@Test
+	public void cancel_should_keep_a_job_requested_by_another_user() {
+		// Given
+		DownloadJobManager manager = manager();
+		manager.submit("antoine", "url1", "youtube:1");
+		manager.submit("bob", "url1", "youtube:1");
+
+		// When
+		String response = manager.cancel("bob", "1");
+
+		// Then
+		assertTrue(response.contains("still requested by another user"));
+		assertTrue(manager.status("antoine").contains("#1 downloading url1"));
+		assertTrue(manager.status("bob").startsWith("No download in progress"));
+	}
+
+	@Test
+	public void cancel_should_refuse_the_job_of_another_user() {
+		// Given
+		DownloadJobManager manager = manager();
+		manager.submit("antoine", "url1", "youtube:1");
+
+		// When
+		String response = manager.cancel("bob", "1");
+
+		// Then
+		assertEquals("❌ No pending download #1 for you.", response);
+	}
+
+	@Test
+	public void status_should_list_running_and_queued_jobs_of_the_user() {
+		// Given
+		DownloadJobManager manager = manager();
+		manager.submit("antoine", "url1", "youtube:1");
+		manager.submit("antoine", "url2", "youtube:2");
+
+		// When
+		String status = manager.status("antoine");
+
+		// Then
+		assertTrue(status.contains("#1 downloading url1"));
+		assertTrue(status.contains("#2 queued url2"));
+		assertTrue(status.contains("(1 running, 1 queued)"));
+	}
+
+	@Test
+	public void shutdown_should_save_unfinished_jobs_and_restore_them_at_startup() throws InterruptedException {
+		// Given
+		properties.setProperty("download.state-file", stateFile.toString());
+		DownloadJobManager manager = manager();
+		manager.submit("antoine", "url1", "youtube:1");
+		manager.submit("antoine", "url2", "youtube:2");
+		manager.submit("bob", "url2", "youtube:2");
+
+		// When
+		manager.shutdown();
+		String rejected = manager.submit("antoine", "url3", "youtube:3");
+		release.countDown();
+		release = new CountDownLatch(1);
+		DownloadJobManager restarted = manager();
+
+		// Then
+		assertTrue(rejected.startsWith("❌ The service is stopping"));
+		assertFalse(Files.exists(stateFile));
+		String status = restarted.status("bob");
+		assertTrue(status, status.contains("url2"));
+		assertTrue(restarted.status("antoine").contains("url1"));
+	}
+
+	@Test
+	public void submit_should_not_download_a_video_in_cache() throws IOException, InterruptedException {
+		// Given
+		Path shareDir = Files.createTempDirectory("share");
+		Path file = Files.write(shareDir.resolve("song.mp3"), new byte[] { 1, 2, 3 });
+		properties.setProperty("download.share-dir", shareDir.toString());
+		properties.setProperty("download.index-file", stateFile.toString());
+		DownloadCache downloadCache = new DownloadCache();
+		downloadCache.setConfig(properties);
+		downloadCache.record("youtube:1", file);
+		DownloadJobManager manager = new DownloadJobManager(job -> {
+			runs.incrementAndGet();
+			return new DownloadResult("downloaded", null);
+		}, (userName, message, url) -> notifications.add(userName + ": " + message), taskExecutors, downloadCache);
+
+		// When
+		String response = manager.submit("antoine", "url1", "youtube:1");
+		waitFor(1, notifications);
+
+		// Then
+		assertTrue(response.contains("job #1"));
+		assertEquals("antoine: ✅ Already downloaded: song.mp3 is in your drive.", notifications.get(0));
+		assertEquals(0, runs.get());
+		Files.delete(file);
+		Files.delete(shareDir);
+	}
+}
@@ -0,0 +1,102 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class DownloadOutputParserTest {
+
+	private static final String OUTPUT = "[youtube] dQw4w9WgXcQ: Downloading webpage\n"
+			+ "[download] Destination: /downloads/Rick Astley - Never Gonna Give You Up.webm\n"
+			+ "\r[download]   0.0% of 3.45MiB at 10.00KiB/s ETA 05:53"
+			+ "\r[download]  45.3% of 3.45MiB at  1.20MiB/s ETA 00:02"
+			+ "\r[download]  90.1% of 3.45MiB at  1.20MiB/s ETA 00:00"
+			+ "\r[download] 100% of 3.45MiB in 00:03\n"
+			+ "[ExtractAudio] Destination: /downloads/Rick Astley - Never Gonna Give You Up.mp3\n"
+			+ "Deleting original file /downloads/Rick Astley - Never Gonna Give You Up.webm\n";
+
+	private static DownloadOutputParser parse(String output, DownloadOutputParser parser) throws IOException {
+		parser.parse(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)));
+		return parser;
+	}
+
+	@Test
+	public void parse_should_extract_the_last_destination_and_size() throws IOException {
+		// When
+		DownloadOutputParser parser = parse(OUTPUT, new DownloadOutputParser(20, 0, null));
+
+		// Then
+		assertEquals("/downloads/Rick Astley - Never Gonna Give You Up.mp3", parser.getDestination());
+		assertEquals("3.45MiB", parser.getTotalSize());
+	}
+
+	@Test
+	public void parse_should_keep_only_the_last_lines_without_progress() throws IOException {
+		// When
+		DownloadOutputParser parser = parse(OUTPUT, new DownloadOutputParser(2, 0, null));
+
+		// Then
+		assertEquals("[ExtractAudio] Destination: /downloads/Rick Astley - Never Gonna Give You Up.mp3\n"
+				+ "Deleting original file /downloads/Rick Astley - Never Gonna Give You Up.webm\n", parser.getTail());
+	}
+
+	@Test
+	public void parse_should_report_progress_at_most_once_per_interval() throws IOException {
+		// Given
+		AtomicLong now = new AtomicLong(0);
+		List<String> reports = new ArrayList<>();
+		DownloadOutputParser parser = new DownloadOutputParser(20, 1000, now::get, (percent, totalSize) -> reports.add(percent + " " + totalSize));
+
+		// When
+		parser.accept("[download]   0.0% of 3.45MiB at 10.00KiB/s ETA 05:53");
+		now.set(1000);
+		parser.accept("[download]  45.3% of 3.45MiB at  1.20MiB/s ETA 00:02");
+		now.set(1500);
+		parser.accept("[download]  60.0% of 3.45MiB at  1.20MiB/s ETA 00:01");
+		now.set(2500);
+		parser.accept("[download] 100% of 3.45MiB in 00:03");
+
+		// Then
+		assertEquals(1, reports.size());
+		assertEquals("45.3 3.45MiB", reports.get(0));
+	}
+
+	@Test
+	public void parse_should_extract_the_destination_of_an_already_downloaded_file() throws IOException {
+		// When
+		DownloadOutputParser parser = parse("[download] /downloads/song.mp3 has already been downloaded\n", new DownloadOutputParser(20, 0, null));
+
+		// Then
+		assertEquals("/downloads/song.mp3", parser.getDestination());
+	}
+
+	@Test
+	public void parse_should_truncate_very_long_lines() throws IOException {
+		// Given
+		StringBuilder longLine = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			longLine.append('x');
+		}
+
+		// When
+		DownloadOutputParser parser = parse(longLine + "\nend", new DownloadOutputParser(20, 0, null));
+
+		// Then
+		String[] lines = parser.getTail().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0].length() < 10000);
+		assertEquals("end", lines[1]);
+		assertNull(parser.getDestination());
+		assertFalse(parser.getTail().contains("%"));
+	}
+}
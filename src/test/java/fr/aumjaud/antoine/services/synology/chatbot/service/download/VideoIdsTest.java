@@ -0,0 +1,53 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class VideoIdsTest {
+
+	@Test
+	public void canonicalId_should_return_the_same_id_for_all_url_formats() {
+		String[] urls = {
+			"https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+			"https://www.youtube.com/watch?feature=share&v=dQw4w9WgXcQ&t=42",
+			"https://youtu.be/dQw4w9WgXcQ?si=abc",
+			"http://youtube.com/watch?v=dQw4w9WgXcQ",
+			"youtube.com/watch?v=dQw4w9WgXcQ",
+			"https://m.youtube.com/shorts/dQw4w9WgXcQ",
+			"https://music.youtube.com/watch?v=dQw4w9WgXcQ",
+			"https://www.youtube.com/embed/dQw4w9WgXcQ"
+		};
+
+		for (String url : urls) {
+			assertEquals(url, "youtube:dQw4w9WgXcQ", VideoIds.canonicalId(url));
+		}
+	}
+
+	@Test
+	public void canonicalId_should_keep_the_playlist_in_the_id() {
+		assertEquals("youtube:dQw4w9WgXcQ&list=PL123", VideoIds.canonicalId("https://www.youtube.com/watch?v=dQw4w9WgXcQ&list=PL123"));
+		assertEquals("youtube:dQw4w9WgXcQ&list=RDdQw4w9WgXcQ", VideoIds.canonicalId("https://music.youtube.com/watch?v=dQw4w9WgXcQ&list=RDdQw4w9WgXcQ"));
+		assertEquals("youtube:list=PL123", VideoIds.canonicalId("https://www.youtube.com/playlist?list=PL123"));
+		assertEquals("youtube:list=PL123", VideoIds.canonicalId("youtube.com/playlist?list=PL123&si=abc"));
+	}
+
+	@Test
+	public void canonicalId_should_use_the_url_if_it_has_no_video_nor_playlist_id() {
+		assertEquals("youtube-url:youtube.com/@channel/videos", VideoIds.canonicalId("https://www.youtube.com/@channel/videos/"));
+		assertEquals("youtube-url:youtube.com/@channel/videos", VideoIds.canonicalId("http://m.youtube.com/@channel/videos"));
+		assertEquals("youtube-url:youtube.com/watch?v=tooShort", VideoIds.canonicalId("https://www.youtube.com/watch?v=tooShort"));
+	}
+
+	@Test
+	public void canonicalId_should_return_null_if_url_is_not_a_youtube_url() {
+		assertNull(VideoIds.canonicalId("https://www.example.com/watch?v=dQw4w9WgXcQ"));
+	}
+
+	@Test
+	public void isYoutubeUrl_should_not_match_other_hosts() {
+		assertFalse(VideoIds.isYoutubeUrl("https://notyoutube.com/watch?v=dQw4w9WgXcQ"));
+	}
+}
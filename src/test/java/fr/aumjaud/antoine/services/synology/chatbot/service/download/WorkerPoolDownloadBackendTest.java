@@ -0,0 +1,143 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorkerPoolDownloadBackendTest {
+
+	private static final String WORKER = "while IFS=\"$(printf '\\t')\" read -r cmd id url user uid gid; do case \"$cmd\" in"
+			+ " PING) echo PONG;;"
+			+ " JOB) printf '[download]  50.0%% of 1.00MiB\\r'; [ \"$url\" = crash ] && exit 1;"
+			+ " echo \"[download] Destination: /worker/$$/$url.mp3\"; printf 'DONE\\t%s\\t0\\n' \"$id\";;"
+			+ " esac; done";
+
+	private Properties properties;
+	private WorkerPoolDownloadBackend backend;
+
+	@Before
+	public void setUp() {
+		properties = new Properties();
+		properties.setProperty("download.worker.count", "1");
+		properties.setProperty("download.worker.health-interval-ms", "100");
+		properties.setProperty("download.worker.acquire-timeout-ms", "1000");
+		properties.setProperty("youtube.mp3.download.command", "echo '[download] Destination: /fallback/$url.mp3'");
+		backend = new WorkerPoolDownloadBackend(new ProcessDownloadBackend());
+	}
+
+	@After
+	public void tearDown() {
+		backend.shutdown();
+	}
+
+	private String download(long id, String url) throws IOException, InterruptedException {
+		Map<String, String> variables = new LinkedHashMap<>();
+		variables.put("url", url);
+		variables.put("user", "antoine");
+		variables.put("uid", "1000");
+		variables.put("gid", null);
+		DownloadOutputParser output = new DownloadOutputParser(20, 0, null);
+		assertEquals(0, backend.download(new DownloadJob(id, "youtube:" + url, url, "antoine"), variables, output));
+		return output.getDestination();
+	}
+
+	private void waitForWorkers(int count) throws InterruptedException {
+		for (int i = 0; i < 300 && backend.getWorkerCount() != count; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, backend.getWorkerCount());
+	}
+
+	@Test
+	public void download_should_run_the_jobs_in_the_same_worker_process() throws IOException, InterruptedException {
+		// Given
+		properties.setProperty("download.worker.command", WORKER);
+		backend.setConfig(properties);
+		waitForWorkers(1);
+
+		// When
+		String first = download(1, "url1");
+		String second = download(2, "url2");
+
+		// Then
+		assertTrue(first, first.startsWith("/worker/") && first.endsWith("/url1.mp3"));
+		assertEquals(first.replace("url1", "url2"), second);
+	}
+
+	@Test
+	public void download_should_restart_a_worker_which_crashed() throws IOException, InterruptedException {
+		// Given
+		properties.setProperty("download.worker.command", WORKER);
+		backend.setConfig(properties);
+		waitForWorkers(1);
+		String first = download(1, "url1");
+
+		// When
+		String crashed = download(2, "crash");
+		waitForWorkers(1);
+		String third = download(3, "url3");
+
+		// Then
+		assertEquals("/fallback/crash.mp3", crashed);
+		assertTrue(third, third.startsWith("/worker/"));
+		assertFalse(first.replace("url1", "url3").equals(third)); // another worker process
+	}
+
+	@Test
+	public void download_should_use_the_fallback_when_no_worker_starts() throws IOException, InterruptedException {
+		// Given
+		properties.setProperty("download.worker.command", "exit 1");
+		backend.setConfig(properties);
+		Thread.sleep(100);
+
+		// When
+		String destination = download(1, "url1");
+
+		// Then
+		assertEquals(0, backend.getWorkerCount());
+		assertEquals("/fallback/url1.mp3", destination);
+	}
+
+	@Test
+	public void setConfig_should_replace_the_workers_when_their_count_changes() throws IOException, InterruptedException {
+		// Given
+		properties.setProperty("download.worker.command", WORKER);
+		backend.setConfig(properties);
+		waitForWorkers(1);
+		String first = download(1, "url1");
+
+		// When
+		properties.setProperty("download.worker.count", "2");
+		backend.setConfig(properties);
+		waitForWorkers(2);
+		String second = download(2, "url1");
+
+		// Then
+		assertTrue(second, second.startsWith("/worker/"));
+		assertFalse(first.equals(second)); // the first worker was stopped
+	}
+
+	@Test
+	public void stopWorkers_should_run_the_downloads_on_the_fallback() throws IOException, InterruptedException {
+		// Given
+		properties.setProperty("download.worker.command", WORKER);
+		backend.setConfig(properties);
+		waitForWorkers(1);
+
+		// When
+		backend.stopWorkers();
+		waitForWorkers(0);
+
+		// Then
+		assertEquals("/fallback/url1.mp3", download(1, "url1"));
+	}
+}
@@ -0,0 +1,112 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors.TaskType;
+
+public class TaskExecutorsTest {
+
+	private TaskExecutors taskExecutors(boolean virtualThreads, int downloadLimit) {
+		Properties properties = new Properties();
+		properties.setProperty("execution.virtual-threads", String.valueOf(virtualThreads));
+		properties.setProperty("execution.download.max-concurrent", String.valueOf(downloadLimit));
+		properties.setProperty("execution.request.max-concurrent", "1");
+		properties.setProperty("execution.request.wait-ms", "10");
+		TaskExecutors taskExecutors = new TaskExecutors();
+		taskExecutors.setConfig(properties);
+		return taskExecutors;
+	}
+
+	@Test
+	public void supplyAsync_should_run_on_virtual_threads_when_enabled() {
+		// Given
+		TaskExecutors taskExecutors = taskExecutors(true, 2);
+
+		// When
+		boolean virtual = taskExecutors.supplyAsync(TaskType.DOWNLOAD, () -> Thread.currentThread().isVirtual()).join();
+
+		// Then
+		assertTrue(taskExecutors.isVirtualThreads());
+		assertTrue(virtual);
+	}
+
+	@Test
+	public void supplyAsync_should_run_on_platform_threads_by_default() {
+		// Given
+		TaskExecutors taskExecutors = new TaskExecutors();
+
+		// When
+		boolean virtual = taskExecutors.supplyAsync(TaskType.DOWNLOAD, () -> Thread.currentThread().isVirtual()).join();
+
+		// Then
+		assertFalse(virtual);
+	}
+
+	@Test
+	public void supplyAsync_should_not_run_more_tasks_than_the_limit_of_their_type() {
+		// Given
+		TaskExecutors taskExecutors = taskExecutors(true, 3);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+
+		// When
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			futures.add(taskExecutors.supplyAsync(TaskType.DOWNLOAD, () -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+				return null;
+			}));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+		// Then
+		assertEquals(3, maxRunning.get());
+	}
+
+	@Test
+	public void callLimited_should_return_null_when_the_limit_is_reached() throws InterruptedException {
+		// Given
+		TaskExecutors taskExecutors = taskExecutors(false, 1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread busy = new Thread(() -> taskExecutors.callLimited(TaskType.REQUEST, () -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return true;
+		}));
+		busy.start();
+		assertTrue(started.await(1, TimeUnit.SECONDS));
+
+		// When
+		Boolean result = taskExecutors.callLimited(TaskType.REQUEST, () -> true);
+
+		// Then
+		assertNull(result);
+		release.countDown();
+		busy.join();
+		assertTrue(taskExecutors.callLimited(TaskType.REQUEST, () -> true));
+	}
+}
@@ -0,0 +1,49 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void index_should_select_the_smallest_power_of_2_bucket_containing_the_value() {
+		// Then
+		assertEquals(0, Histogram.index(0));
+		assertEquals(0, Histogram.index(1024));
+		assertEquals(1, Histogram.index(1025));
+		assertEquals(1, Histogram.index(2048));
+		assertEquals(10, Histogram.index(1_000_000)); // 1 ms <= 2^20 ns
+		assertEquals(Histogram.BUCKETS - 1, Histogram.index(1L << 36));
+		assertEquals(Histogram.BUCKETS, Histogram.index((1L << 36) + 1));
+		assertEquals(Histogram.BUCKETS, Histogram.index(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void index_should_keep_values_under_their_bucket_bound() {
+		for (long value = 1; value < 1L << 40; value = value * 3 + 1) {
+			int index = Histogram.index(value);
+			// Then
+			assertEquals(true, value <= Histogram.upperBound(index));
+			assertEquals(true, index == 0 || value > Histogram.upperBound(index - 1));
+		}
+	}
+
+	@Test
+	public void record_should_count_values_and_sum_them() {
+		// Given
+		Histogram histogram = new Histogram();
+
+		// When
+		histogram.record(500);
+		histogram.record(1500);
+		histogram.record(1800);
+		histogram.record(-5); // clock going back
+
+		// Then
+		assertEquals(4, histogram.getCount());
+		assertEquals(3800, histogram.getSumNanos());
+		assertEquals(2, histogram.getBucketCount(0));
+		assertEquals(2, histogram.getBucketCount(1));
+	}
+}
@@ -0,0 +1,110 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+	@Test
+	public void counter_should_be_shared_by_name_and_labels() {
+		// Given
+		MetricsRegistry registry = new MetricsRegistry();
+
+		// When
+		Counter counter = registry.counter("test_total", "Test", "result", "ok");
+		counter.increment();
+		registry.counter("test_total", "Test", "result", "ok").add(2);
+		registry.counter("test_total", "Test", "result", "ko").increment();
+
+		// Then
+		assertSame(counter, registry.counter("test_total", "Test", "result", "ok"));
+		assertEquals(3, counter.get());
+	}
+
+	@Test
+	public void render_should_write_counters_and_gauges_in_the_text_format() {
+		// Given
+		MetricsRegistry registry = new MetricsRegistry();
+		AtomicLong queued = new AtomicLong(4);
+		registry.counter("test_total", "Test calls", "result", "ok").add(3);
+		registry.gauge("test_queued", "Queued", queued::get);
+
+		// When
+		queued.set(5);
+		String text = registry.render();
+
+		// Then
+		assertEquals("# HELP test_queued Queued\n"
+				+ "# TYPE test_queued gauge\n"
+				+ "test_queued 5\n"
+				+ "# HELP test_total Test calls\n"
+				+ "# TYPE test_total counter\n"
+				+ "test_total{result=\"ok\"} 3\n", text);
+	}
+
+	@Test
+	public void render_should_write_cumulative_histogram_buckets_in_seconds() {
+		// Given
+		MetricsRegistry registry = new MetricsRegistry();
+		Histogram histogram = registry.histogram("test_seconds", "Durations", "route", "GET /");
+
+		// When
+		histogram.record(1000);
+		histogram.record(2000);
+		histogram.record(100_000_000_000L); // over the last bound
+		String text = registry.render();
+
+		// Then
+		assertTrue(text.contains("# TYPE test_seconds histogram\n"));
+		assertTrue(text.contains("test_seconds_bucket{route=\"GET /\",le=\"1.024E-6\"} 1\n"));
+		assertTrue(text.contains("test_seconds_bucket{route=\"GET /\",le=\"2.048E-6\"} 2\n"));
+		assertTrue(text.contains("test_seconds_bucket{route=\"GET /\",le=\"68.719476736\"} 2\n"));
+		assertTrue(text.contains("test_seconds_bucket{route=\"GET /\",le=\"+Inf\"} 3\n"));
+		assertTrue(text.contains("test_seconds_sum{route=\"GET /\"} 100.000003\n"));
+		assertTrue(text.contains("test_seconds_count{route=\"GET /\"} 3\n"));
+	}
+
+	@Test
+	public void labels_should_escape_values() {
+		// Then
+		assertEquals("a=\"x\\\"y\\\\z\\n\",b=\"\"", MetricsRegistry.labels("a", "x\"y\\z\n", "b", null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void counter_should_fail_on_a_name_registered_with_another_type() {
+		// Given
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.histogram("test_seconds", "Durations");
+
+		// When
+		registry.counter("test_seconds", "Durations");
+	}
+
+	@Test
+	public void counter_should_count_concurrent_increments() throws InterruptedException {
+		// Given
+		Counter counter = new MetricsRegistry().counter("test_total", "Test");
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				for (int j = 0; j < 10000; j++) {
+					counter.increment();
+				}
+			});
+			threads[i].start();
+		}
+
+		// When
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// Then
+		assertEquals(40000, counter.get());
+	}
+}
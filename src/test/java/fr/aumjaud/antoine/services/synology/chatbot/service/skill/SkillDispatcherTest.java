@@ -0,0 +1,115 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.skill;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.aumjaud.antoine.services.synology.chatbot.service.execution.TaskExecutors;
+
+public class SkillDispatcherTest {
+
+	private final List<String> sent = new CopyOnWriteArrayList<>();
+	private Properties properties;
+	private SkillDispatcher dispatcher;
+
+	@Before
+	public void setUp() {
+		properties = new Properties();
+		properties.setProperty("skill.timeout-ms", "100");
+		properties.setProperty("skill.slow.timeout-ms", "20");
+		dispatcher = new SkillDispatcher(new TaskExecutors(), (userName, message, url) -> sent.add(userName + ": " + message));
+		dispatcher.setConfig(properties);
+	}
+
+	private static Skill skill(String name, long durationMillis, String response) {
+		return Skill.of(name, request -> {
+			try {
+				Thread.sleep(durationMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return response;
+		}, SkillTrigger.prefix(name));
+	}
+
+	private static SkillRequest request(String message) {
+		return new SkillRequest("1", "antoine", message, "");
+	}
+
+	@Test
+	public void dispatch_should_return_the_response_of_a_skill_in_time() {
+		// When
+		String response = dispatcher.dispatch(skill("fast", 0, "done"), request("fast"));
+
+		// Then
+		assertEquals("done", response);
+		assertEquals(1, dispatcher.getStats().get("fast").getCalls());
+		assertEquals(0, dispatcher.getStats().get("fast").getDeferred());
+	}
+
+	@Test
+	public void dispatch_should_acknowledge_a_slow_skill_and_send_its_response_later() throws InterruptedException {
+		// When
+		String response = dispatcher.dispatch(skill("slow", 200, "done later"), request("slow"));
+		for (int i = 0; i < 100 && sent.isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+
+		// Then
+		assertTrue(response.startsWith("⏳"));
+		assertEquals("antoine: done later", sent.get(0));
+		assertEquals(1, dispatcher.getStats().get("slow").getDeferred());
+	}
+
+	@Test
+	public void dispatch_should_run_in_caller_thread_without_timeout() {
+		// Given
+		properties.setProperty("skill.inline.timeout-ms", "0");
+		dispatcher.setConfig(properties);
+		Skill inline = Skill.of("inline", request -> Thread.currentThread().getName(), SkillTrigger.prefix("inline"));
+
+		// When
+		String response = dispatcher.dispatch(inline, request("inline"));
+
+		// Then
+		assertEquals(Thread.currentThread().getName(), response);
+	}
+
+	@Test
+	public void dispatch_should_keep_the_timeouts_read_on_the_last_config() {
+		// Given
+		properties.setProperty("skill.inline.timeout-ms", "0");
+		Skill inline = Skill.of("inline", request -> Thread.currentThread().getName(), SkillTrigger.prefix("inline"));
+
+		// When
+		String response = dispatcher.dispatch(inline, request("inline"));
+
+		// Then
+		assertTrue(!Thread.currentThread().getName().equals(response));
+	}
+
+	@Test
+	public void dispatch_should_rethrow_the_error_of_a_skill_in_time() {
+		// Given
+		Skill failing = Skill.of("failing", request -> {
+			throw new IllegalArgumentException("wrong");
+		}, SkillTrigger.prefix("failing"));
+
+		// When
+		try {
+			dispatcher.dispatch(failing, request("failing"));
+			fail("exception expected");
+		} catch (IllegalArgumentException e) {
+			// Then
+			assertEquals("wrong", e.getMessage());
+			assertEquals(1, dispatcher.getStats().get("failing").getFailed());
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.skill;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SkillRegistryTest {
+
+	private SkillRegistry registry;
+
+	@Before
+	public void setUp() {
+		registry = new SkillRegistry();
+		registry.register(Skill.of("weather", request -> "sunny", SkillTrigger.prefix("weather")));
+		registry.register(Skill.of("weather-today", request -> "sunny today", SkillTrigger.prefix("weather today")));
+		registry.register(Skill.of("link", request -> "link", SkillTrigger.pattern("https?://\\S+")));
+		registry.register(Skill.of("download", request -> "download", SkillTrigger.channel("mp3.channel-id")));
+		Properties properties = new Properties();
+		properties.setProperty("mp3.channel-id", "19");
+		registry.setConfig(properties);
+	}
+
+	@Test
+	public void route_should_select_the_longest_prefix_and_pass_the_arguments() {
+		// When
+		SkillRegistry.Route route = registry.route("1", "weather today in Paris");
+
+		// Then
+		assertEquals("weather-today", route.getSkill().getName());
+		assertEquals("in Paris", route.getArguments());
+		assertEquals("weather", registry.route("1", "weather Lyon").getSkill().getName());
+	}
+
+	@Test
+	public void route_should_select_a_skill_by_pattern_then_by_channel() {
+		// When
+		SkillRegistry.Route byPattern = registry.route("19", "https://example.com/page");
+		SkillRegistry.Route byChannel = registry.route("19", "status");
+
+		// Then
+		assertEquals("link", byPattern.getSkill().getName());
+		assertEquals("https://example.com/page", byPattern.getArguments());
+		assertEquals("download", byChannel.getSkill().getName());
+	}
+
+	@Test
+	public void route_should_match_the_patterns_with_groups_alone() {
+		// Given
+		registry.register(Skill.of("repeat", request -> "repeat", SkillTrigger.pattern("(\\w+) \\1")));
+		registry.register(Skill.of("ticket", request -> "ticket", SkillTrigger.pattern("(?<id>#\\d+)")));
+		registry.register(Skill.of("issue", request -> "issue", SkillTrigger.pattern("issue (?<id>\\d+)")));
+		registry.register(Skill.of("shout", request -> "shout", SkillTrigger.pattern("[A-Z!]+")));
+
+		// When
+		SkillRegistry.Route repeat = registry.route("1", "bye bye");
+		SkillRegistry.Route issue = registry.route("1", "issue 42");
+		SkillRegistry.Route shout = registry.route("1", "HEY!");
+
+		// Then
+		assertEquals("repeat", repeat.getSkill().getName());
+		assertEquals("ticket", registry.route("1", "#42").getSkill().getName());
+		assertEquals("issue", issue.getSkill().getName());
+		assertEquals("shout", shout.getSkill().getName());
+		assertEquals("link", registry.route("1", "http://example.com").getSkill().getName());
+		assertNull(registry.route("1", "bye hello"));
+	}
+
+	@Test
+	public void route_should_return_null_if_no_skill_is_triggered() {
+		// When
+		SkillRegistry.Route route = registry.route("1", "hello");
+
+		// Then
+		assertNull(route);
+	}
+
+	@Test
+	public void loadServices_should_register_the_skills_declared_in_meta_inf() {
+		// Given
+		SkillRegistry services = new SkillRegistry();
+
+		// When
+		int count = services.loadServices(getClass().getClassLoader());
+
+		// Then
+		assertEquals(1, count);
+		SkillRegistry.Route route = services.route("1", "echo");
+		assertEquals(EchoSkill.ECHO, route.getSkill().handle(new SkillRequest("1", "antoine", "echo", route.getArguments())));
+	}
+}
@@ -0,0 +1,132 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class JdkOutboundHttpClientTest {
+
+	private HttpServer server;
+	private String baseUrl;
+	private ConcurrentLinkedQueue<String> receivedBodies = new ConcurrentLinkedQueue<>();
+	private ConcurrentLinkedQueue<String> receivedContentTypes = new ConcurrentLinkedQueue<>();
+	private JdkOutboundHttpClient httpClient;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			try (InputStream in = exchange.getRequestBody()) {
+				receivedBodies.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+			}
+			String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+			if (contentType != null) receivedContentTypes.add(contentType);
+			byte[] response = "{\"success\":true}".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(exchange.getRequestURI().getPath().equals("/missing") ? 404 : 200, response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		});
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+		httpClient = new JdkOutboundHttpClient();
+		Properties properties = new Properties();
+		properties.setProperty("http.version", "HTTP_1_1");
+		httpClient.setConfig(properties);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void postForm_should_send_the_encoded_body() {
+		// Given
+		String body = "payload=%7B%22text%22%3A%22hello%22%7D";
+
+		// When
+		OutboundResponse response = httpClient.postForm(URI.create(baseUrl + "/chat"), body);
+
+		// Then
+		assertTrue(response.isOk());
+		assertEquals("{\"success\":true}", response.getContent());
+		assertEquals(body, receivedBodies.poll());
+		assertTrue(receivedContentTypes.poll().startsWith("application/x-www-form-urlencoded"));
+	}
+
+	@Test
+	public void postFormAsync_should_complete_with_the_response() {
+		// Given
+		String body = "payload=%7B%7D";
+
+		// When
+		OutboundResponse response = httpClient.postFormAsync(URI.create(baseUrl + "/chat"), body).join();
+
+		// Then
+		assertTrue(response.isOk());
+		assertEquals(body, receivedBodies.poll());
+	}
+
+	@Test
+	public void get_should_return_the_status_code() {
+		// When
+		OutboundResponse response = httpClient.get(baseUrl + "/missing");
+
+		// Then
+		assertEquals(404, response.getStatusCode());
+	}
+
+	@Test
+	public void setConfig_should_send_with_the_new_client_when_settings_change() {
+		// Given
+		httpClient.get(baseUrl + "/key");
+		Properties properties = new Properties();
+		properties.setProperty("http.version", "HTTP_1_1");
+		properties.setProperty("http.request-timeout-ms", "5000");
+
+		// When
+		httpClient.setConfig(properties);
+		OutboundResponse response = httpClient.get(baseUrl + "/key");
+
+		// Then
+		assertEquals(200, response.getStatusCode());
+	}
+
+	@Test
+	public void get_should_return_null_if_server_is_not_reachable() {
+		// Given
+		server.stop(0);
+
+		// When
+		OutboundResponse response = httpClient.get(baseUrl + "/key");
+
+		// Then
+		assertNull(response);
+	}
+
+	@Test
+	public void postFormAsync_should_complete_with_null_if_url_is_not_http() {
+		// When
+		OutboundResponse response = httpClient.postFormAsync(URI.create("ftp://localhost/chat"), "payload=").join();
+
+		// Then
+		assertNull(response);
+	}
+}
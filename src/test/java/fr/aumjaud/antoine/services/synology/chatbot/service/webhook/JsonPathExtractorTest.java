@@ -0,0 +1,68 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.webhook;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import fr.aumjaud.antoine.services.common.security.WrongRequestException;
+
+public class JsonPathExtractorTest {
+
+	private static byte[] json(String json) {
+		return json.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void extract_should_read_nested_values_and_array_elements() {
+		// Given
+		JsonPathExtractor extractor = new JsonPathExtractor(Arrays.asList("project.path_with_namespace", "object_attributes.status",
+				"commits.1.message", "object_attributes.duration", "object_attributes.tag"));
+
+		// When
+		String[] values = extractor.extract(json("{\"object_kind\":\"pipeline\",\"object_attributes\":{\"status\":\"failed\",\"duration\":63,\"tag\":false,"
+				+ "\"stages\":[\"build\",\"test\"]},\"project\":{\"id\":1,\"path_with_namespace\":\"o/r\"},"
+				+ "\"commits\":[{\"message\":\"first\"},{\"message\":\"second\"}]}"));
+
+		// Then
+		assertEquals(Arrays.asList("o/r", "failed", "second", "63", "false"), Arrays.asList(values));
+	}
+
+	@Test
+	public void extract_should_leave_missing_and_non_primitive_values_null() {
+		// Given
+		JsonPathExtractor extractor = new JsonPathExtractor(Arrays.asList("repository", "repository.name", "missing.path", "repository"));
+
+		// When
+		String[] values = extractor.extract(json("{\"repository\":{\"name\":\"r\",\"owner\":{\"login\":\"o\"}}}"));
+
+		// Then
+		assertEquals(Arrays.asList(null, "r", null, null), Arrays.asList(values));
+	}
+
+	@Test
+	public void extract_should_give_a_value_to_each_path_declared_twice() {
+		// Given
+		JsonPathExtractor extractor = new JsonPathExtractor(Arrays.asList("a.b", "a.b"));
+
+		// When
+		String[] values = extractor.extract(json("{\"a\":{\"b\":\"x\"}}"));
+
+		// Then
+		assertEquals(Arrays.asList("x", "x"), Arrays.asList(values));
+	}
+
+	@Test(expected = WrongRequestException.class)
+	public void extract_should_fail_on_invalid_json() {
+		// When
+		new JsonPathExtractor(Arrays.asList("a")).extract(json("{\"a\":"));
+	}
+
+	@Test(expected = WrongRequestException.class)
+	public void extract_should_fail_on_a_json_value_which_is_not_a_document() {
+		// When
+		new JsonPathExtractor(Arrays.asList("a")).extract(json("\"a\""));
+	}
+}
@@ -0,0 +1,174 @@
+package fr.aumjaud.antoine.services.synology.chatbot.service.webhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.aumjaud.antoine.services.common.security.NoAccessException;
+import fr.aumjaud.antoine.services.common.security.WrongRequestException;
+import fr.aumjaud.antoine.services.synology.chatbot.service.HmacSha256Verifier;
+
+public class WebhookProviderTest {
+
+	private static final String GITEA_PAYLOAD = "{\"ref\":\"refs/heads/main\",\"commits\":[{\"message\":\"Fix build\"}],"
+			+ "\"repository\":{\"full_name\":\"o/r\",\"html_url\":\"https://gitea/o/r\"},\"pusher\":{\"login\":\"antoine\"}}";
+	private static final String GITLAB_PAYLOAD = "{\"object_kind\":\"pipeline\",\"object_attributes\":{\"ref\":\"main\",\"status\":\"%s\","
+			+ "\"url\":\"https://gitlab/o/r/-/pipelines/1\"},\"project\":{\"path_with_namespace\":\"o/r\"}}";
+
+	private Properties properties;
+
+	@Before
+	public void setUp() {
+		properties = new Properties();
+		properties.setProperty("webhook.gitea.signature", "hmac-sha256");
+		properties.setProperty("webhook.gitea.signature-header", "X-Gitea-Signature");
+		properties.setProperty("webhook.gitea.secret", "secret");
+		properties.setProperty("webhook.gitea.field.repository", "repository.full_name|repository.name|'unknown-repository'");
+		properties.setProperty("webhook.gitea.field.branch", "ref");
+		properties.setProperty("webhook.gitea.field.message", "commits.0.message");
+		properties.setProperty("webhook.gitea.field.pusher", "pusher.login|pusher.username");
+		properties.setProperty("webhook.gitea.template", "Push of {pusher} on {repository} ({branch}): {message}");
+
+		properties.setProperty("webhook.gitlab.signature", "token");
+		properties.setProperty("webhook.gitlab.signature-header", "X-Gitlab-Token");
+		properties.setProperty("webhook.gitlab.secret", "token123");
+		properties.setProperty("webhook.gitlab.field.project", "project.path_with_namespace");
+		properties.setProperty("webhook.gitlab.field.status", "object_attributes.status");
+		properties.setProperty("webhook.gitlab.field.branch", "object_attributes.ref");
+		properties.setProperty("webhook.gitlab.field.url", "object_attributes.url");
+		properties.setProperty("webhook.gitlab.template", "Pipeline <{url}|{status}> of {project} ({branch})");
+		properties.setProperty("webhook.gitlab.template-by", "status");
+		properties.setProperty("webhook.gitlab.template.success", "Pipeline success of {project} ({branch})");
+	}
+
+	private static String sign(String payload) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : new HmacSha256Verifier("secret".getBytes(StandardCharsets.UTF_8)).sign(payload.getBytes(StandardCharsets.UTF_8))) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	@Test
+	public void getMessage_should_render_the_template_with_the_fields_of_a_signed_payload() {
+		// Given
+		WebhookProvider provider = new WebhookProvider("gitea", properties);
+
+		// When
+		String message = provider.getMessage(GITEA_PAYLOAD.getBytes(StandardCharsets.UTF_8), sign(GITEA_PAYLOAD));
+
+		// Then
+		assertEquals("Push of antoine on o/r (refs/heads/main): Fix build", message);
+		assertTrue(provider.isSignatureOfPayload());
+	}
+
+	@Test
+	public void getMessage_should_use_the_default_value_of_a_missing_field() {
+		// Given
+		WebhookProvider provider = new WebhookProvider("gitea", properties);
+		String payload = "{\"ref\":\"main\"}";
+
+		// When
+		String message = provider.getMessage(payload.getBytes(StandardCharsets.UTF_8), sign(payload));
+
+		// Then
+		assertEquals("Push of  on unknown-repository (main): ", message);
+	}
+
+	@Test
+	public void getMessage_should_check_a_signature_with_its_prefix() {
+		// Given
+		properties.setProperty("webhook.gitea.signature-prefix", "sha256=");
+		WebhookProvider provider = new WebhookProvider("gitea", properties);
+
+		// When
+		String message = provider.getMessage(GITEA_PAYLOAD.getBytes(StandardCharsets.UTF_8), "sha256=" + sign(GITEA_PAYLOAD));
+
+		// Then
+		assertTrue(message.startsWith("Push of antoine"));
+	}
+
+	@Test(expected = NoAccessException.class)
+	public void getMessage_should_reject_a_wrong_signature() {
+		// Given
+		WebhookProvider provider = new WebhookProvider("gitea", properties);
+
+		// When
+		provider.getMessage(GITEA_PAYLOAD.getBytes(StandardCharsets.UTF_8), sign(GITEA_PAYLOAD + " "));
+	}
+
+	@Test(expected = WrongRequestException.class)
+	public void getMessage_should_reject_a_missing_signature() {
+		// Given
+		WebhookProvider provider = new WebhookProvider("gitea", properties);
+
+		// When
+		provider.getMessage(GITEA_PAYLOAD.getBytes(StandardCharsets.UTF_8), null);
+	}
+
+	@Test
+	public void getMessage_should_select_the_template_by_the_value_of_a_field() {
+		// Given
+		WebhookProvider provider = new WebhookProvider("gitlab", properties);
+
+		// When
+		String success = provider.getMessage(String.format(GITLAB_PAYLOAD, "SUCCESS").getBytes(StandardCharsets.UTF_8), "token123");
+		String failed = provider.getMessage(String.format(GITLAB_PAYLOAD, "failed").getBytes(StandardCharsets.UTF_8), "token123");
+
+		// Then
+		assertEquals("Pipeline success of o/r (main)", success);
+		assertEquals("Pipeline <https://gitlab/o/r/-/pipelines/1|failed> of o/r (main)", failed);
+		assertFalse(provider.isSignatureOfPayload());
+	}
+
+	@Test(expected = NoAccessException.class)
+	public void getMessage_should_reject_a_wrong_token() {
+		// Given
+		WebhookProvider provider = new WebhookProvider("gitlab", properties);
+
+		// When
+		provider.getMessage(String.format(GITLAB_PAYLOAD, "failed").getBytes(StandardCharsets.UTF_8), "token124");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void new_should_fail_on_a_template_with_an_unknown_field() {
+		// Given
+		properties.setProperty("webhook.gitlab.template", "Pipeline {state} of {project}");
+
+		// When
+		new WebhookProvider("gitlab", properties);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void new_should_fail_on_an_unknown_signature_scheme() {
+		// Given
+		properties.setProperty("webhook.gitlab.signature", "md5");
+
+		// When
+		new WebhookProvider("gitlab", properties);
+	}
+
+	@Test
+	public void get_should_find_only_the_providers_declared() {
+		// Given
+		WebhookProviders providers = new WebhookProviders();
+		properties.setProperty("webhook.providers", "gitea, gitlab");
+		providers.setConfig(properties);
+
+		// Then
+		assertEquals("gitlab", providers.get("gitlab").getName());
+		try {
+			providers.get("dockerhub");
+			fail("dockerhub is not declared");
+		} catch (WrongRequestException e) {
+			// expected
+		}
+	}
+}